@@ -0,0 +1,169 @@
+import java.awt.*;
+import java.awt.image.BufferStrategy;
+
+/**
+ * Canvas drawn by active rendering: frames are drawn into a BufferStrategy
+ * and shown as soon as they are ready, instead of being queued as repaints
+ * for Swing to coalesce. Page flipping is used when the display supports it,
+ * otherwise back buffers are blitted; either way the buffers are
+ * VolatileImages where the graphics pipeline accelerates them.
+ *
+ * The canvas keeps count of the frames it shows and how late they are, so
+ * frame delivery can be measured.
+ *
+ * @author Brian Lorton
+ *
+ */
+@SuppressWarnings("serial")
+public class ActiveRenderCanvas extends Canvas {
+
+	// number of buffers to ask for, counting the one on screen
+	private final int buffers;
+
+	// expected time between frames, for counting late ones
+	private final long frameNanos;
+
+	// buffers being drawn into, created once the canvas is displayable
+	private BufferStrategy strategy;
+
+	// frame delivery statistics
+	private volatile long framesShown;
+	private volatile long lateFrames;
+	private volatile long maxFrameNanos;
+	private long lastShown;
+
+	/**
+	 * Constructs an ActiveRenderCanvas
+	 *
+	 * @param buffers
+	 *            2 for double buffering, 3 for triple buffering
+	 * @param frameNanos
+	 *            expected time between frames; frames shown more than half
+	 *            a frame behind count as late
+	 */
+	public ActiveRenderCanvas(int buffers, long frameNanos) {
+		this.buffers = buffers;
+		this.frameNanos = frameNanos;
+		setIgnoreRepaint(true);
+		setBackground(Color.BLACK);
+	}
+
+	/**
+	 * Draws a frame with the given renderer and shows it. Does nothing until
+	 * the canvas has been added to a visible window
+	 *
+	 * @param renderer
+	 *            draws the frame
+	 */
+	public void render(BrickYardRenderer renderer) {
+		if (strategy == null) {
+			if (!isDisplayable()) {
+				return;
+			}
+			createStrategy();
+		}
+
+		// the buffers can be lost at any time, e.g. when the display mode
+		// changes, so draw until a frame makes it to the screen intact
+		do {
+			do {
+				Graphics g = strategy.getDrawGraphics();
+				try {
+					// back buffers keep old frames, so clear first
+					g.setColor(getBackground());
+					g.fillRect(0, 0, getWidth(), getHeight());
+					renderer.paint(g);
+				} finally {
+					g.dispose();
+				}
+			} while (strategy.contentsRestored());
+			strategy.show();
+		} while (strategy.contentsLost());
+		Toolkit.getDefaultToolkit().sync();
+
+		long now = System.nanoTime();
+		if (framesShown > 0) {
+			long took = now - lastShown;
+			if (took > maxFrameNanos) {
+				maxFrameNanos = took;
+			}
+			if (took > frameNanos + frameNanos / 2) {
+				lateFrames++;
+			}
+		}
+		lastShown = now;
+		framesShown++;
+	}
+
+	/**
+	 * Checks whether the back buffers are accelerated, i.e. VolatileImages
+	 *
+	 * @return true if accelerated, false if not or not yet created
+	 */
+	public boolean isAccelerated() {
+		return strategy != null
+				&& strategy.getCapabilities().getBackBufferCapabilities()
+						.isAccelerated();
+	}
+
+	/**
+	 * Checks whether frames are shown by page flipping
+	 *
+	 * @return true if page flipping, false if blitting or not yet created
+	 */
+	public boolean isPageFlipping() {
+		return strategy != null && strategy.getCapabilities().isPageFlipping();
+	}
+
+	/**
+	 * Retrieves the number of frames shown
+	 *
+	 * @return frames shown
+	 */
+	public long getFramesShown() {
+		return framesShown;
+	}
+
+	/**
+	 * Retrieves the number of frames shown more than half a frame late
+	 *
+	 * @return late frames
+	 */
+	public long getLateFrames() {
+		return lateFrames;
+	}
+
+	/**
+	 * Retrieves the longest gap seen between two frames
+	 *
+	 * @return longest gap in nanoseconds
+	 */
+	public long getMaxFrameNanos() {
+		return maxFrameNanos;
+	}
+
+	/**
+	 * Releases the buffers when the canvas is taken off screen
+	 */
+	@Override
+	public void removeNotify() {
+		if (strategy != null) {
+			strategy.dispose();
+			strategy = null;
+		}
+		super.removeNotify();
+	}
+
+	// asks for page flipping first, falling back to whatever the
+	// platform offers for the requested number of buffers
+	private void createStrategy() {
+		try {
+			createBufferStrategy(buffers, new BufferCapabilities(
+					new ImageCapabilities(true), new ImageCapabilities(true),
+					BufferCapabilities.FlipContents.UNDEFINED));
+		} catch (AWTException e) {
+			createBufferStrategy(buffers);
+		}
+		strategy = getBufferStrategy();
+	}
+}
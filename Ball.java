@@ -81,8 +81,20 @@ public class Ball extends PlaceableObject {
 	 * @return BallGraphic representing this Ball
 	 */
 	public BallGraphic getBallGraphic() {
-		return new BallGraphic(this.getX(), this.getY(), this.getSizeX(),
-				this.getSizeY(), this.getColor());
+		return getBallGraphic(1);
+	}
+
+	/**
+	 * Creates a BallGraphic positioned between the previous and current
+	 * location, for drawing frames that fall between ticks
+	 * 
+	 * @param alpha
+	 *            0 for the previous location, 1 for the current one
+	 * @return BallGraphic representing this Ball
+	 */
+	public BallGraphic getBallGraphic(double alpha) {
+		return new BallGraphic(this.getX(alpha), this.getY(alpha),
+				this.getSizeX(), this.getSizeY(), this.getColor());
 	}
 
 	/**
@@ -0,0 +1,433 @@
+import java.util.Arrays;
+
+/**
+ * Moves a Ball through one tick using swept collision detection. The ball's
+ * box is swept along its velocity for the whole tick and the time of impact
+ * is worked out for every wall, shield face and brick face in its path. The
+ * earliest contact is resolved first, reflecting the ball off it, and the
+ * rest of the tick is swept again from there. Nothing can be tunnelled
+ * through however fast the ball goes.
+ *
+ * The bricks are walked once per tick. The boxes of those the ball could
+ * reach are copied into a reusable contact buffer, ordered by the soonest
+ * the ball could touch each one whichever way it bounces, so each sweep
+ * stops as soon as no brick left could beat the earliest contact found.
+ * Contacts at the same moment are resolved together and reported in id
+ * order, so the outcome doesn't depend on the order bricks are stored or
+ * indexed in.
+ *
+ * Positions stay whole pixels: reflecting off a face at a whole pixel maps
+ * the ball's end position to another whole pixel.
+ *
+ * The collider only reads the bricks. Bricks struck are reported back to
+ * the caller, which decides what breaking them means. Callers that keep
+ * their balls in arrays rather than Ball objects, such as BatchEnv, move
+ * them by value, gathering the bricks near each ball themselves.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BallCollider {
+
+	// most contacts resolved in a single tick, in case the ball is wedged
+	// between faces it keeps bouncing back and forth across
+	private static final int MAX_CONTACTS = 8;
+
+	// contacts closer together in time than this are simultaneous
+	private static final double SAME_TIME = 1e-9;
+
+	// axis a contact reflects the ball along
+	private static final int AXIS_X = 0;
+	private static final int AXIS_Y = 1;
+	private static final int AXIS_LOST = 2;
+
+	// ints of the contact buffer per brick: left, top, right, bottom, id
+	private static final int BOX = 5;
+
+	// soonest contact times are kept as fractions of a tick in this many
+	// steps, rounded down so they never overstate how soon
+	private static final double SOONEST_STEPS = 1 << 30;
+
+	// reusable storage for ids of bricks near the ball's path
+	private IntList nearBall;
+
+	// the contact buffer: boxes of the bricks the ball could reach this
+	// tick, and the order to try them in, each entry holding the soonest
+	// contact time in the high word and the box's slot in the low word
+	private int[] boxes;
+	private long[] order;
+	private int candidates;
+
+	// bricks in the group of contacts being gathered
+	private IntList pending;
+
+	// state of the sweep: position at time t into the tick, velocity,
+	// and where the ball will end the tick if nothing else is hit
+	private double x, y, t;
+	private int vx, vy, endX, endY;
+
+	// size of the ball
+	private int sizeX, sizeY;
+
+	// where the last ball moved ended the tick
+	private int resultX, resultY;
+
+	// earliest group of contacts found so far in this pass
+	private double contactTime;
+	private boolean flipX, flipY, lost;
+	private int planeX, planeY;
+
+	/**
+	 * Constructs a BallCollider
+	 */
+	public BallCollider() {
+		nearBall = new IntList();
+		pending = new IntList();
+		boxes = new int[16 * BOX];
+		order = new long[16];
+	}
+
+	/**
+	 * Moves a ball through one tick, bouncing it off the walls, the shield
+	 * and any standing bricks in its path
+	 *
+	 * @param ball
+	 *            the ball to move; its position and velocity are updated
+	 * @param shield
+	 *            the shield, already moved for this tick
+	 * @param bricks
+	 *            the bricks
+	 * @param grid
+	 *            spatial index over the bricks
+	 * @param yardSizeX
+	 *            width of the yard; the left and right walls
+	 * @param yardSizeY
+	 *            height of the yard; reaching it loses the ball
+	 * @param hit
+	 *            ids of the bricks struck are added to this list
+	 * @return true if the ball reached the bottom of the yard, in which case
+	 *         it is left where it touched and its velocity is untouched
+	 */
+	public boolean move(Ball ball, Shield shield, BrickStore bricks,
+			BrickGrid grid, int yardSizeX, int yardSizeY, IntList hit) {
+		// every position the ball can reach this tick lies within its box
+		// grown by its speed, so the bricks near that are all that matter
+		int reachX = Math.abs(ball.getVX());
+		int reachY = Math.abs(ball.getVY());
+		grid.query(bricks, ball.getX() - reachX, ball.getY() - reachY,
+				ball.getX() + ball.getSizeX() + reachX, ball.getY()
+						+ ball.getSizeY() + reachY, nearBall);
+		boolean reachedBottom = move(ball.getX(), ball.getY(), ball.getVX(),
+				ball.getVY(), ball.getSizeX(), ball.getSizeY(), shield.getX(),
+				shield.getY(), shield.getSizeX(), shield.getSizeY(), bricks,
+				nearBall, yardSizeX, yardSizeY, hit);
+		ball.setX(resultX);
+		ball.setY(resultY);
+		if (!reachedBottom) {
+			ball.setVX(vx);
+			ball.setVY(vy);
+		}
+		return reachedBottom;
+	}
+
+	/**
+	 * Moves a ball given by value through one tick, bouncing it off the
+	 * walls, the shield and the bricks given. Where it ends up is read back
+	 * with getX, getY, getVX and getVY
+	 *
+	 * @param ballX
+	 *            x of the ball's upper left corner
+	 * @param ballY
+	 *            y of the ball's upper left corner
+	 * @param ballVX
+	 *            velocity in the x direction
+	 * @param ballVY
+	 *            velocity in the y direction
+	 * @param ballSizeX
+	 *            width of the ball
+	 * @param ballSizeY
+	 *            height of the ball
+	 * @param shieldX
+	 *            x of the shield, already moved for this tick
+	 * @param shieldY
+	 *            y of the shield
+	 * @param shieldSizeX
+	 *            width of the shield
+	 * @param shieldSizeY
+	 *            height of the shield
+	 * @param bricks
+	 *            the store the brick ids refer to
+	 * @param near
+	 *            ids of the standing bricks within reach of the ball this
+	 *            tick: those touching its box grown by its speed. The list
+	 *            is only read
+	 * @param yardSizeX
+	 *            width of the yard; the left and right walls
+	 * @param yardSizeY
+	 *            height of the yard; reaching it loses the ball
+	 * @param hit
+	 *            ids of the bricks struck are added to this list
+	 * @return true if the ball reached the bottom of the yard, in which case
+	 *         it is left where it touched
+	 */
+	public boolean move(int ballX, int ballY, int ballVX, int ballVY,
+			int ballSizeX, int ballSizeY, int shieldX, int shieldY,
+			int shieldSizeX, int shieldSizeY, BrickStore bricks,
+			IntList near, int yardSizeX, int yardSizeY, IntList hit) {
+		x = ballX;
+		y = ballY;
+		t = 0;
+		vx = ballVX;
+		vy = ballVY;
+		endX = ballX + vx;
+		endY = ballY + vy;
+		sizeX = ballSizeX;
+		sizeY = ballSizeY;
+		gather(bricks, near, Math.abs(vx), Math.abs(vy));
+
+		for (int contacts = 0; contacts < MAX_CONTACTS; contacts++) {
+			contactTime = Double.POSITIVE_INFINITY;
+			pending.clear();
+
+			// walls
+			if (vx < 0) {
+				offer(AXIS_X, x / -vx, 0, -1);
+			} else if (vx > 0) {
+				offer(AXIS_X, (yardSizeX - sizeX - x) / vx, yardSizeX - sizeX,
+						-1);
+			}
+			if (vy < 0) {
+				offer(AXIS_Y, -y / vy, 0, -1);
+			} else if (vy > 0) {
+				offer(AXIS_LOST, (yardSizeY - sizeY - y) / vy, 0, -1);
+			}
+
+			// the shield's top and sides
+			if (vy > 0) {
+				faceY(shieldY, shieldX, shieldX + shieldSizeX, -1);
+			}
+			faceX(shieldX, shieldX + shieldSizeX, shieldY, shieldY
+					+ shieldSizeY, -1);
+
+			// bricks, soonest first, until none left could come first
+			for (int i = 0; i < candidates; i++) {
+				long entry = order[i];
+				if ((entry >>> 32) > (contactTime + SAME_TIME) * SOONEST_STEPS) {
+					break;
+				}
+				int at = (int) entry * BOX;
+				int id = boxes[at + 4];
+				if (contains(hit, id)) {
+					continue;
+				}
+				faceX(boxes[at], boxes[at + 2], boxes[at + 1], boxes[at + 3],
+						id);
+				if (vy > 0) {
+					faceY(boxes[at + 1], boxes[at], boxes[at + 2], id);
+				} else if (vy < 0) {
+					faceY(boxes[at + 3], boxes[at], boxes[at + 2], id);
+				}
+			}
+
+			if (contactTime == Double.POSITIVE_INFINITY) {
+				break;
+			}
+
+			// advance to the contact
+			x += vx * (contactTime - t);
+			y += vy * (contactTime - t);
+			t = contactTime;
+			pending.sort();
+			for (int i = 0; i < pending.size(); i++) {
+				hit.add(pending.get(i));
+			}
+			if (lost) {
+				resultX = (int) Math.floor(x);
+				resultY = (int) Math.floor(y);
+				return true;
+			}
+
+			// reflect off the faces touched
+			if (flipX) {
+				x = planeX;
+				endX = 2 * planeX - endX;
+				vx = -vx;
+			}
+			if (flipY) {
+				y = planeY;
+				endY = 2 * planeY - endY;
+				vy = -vy;
+			}
+		}
+
+		resultX = endX;
+		resultY = endY;
+		return false;
+	}
+
+	/**
+	 * Retrieves where the last ball moved ended up
+	 *
+	 * @return x of the ball's upper left corner
+	 */
+	public int getX() {
+		return resultX;
+	}
+
+	/**
+	 * Retrieves where the last ball moved ended up
+	 *
+	 * @return y of the ball's upper left corner
+	 */
+	public int getY() {
+		return resultY;
+	}
+
+	/**
+	 * Retrieves the velocity the last ball moved ended up with. A ball that
+	 * reached the bottom keeps the velocity it had when it touched
+	 *
+	 * @return velocity in the x direction
+	 */
+	public int getVX() {
+		return vx;
+	}
+
+	/**
+	 * Retrieves the velocity the last ball moved ended up with
+	 *
+	 * @return velocity in the y direction
+	 */
+	public int getVY() {
+		return vy;
+	}
+
+	// copies the boxes of the bricks near the ball that it could reach
+	// this tick into the contact buffer, and orders them by the soonest
+	// it could touch each.  Bouncing never changes how fast the ball
+	// moves along either axis, so the gaps between the ball and a brick
+	// along each axis give that time whatever the ball bounces off first
+	private void gather(BrickStore bricks, IntList near, int reachX,
+			int reachY) {
+		candidates = 0;
+		if (near.size() > order.length) {
+			order = new long[Math.max(near.size(), order.length * 2)];
+			boxes = new int[order.length * BOX];
+		}
+		for (int i = 0; i < near.size(); i++) {
+			int id = near.get(i);
+			int bx = bricks.getX(id);
+			int by = bricks.getY(id);
+			int bx2 = bx + bricks.getSizeX(id);
+			int by2 = by + bricks.getSizeY(id);
+			double soonest = Math.max(
+					reachTime(Math.max(bx - (x + sizeX), x - bx2), reachX),
+					reachTime(Math.max(by - (y + sizeY), y - by2), reachY));
+			if (soonest > 1) {
+				continue;
+			}
+			int at = candidates * BOX;
+			boxes[at] = bx;
+			boxes[at + 1] = by;
+			boxes[at + 2] = bx2;
+			boxes[at + 3] = by2;
+			boxes[at + 4] = id;
+			order[candidates] = (long) (soonest * SOONEST_STEPS) << 32
+					| candidates;
+			candidates++;
+		}
+		Arrays.sort(order, 0, candidates);
+	}
+
+	// time the ball takes to close a gap moving this fast along it
+	private static double reachTime(double gap, int speed) {
+		if (gap <= 0) {
+			return 0;
+		}
+		return speed == 0 ? Double.POSITIVE_INFINITY : gap / speed;
+	}
+
+	// offers the left or right face of a box, whichever the ball is
+	// moving towards, if the ball crosses it within the box's height
+	private void faceX(int x1, int x2, int y1, int y2, int brick) {
+		double d;
+		int plane;
+		if (vx > 0) {
+			d = x1 - (x + sizeX);
+			plane = x1 - sizeX;
+		} else if (vx < 0) {
+			d = x - x2;
+			plane = x2;
+		} else {
+			return;
+		}
+		if (d < -SAME_TIME) {
+			return;
+		}
+		double when = d / Math.abs(vx);
+		double across = y + vy * when;
+		if (across + sizeY >= y1 && across <= y2) {
+			offer(AXIS_X, when, plane, brick);
+		}
+	}
+
+	// offers a horizontal face at height face, if the ball's leading
+	// edge crosses it within the face's width
+	private void faceY(int face, int x1, int x2, int brick) {
+		double d;
+		int plane;
+		if (vy > 0) {
+			d = face - (y + sizeY);
+			plane = face - sizeY;
+		} else {
+			d = y - face;
+			plane = face;
+		}
+		if (d < -SAME_TIME) {
+			return;
+		}
+		double when = d / Math.abs(vy);
+		double across = x + vx * when;
+		if (across + sizeX >= x1 && across <= x2) {
+			offer(AXIS_Y, when, plane, brick);
+		}
+	}
+
+	// adds a contact this far into the rest of the tick to the earliest
+	// group, starting a new group if it comes first
+	private void offer(int axis, double when, int plane, int brick) {
+		double at = t + Math.max(0, when);
+		if (at > 1 + SAME_TIME || at > contactTime + SAME_TIME) {
+			return;
+		}
+		if (at < contactTime - SAME_TIME) {
+			contactTime = at;
+			flipX = false;
+			flipY = false;
+			lost = false;
+			pending.clear();
+		}
+		if (axis == AXIS_X) {
+			flipX = true;
+			planeX = plane;
+		} else if (axis == AXIS_Y) {
+			flipY = true;
+			planeY = plane;
+		} else {
+			lost = true;
+		}
+		if (brick >= 0 && !contains(pending, brick)) {
+			pending.add(brick);
+		}
+	}
+
+	// checks whether a short list holds the given id
+	private static boolean contains(IntList list, int id) {
+		for (int i = 0; i < list.size(); i++) {
+			if (list.get(i) == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
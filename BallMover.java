@@ -0,0 +1,230 @@
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Moves every ball in play through one tick. During a tick the balls only
+ * read the shield and the bricks, never each other, so they can be swept
+ * independently: the balls are split into contiguous chunks, each with its
+ * own BallCollider, and the chunks run in parallel on the common
+ * ForkJoinPool. A handful of balls is swept on the calling thread.
+ *
+ * Bricks struck are not knocked out here. Every hit is reported as a ball
+ * and brick pair, in ball order whatever the number of chunks, so the caller
+ * can resolve them deterministically, e.g. letting the lowest numbered ball
+ * claim a brick struck by several.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BallMover {
+
+	// fewest balls given a chunk of their own
+	private static final int MIN_CHUNK = 64;
+
+	// most chunks per worker thread, so uneven chunks even out
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	// what the current tick's balls move through, shared by the chunks
+	private List<Ball> balls;
+	private Shield shield;
+	private BrickStore bricks;
+	private BrickGrid grid;
+	private int yardSizeX, yardSizeY;
+
+	// chunks used so far, reused every tick
+	private Chunk[] chunks;
+
+	// chunks in use this tick
+	private Chunk[] active;
+
+	// hits of the last tick, as parallel lists of ball index and brick id
+	private IntList hitBall, hitBrick;
+
+	// indexes of the balls lost in the last tick, in order
+	private IntList lost;
+
+	/**
+	 * Constructs a BallMover
+	 */
+	public BallMover() {
+		chunks = new Chunk[] { new Chunk() };
+		active = new Chunk[] { chunks[0] };
+		hitBall = new IntList();
+		hitBrick = new IntList();
+		lost = new IntList();
+	}
+
+	/**
+	 * Moves every ball through one tick, bouncing each off the walls, the
+	 * shield and any standing bricks in its path
+	 *
+	 * @param balls
+	 *            the balls to move; their positions and velocities are
+	 *            updated
+	 * @param shield
+	 *            the shield, already moved for this tick
+	 * @param bricks
+	 *            the bricks, which are not changed
+	 * @param grid
+	 *            spatial index over the bricks
+	 * @param yardSizeX
+	 *            width of the yard; the left and right walls
+	 * @param yardSizeY
+	 *            height of the yard; reaching it loses a ball
+	 */
+	public void move(List<Ball> balls, Shield shield, BrickStore bricks,
+			BrickGrid grid, int yardSizeX, int yardSizeY) {
+		this.balls = balls;
+		this.shield = shield;
+		this.bricks = bricks;
+		this.grid = grid;
+		this.yardSizeX = yardSizeX;
+		this.yardSizeY = yardSizeY;
+
+		int count = balls.size();
+		int threads = ForkJoinPool.getCommonPoolParallelism();
+		int wanted = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, count
+				/ MIN_CHUNK));
+		split(count, wanted);
+
+		if (active.length == 1) {
+			active[0].sweep();
+		} else {
+			for (Chunk chunk : active) {
+				chunk.reinitialize();
+			}
+			ForkJoinTask.invokeAll(active);
+		}
+
+		// gather the results in ball order
+		hitBall.clear();
+		hitBrick.clear();
+		lost.clear();
+		for (Chunk chunk : active) {
+			for (int i = 0; i < chunk.hitBall.size(); i++) {
+				hitBall.add(chunk.hitBall.get(i));
+				hitBrick.add(chunk.hitBrick.get(i));
+			}
+			for (int i = 0; i < chunk.lost.size(); i++) {
+				lost.add(chunk.lost.get(i));
+			}
+		}
+		this.balls = null;
+	}
+
+	/**
+	 * Retrieves the number of brick hits in the last tick
+	 *
+	 * @return hit count
+	 */
+	public int getHitCount() {
+		return hitBrick.size();
+	}
+
+	/**
+	 * Retrieves the ball that made a hit
+	 *
+	 * @param index
+	 *            which hit, below getHitCount()
+	 * @return index of the ball
+	 */
+	public int getHitBall(int index) {
+		return hitBall.get(index);
+	}
+
+	/**
+	 * Retrieves the brick struck by a hit
+	 *
+	 * @param index
+	 *            which hit, below getHitCount()
+	 * @return id of the brick
+	 */
+	public int getHitBrick(int index) {
+		return hitBrick.get(index);
+	}
+
+	/**
+	 * Retrieves the number of balls lost in the last tick
+	 *
+	 * @return lost ball count
+	 */
+	public int getLostCount() {
+		return lost.size();
+	}
+
+	/**
+	 * Retrieves a ball lost in the last tick. Lost balls are left where
+	 * they touched the bottom, with their velocity untouched
+	 *
+	 * @param index
+	 *            which lost ball, below getLostCount(); they are in order
+	 * @return index of the ball
+	 */
+	public int getLost(int index) {
+		return lost.get(index);
+	}
+
+	// divides the balls evenly between the given number of chunks
+	private void split(int count, int wanted) {
+		if (wanted > chunks.length) {
+			Chunk[] more = new Chunk[wanted];
+			System.arraycopy(chunks, 0, more, 0, chunks.length);
+			for (int i = chunks.length; i < wanted; i++) {
+				more[i] = new Chunk();
+			}
+			chunks = more;
+		}
+		if (active.length != wanted) {
+			active = new Chunk[wanted];
+			System.arraycopy(chunks, 0, active, 0, wanted);
+		}
+		for (int i = 0; i < wanted; i++) {
+			active[i].from = (int) ((long) count * i / wanted);
+			active[i].to = (int) ((long) count * (i + 1) / wanted);
+		}
+	}
+
+	/**
+	 * A run of consecutive balls swept by one worker
+	 */
+	@SuppressWarnings("serial")
+	private class Chunk extends RecursiveAction {
+
+		// balls from and up to but not including to
+		int from, to;
+
+		// this chunk's own collider and results
+		final BallCollider collider = new BallCollider();
+		final IntList hitBall = new IntList();
+		final IntList hitBrick = new IntList();
+		final IntList lost = new IntList();
+
+		// bricks struck by the ball being swept
+		final IntList hits = new IntList();
+
+		@Override
+		protected void compute() {
+			sweep();
+		}
+
+		// moves each ball of the chunk, noting what it hit
+		void sweep() {
+			hitBall.clear();
+			hitBrick.clear();
+			lost.clear();
+			for (int i = from; i < to; i++) {
+				hits.clear();
+				if (collider.move(balls.get(i), shield, bricks, grid,
+						yardSizeX, yardSizeY, hits)) {
+					lost.add(i);
+				}
+				for (int k = 0; k < hits.size(); k++) {
+					hitBall.add(i);
+					hitBrick.add(hits.get(k));
+				}
+			}
+		}
+	}
+}
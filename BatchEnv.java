@@ -0,0 +1,595 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Many games stepped together, for training paddle agents. Each game is the
+ * game BrickYardModel plays with one ball, but kept as a row of packed
+ * primitive arrays rather than objects: ball position and velocity, shield
+ * position, score, balls remaining, and one bit per brick still standing.
+ * Every game is played on the same bricks, taken from a template model, so
+ * their geometry, and the grid over it, are stored once.
+ *
+ * step takes an action per game, runs a tick of every game, and writes each
+ * game's observation, reward and whether it ended into buffers the caller
+ * supplies. Nothing is allocated once running. Games that end start over at
+ * once, so the observation written for one is the first of its next game.
+ * The games are split into chunks stepped in parallel on the common
+ * ForkJoinPool, as BallMover splits balls. Balls are moved by the same
+ * BallCollider the model uses, so a game here plays out tick for tick as the
+ * model would with the same input.
+ *
+ * Actions are PaddleInput flags. A game is over once its last ball is lost,
+ * or once every brick is down, as there is nothing left to score, and is
+ * cut short after a set number of ticks. The reward for a tick is the points
+ * scored in it.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BatchEnv {
+
+	// what step writes to the done buffer for each game
+	public static final byte RUNNING = 0;
+	public static final byte TERMINATED = 1;
+	public static final byte TRUNCATED = 2;
+
+	// where each value is in a game's observation. Positions are
+	// fractions of the arena, velocities fractions of the serve speed,
+	// and bricks 1 while standing, 0 once down, in the template's order
+	public static final int OBS_BALL_X = 0;
+	public static final int OBS_BALL_Y = 1;
+	public static final int OBS_BALL_VX = 2;
+	public static final int OBS_BALL_VY = 3;
+	public static final int OBS_SHIELD_X = 4;
+	public static final int OBS_BALLS_REMAINING = 5;
+	public static final int OBS_WAITING = 6;
+	public static final int OBS_BRICKS = 7;
+
+	// fewest games given a chunk of their own
+	private static final int MIN_CHUNK = 64;
+
+	// most chunks per worker thread, so uneven chunks even out
+	private static final int CHUNKS_PER_THREAD = 4;
+
+	// size of a grid cell, as the model's
+	private static final int GRID_CELL = 64;
+
+	// defaults for running from the command line
+	private static final int DEFAULT_GAMES = 4096;
+	private static final int DEFAULT_SECONDS = 10;
+	private static final int DEFAULT_MAX_TICKS = 10000;
+
+	// number of games, and most ticks in one
+	private final int games;
+	private final int maxTicks;
+
+	// the bricks every game is played on, the grid over them, and how
+	// many longs of standing bits each game has
+	private final BrickStore layout;
+	private final BrickGrid grid;
+	private final int brickCount;
+	private final int words;
+
+	// size of the arena
+	private final int arenaX, arenaY;
+
+	// the ball as served, and its size
+	private final int serveX, serveY, serveVX, serveVY;
+	private final int ballSizeX, ballSizeY;
+
+	// the shield as served, its size, and how far it moves a tick
+	private final int shieldServeX, shieldY;
+	private final int shieldSizeX, shieldSizeY;
+	private final int shieldSpeed;
+
+	// balls remaining when a game starts
+	private final int startRemaining;
+
+	// the state of each game, one entry per game, and the standing
+	// bits of each, words longs per game
+	private final int[] ballX, ballY, ballVX, ballVY;
+	private final int[] shieldX;
+	private final int[] score, ballsRemaining, standing, ticks;
+	private final boolean[] waiting;
+	private final long[] live;
+
+	// the standing bits of a new game
+	private final long[] allLive;
+
+	// chunks of games stepped in parallel
+	private final Chunk[] chunks;
+
+	// the buffers of the step running, and whether every game's
+	// bricks are to be written to its observation
+	private int[] actions;
+	private float[] observations;
+	private float[] rewards;
+	private byte[] done;
+	private boolean allBricks;
+
+	// the observations last written in full or brought up to date,
+	// so a step writing to them again need only clear the bricks
+	// knocked out
+	private float[] written;
+
+	// scales positions and velocities into observations
+	private final float toArenaX, toArenaY, toServeSpeed;
+
+	/**
+	 * Constructs a BatchEnv of games played on the built-in rows of bricks
+	 *
+	 * @param games
+	 *            number of games
+	 * @param maxTicks
+	 *            most ticks a game runs before being cut short
+	 */
+	public BatchEnv(int games, int maxTicks) {
+		this(new BrickYardModel(), games, maxTicks);
+	}
+
+	/**
+	 * Constructs a BatchEnv of games played as a template model's game.
+	 * The games take its arena, its standing bricks, and its first ball and
+	 * shield as served, so it should be at the start of a game. A level's
+	 * regions not laid out yet are left out. The template is only read
+	 *
+	 * @param template
+	 *            the model to copy
+	 * @param games
+	 *            number of games
+	 * @param maxTicks
+	 *            most ticks a game runs before being cut short
+	 */
+	public BatchEnv(BrickYardModel template, int games, int maxTicks) {
+		if (games < 1 || maxTicks < 1) {
+			throw new IllegalArgumentException("games and maxTicks must be "
+					+ "positive");
+		}
+		this.games = games;
+		this.maxTicks = maxTicks;
+		arenaX = template.getArenaWidth();
+		arenaY = template.getArenaHeight();
+
+		// copy the standing bricks, keeping their order so contacts
+		// resolve as they do in the template
+		BrickStore bricks = template.getBrickStore();
+		layout = new BrickStore();
+		grid = new BrickGrid(arenaX, arenaY, GRID_CELL);
+		for (int id = bricks.nextLive(0); id >= 0; id = bricks
+				.nextLive(id + 1)) {
+			int copy = layout.add(bricks.getX(id), bricks.getY(id),
+					bricks.getSizeX(id), bricks.getSizeY(id),
+					bricks.getPoints(id), bricks.getPaletteColor(bricks
+							.getPalette(id)));
+			grid.add(layout, copy);
+		}
+		brickCount = layout.size();
+		words = Math.max(1, (brickCount + 63) >>> 6);
+		allLive = new long[words];
+		for (int i = 0; i < brickCount; i++) {
+			allLive[i >>> 6] |= 1L << i;
+		}
+
+		Ball ball = template.getBall();
+		serveX = ball.getX();
+		serveY = ball.getY();
+		serveVX = ball.getVX();
+		serveVY = ball.getVY();
+		ballSizeX = ball.getSizeX();
+		ballSizeY = ball.getSizeY();
+		Shield shield = template.getShield();
+		shieldServeX = shield.getX();
+		shieldY = shield.getY();
+		shieldSizeX = shield.getSizeX();
+		shieldSizeY = shield.getSizeY();
+		shieldSpeed = shield.getSpeed();
+		startRemaining = template.getBallsRemaining();
+
+		toArenaX = 1f / arenaX;
+		toArenaY = 1f / arenaY;
+		toServeSpeed = 1f / Math.max(1, Math.max(Math.abs(serveVX),
+				Math.abs(serveVY)));
+
+		ballX = new int[games];
+		ballY = new int[games];
+		ballVX = new int[games];
+		ballVY = new int[games];
+		shieldX = new int[games];
+		score = new int[games];
+		ballsRemaining = new int[games];
+		standing = new int[games];
+		ticks = new int[games];
+		waiting = new boolean[games];
+		live = new long[games * words];
+		for (int g = 0; g < games; g++) {
+			restart(g);
+		}
+
+		// split the games evenly between the chunks
+		int threads = ForkJoinPool.getCommonPoolParallelism();
+		int count = Math.max(1, Math.min(threads * CHUNKS_PER_THREAD, games
+				/ MIN_CHUNK));
+		chunks = new Chunk[count];
+		for (int i = 0; i < count; i++) {
+			chunks[i] = new Chunk((int) ((long) games * i / count),
+					(int) ((long) games * (i + 1) / count));
+		}
+	}
+
+	/**
+	 * Retrieves the number of games
+	 *
+	 * @return game count
+	 */
+	public int getGameCount() {
+		return games;
+	}
+
+	/**
+	 * Retrieves the number of floats in each game's observation
+	 *
+	 * @return observation size; step writes this many per game
+	 */
+	public int getObservationSize() {
+		return OBS_BRICKS + brickCount;
+	}
+
+	/**
+	 * Starts every game over and writes their first observations
+	 *
+	 * @param observations
+	 *            getObservationSize() floats per game are written here
+	 */
+	public void reset(float[] observations) {
+		checkLength(observations.length, getObservationSize());
+		for (int g = 0; g < games; g++) {
+			restart(g);
+			observe(g, observations);
+			observeBricks(g, observations);
+		}
+		written = observations;
+	}
+
+	/**
+	 * Runs a tick of every game, starting over the games that end. Given
+	 * the observations reset or the last step wrote, only the bricks that
+	 * changed are written, so passing the same buffer every step saves
+	 * rewriting every brick of every game
+	 *
+	 * @param actions
+	 *            each game's input for the tick: PaddleInput.LEFT and
+	 *            PaddleInput.RIGHT for the arrows held, plus
+	 *            PaddleInput.LAUNCH to serve
+	 * @param observations
+	 *            getObservationSize() floats per game are written here
+	 * @param rewards
+	 *            the points each game scored in the tick are written here
+	 * @param done
+	 *            RUNNING, TERMINATED or TRUNCATED is written here for each
+	 *            game
+	 */
+	public void step(int[] actions, float[] observations, float[] rewards,
+			byte[] done) {
+		checkLength(actions.length, 1);
+		checkLength(observations.length, getObservationSize());
+		checkLength(rewards.length, 1);
+		checkLength(done.length, 1);
+		this.actions = actions;
+		this.observations = observations;
+		this.rewards = rewards;
+		this.done = done;
+		allBricks = observations != written;
+		written = null;
+		try {
+			if (chunks.length == 1) {
+				chunks[0].sweep();
+			} else {
+				for (Chunk chunk : chunks) {
+					chunk.reinitialize();
+				}
+				ForkJoinTask.invokeAll(chunks);
+			}
+			written = observations;
+		} finally {
+			this.actions = null;
+			this.observations = null;
+			this.rewards = null;
+			this.done = null;
+		}
+	}
+
+	/**
+	 * Retrieves a game's score so far
+	 *
+	 * @param game
+	 *            which game
+	 * @return the score
+	 */
+	public int getScore(int game) {
+		return score[game];
+	}
+
+	/**
+	 * Retrieves a game's balls remaining
+	 *
+	 * @param game
+	 *            which game
+	 * @return balls in reserve
+	 */
+	public int getBallsRemaining(int game) {
+		return ballsRemaining[game];
+	}
+
+	/**
+	 * Retrieves the number of ticks a game has run
+	 *
+	 * @param game
+	 *            which game
+	 * @return ticks since the game started
+	 */
+	public int getTick(int game) {
+		return ticks[game];
+	}
+
+	/**
+	 * Retrieves where a game's ball is
+	 *
+	 * @param game
+	 *            which game
+	 * @return x of the ball's upper left corner
+	 */
+	public int getBallX(int game) {
+		return ballX[game];
+	}
+
+	/**
+	 * Retrieves where a game's ball is
+	 *
+	 * @param game
+	 *            which game
+	 * @return y of the ball's upper left corner
+	 */
+	public int getBallY(int game) {
+		return ballY[game];
+	}
+
+	/**
+	 * Retrieves where a game's shield is
+	 *
+	 * @param game
+	 *            which game
+	 * @return x of the shield's upper left corner
+	 */
+	public int getShieldX(int game) {
+		return shieldX[game];
+	}
+
+	// fails unless a buffer holds the given number of values per game
+	private void checkLength(int length, int perGame) {
+		if (length < games * perGame) {
+			throw new IllegalArgumentException("buffer of " + length
+					+ " is too small for " + games + " games of " + perGame);
+		}
+	}
+
+	// starts a game over, as BrickYardModel.newGame does: the ball
+	// already in play and the next serve waiting
+	private void restart(int g) {
+		ballX[g] = serveX;
+		ballY[g] = serveY;
+		ballVX[g] = serveVX;
+		ballVY[g] = serveVY;
+		shieldX[g] = shieldServeX;
+		score[g] = 0;
+		ballsRemaining[g] = startRemaining;
+		standing[g] = brickCount;
+		ticks[g] = 0;
+		waiting[g] = true;
+		System.arraycopy(allLive, 0, live, g * words, words);
+	}
+
+	// writes a game's observation but for its bricks
+	private void observe(int g, float[] out) {
+		int at = g * getObservationSize();
+		out[at + OBS_BALL_X] = ballX[g] * toArenaX;
+		out[at + OBS_BALL_Y] = ballY[g] * toArenaY;
+		out[at + OBS_BALL_VX] = ballVX[g] * toServeSpeed;
+		out[at + OBS_BALL_VY] = ballVY[g] * toServeSpeed;
+		out[at + OBS_SHIELD_X] = shieldX[g] * toArenaX;
+		out[at + OBS_BALLS_REMAINING] = ballsRemaining[g];
+		out[at + OBS_WAITING] = waiting[g] ? 1f : 0f;
+	}
+
+	// writes whether each brick is standing to a game's observation
+	private void observeBricks(int g, float[] out) {
+		int at = g * getObservationSize() + OBS_BRICKS;
+		int base = g * words;
+		for (int i = 0; i < brickCount; i++) {
+			out[at + i] = (live[base + (i >>> 6)] >>> i & 1L) != 0 ? 1f : 0f;
+		}
+	}
+
+	/**
+	 * A run of consecutive games stepped by one worker
+	 */
+	@SuppressWarnings("serial")
+	private class Chunk extends RecursiveAction {
+
+		// games from and up to but not including to
+		final int from, to;
+
+		// this chunk's own collider and scratch lists: bricks near the
+		// ball, those of them standing in the game, and those struck
+		final BallCollider collider = new BallCollider();
+		final IntList found = new IntList();
+		final IntList near = new IntList();
+		final IntList hit = new IntList();
+
+		Chunk(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			sweep();
+		}
+
+		// steps each game of the chunk
+		void sweep() {
+			for (int g = from; g < to; g++) {
+				tick(g);
+			}
+		}
+
+		// runs one tick of a game, as the model runs a tick with the
+		// same input, and writes what it came to
+		private void tick(int g) {
+			int action = actions[g];
+			if ((action & PaddleInput.LAUNCH) != 0 && waiting[g]) {
+				// serve the next ball
+				ballsRemaining[g]--;
+				ballX[g] = serveX;
+				ballY[g] = serveY;
+				ballVX[g] = serveVX;
+				ballVY[g] = serveVY;
+				shieldX[g] = shieldServeX;
+				waiting[g] = false;
+			}
+
+			// move the shield unless it is against the wall it is
+			// heading for
+			boolean left = (action & PaddleInput.LEFT) != 0;
+			boolean right = (action & PaddleInput.RIGHT) != 0;
+			if (right && !left && shieldX[g] + shieldSizeX < arenaX) {
+				shieldX[g] += shieldSpeed;
+			} else if (left && !right && shieldX[g] > 0) {
+				shieldX[g] -= shieldSpeed;
+			}
+
+			// sweep the ball past the bricks of the layout within its
+			// reach that are still standing in this game
+			int x = ballX[g];
+			int y = ballY[g];
+			int reachX = Math.abs(ballVX[g]);
+			int reachY = Math.abs(ballVY[g]);
+			grid.query(layout, x - reachX, y - reachY, x + ballSizeX
+					+ reachX, y + ballSizeY + reachY, found);
+			int base = g * words;
+			near.clear();
+			for (int i = 0; i < found.size(); i++) {
+				int id = found.get(i);
+				if ((live[base + (id >>> 6)] & 1L << id) != 0) {
+					near.add(id);
+				}
+			}
+			hit.clear();
+			boolean lost = collider.move(x, y, ballVX[g], ballVY[g],
+					ballSizeX, ballSizeY, shieldX[g], shieldY, shieldSizeX,
+					shieldSizeY, layout, near, arenaX, arenaY, hit);
+			ballX[g] = collider.getX();
+			ballY[g] = collider.getY();
+
+			// knock out the bricks struck
+			int points = 0;
+			int bricksAt = g * getObservationSize() + OBS_BRICKS;
+			for (int i = 0; i < hit.size(); i++) {
+				int id = hit.get(i);
+				long bit = 1L << id;
+				if ((live[base + (id >>> 6)] & bit) != 0) {
+					live[base + (id >>> 6)] &= ~bit;
+					points += layout.getPoints(id);
+					standing[g]--;
+					observations[bricksAt + id] = 0f;
+				}
+			}
+			score[g] += points;
+
+			byte end = RUNNING;
+			if (lost) {
+				// the ball stops where it fell until the next serve
+				ballVX[g] = 0;
+				ballVY[g] = 0;
+				waiting[g] = true;
+				if (ballsRemaining[g] < 1) {
+					end = TERMINATED;
+				}
+			} else {
+				ballVX[g] = collider.getVX();
+				ballVY[g] = collider.getVY();
+			}
+			ticks[g]++;
+			if (end == RUNNING && standing[g] == 0) {
+				end = TERMINATED;
+			} else if (end == RUNNING && ticks[g] >= maxTicks) {
+				end = TRUNCATED;
+			}
+
+			rewards[g] = points;
+			done[g] = end;
+			if (end != RUNNING) {
+				restart(g);
+			}
+			observe(g, observations);
+			if (end != RUNNING || allBricks) {
+				observeBricks(g, observations);
+			}
+		}
+	}
+
+	/**
+	 * Steps games with random input as fast as they go, printing the steps
+	 * run per second
+	 *
+	 * @param args
+	 *            the number of games, then the seconds to run for
+	 */
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_GAMES;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1])
+				: DEFAULT_SECONDS;
+
+		BatchEnv env = new BatchEnv(games, DEFAULT_MAX_TICKS);
+		int[] actions = new int[games];
+		float[] observations = new float[games * env.getObservationSize()];
+		float[] rewards = new float[games];
+		byte[] done = new byte[games];
+		env.reset(observations);
+
+		// hold each random action for a few ticks, as a player would
+		long seed = 0x9e3779b97f4a7c15L;
+		long start = System.nanoTime();
+		long report = start;
+		long steps = 0, lastSteps = 0, episodes = 0;
+		double points = 0;
+		while (System.nanoTime() - start < seconds * 1000000000L) {
+			for (int g = 0; g < games; g++) {
+				seed ^= seed << 13;
+				seed ^= seed >>> 7;
+				seed ^= seed << 17;
+				if ((seed & 7) == 0) {
+					actions[g] = (int) (seed >>> 8) & 7;
+				}
+			}
+			env.step(actions, observations, rewards, done);
+			steps += games;
+			for (int g = 0; g < games; g++) {
+				points += rewards[g];
+				if (done[g] != RUNNING) {
+					episodes++;
+				}
+			}
+			long now = System.nanoTime();
+			if (now - report >= 1000000000L) {
+				System.out.printf("%,14.0f steps/s  episodes %d  points per "
+						+ "episode %.1f%n", (steps - lastSteps) * 1e9
+						/ (now - report), episodes, episodes > 0 ? points
+						/ episodes : 0.0);
+				lastSteps = steps;
+				report = now;
+			}
+		}
+	}
+}
@@ -0,0 +1,617 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.management.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Micro benchmarks for the per-tick and per-frame hot paths of the game.
+ * Each benchmark is warmed up, then timed over several fixed-length
+ * iterations on a single thread. Reported per benchmark are throughput, the
+ * bytes allocated per operation and per second, and the garbage collections
+ * seen while measuring.
+ *
+ * Run with java -Djava.awt.headless=true BrickBreakerBenchmark, optionally
+ * followed by text that benchmark names must contain, e.g. "tick/100000".
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BrickBreakerBenchmark {
+
+	// brick counts the benchmarks are run at
+	private static final int[] BRICK_COUNTS = { 66, 1000, 100000 };
+
+	// number and length of the warmup and measured iterations
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASURED_ITERATIONS = 5;
+	private static final long ITERATION_NANOS = 1000000000L;
+
+	// balls kept in play by the multi-ball benchmark
+	private static final int BALLS = 1000;
+
+	// games stepped by the batch benchmark, fewer where their bricks
+	// would take more observation slots than given
+	private static final int BATCH_GAMES = 1024;
+	private static final int BATCH_SLOTS = 1 << 22;
+
+	// area the generated bricks are laid out in
+	private static final int FIELD_X = 786;
+	private static final int FIELD_TOP = 40;
+	private static final int FIELD_BOTTOM = 440;
+
+	// arena of the level restoring is checked on, four screens across
+	// and down, so only part of it is laid out when a game starts
+	private static final int LEVEL_X = 4 * 786;
+	private static final int LEVEL_Y = 4 * 564;
+
+	// arena the scrolling benchmark spreads its bricks over, eight
+	// screens across and down, and how far it scrolls each frame
+	private static final int ARENA_X = 8 * 786;
+	private static final int ARENA_Y = 8 * 564;
+	private static final int SCROLL_STEP = 7;
+
+	// results are folded in here so the JIT can't drop the work
+	private static volatile int sink;
+
+	/**
+	 * Runs the benchmarks and prints a table of results
+	 *
+	 * @param args
+	 *            optional filter; only benchmarks whose name contains it run
+	 */
+	public static void main(String[] args) {
+		String filter = args.length > 0 ? args[0] : "";
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+		for (int count : BRICK_COUNTS) {
+			benchmarks.add(new TickBenchmark(count));
+			benchmarks.add(new MultiBallBenchmark(count));
+			benchmarks.add(new GetBricksBenchmark(count));
+			benchmarks.add(new BrickGraphicBenchmark(count));
+			benchmarks.add(new SnapshotBenchmark(count));
+			benchmarks.add(new StateBenchmark(count));
+			benchmarks.add(new PaintBenchmark(count));
+			benchmarks.add(new ScrollBenchmark(count));
+			benchmarks.add(new BatchBenchmark(count));
+		}
+
+		System.out.printf("%-24s %14s %12s %12s %10s %8s %8s%n",
+				"Benchmark", "ops/s", "+/-", "B/op", "MB/s", "gc", "gc ms");
+		for (Benchmark b : benchmarks) {
+			if (b.name.contains(filter)) {
+				run(b);
+			}
+		}
+	}
+
+	// warms up and measures a single benchmark, then prints its row
+	private static void run(Benchmark b) {
+		com.sun.management.ThreadMXBean threads;
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+
+		b.setup();
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			iterate(b);
+		}
+
+		double[] rates = new double[MEASURED_ITERATIONS];
+		long ops = 0;
+		long nanos = 0;
+		long bytes = threads.getThreadAllocatedBytes(thread);
+		long gcCount = gcCount();
+		long gcTime = gcTime();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			long start = System.nanoTime();
+			long done = iterate(b);
+			long took = System.nanoTime() - start;
+			rates[i] = done * 1e9 / took;
+			ops += done;
+			nanos += took;
+		}
+		bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+		gcCount = gcCount() - gcCount;
+		gcTime = gcTime() - gcTime;
+
+		double mean = 0;
+		for (double r : rates) {
+			mean += r;
+		}
+		mean /= rates.length;
+		double variance = 0;
+		for (double r : rates) {
+			variance += (r - mean) * (r - mean);
+		}
+		double error = Math.sqrt(variance / (rates.length - 1));
+
+		System.out.printf("%-24s %14.1f %12.1f %12.1f %10.1f %8d %8d%n",
+				b.name, mean, error, (double) bytes / ops, bytes * 1e3
+						/ nanos, gcCount, gcTime);
+	}
+
+	// runs operations until an iteration's worth of time has passed
+	private static long iterate(Benchmark b) {
+		long end = System.nanoTime() + ITERATION_NANOS;
+		long done = 0;
+		int result = 0;
+		do {
+			// check the clock every 64 operations to keep it off the profile
+			for (int i = 0; i < 64; i++) {
+				result += b.op();
+			}
+			done += 64;
+		} while (System.nanoTime() < end);
+		sink = result;
+		return done;
+	}
+
+	// collections so far, summed over every collector
+	private static long gcCount() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionCount());
+		}
+		return total;
+	}
+
+	// milliseconds spent collecting so far, summed over every collector
+	private static long gcTime() {
+		long total = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			total += Math.max(0, gc.getCollectionTime());
+		}
+		return total;
+	}
+
+	// replaces the bricks in a model with a uniform field of the given
+	// number of bricks, shrinking them as needed to fit above the shield
+	private static void fillBricks(BrickYardModel model, int count) {
+		fillBricks(model, count, FIELD_TOP, FIELD_X, FIELD_BOTTOM - FIELD_TOP);
+	}
+
+	// replaces the bricks in a model with a uniform field of the given
+	// number of bricks, filling an area from the left edge down
+	private static void fillBricks(BrickYardModel model, int count, int top,
+			int width, int height) {
+		model.clearBricks();
+		int cols = (int) Math.ceil(Math.sqrt((double) count * width
+				/ height));
+		int rows = (count + cols - 1) / cols;
+		int cellX = Math.max(1, width / cols);
+		int cellY = Math.max(1, height / rows);
+		int sizeX = cellX > 2 ? cellX - 1 : cellX;
+		int sizeY = cellY > 2 ? cellY - 1 : cellY;
+		for (int i = 0; i < count; i++) {
+			model.addBrick((i % cols) * cellX, top + (i / cols) * cellY,
+					sizeX, sizeY, 10, Color.ORANGE);
+		}
+	}
+
+	// checks that restoring a saved state leaves the model saving the very
+	// bytes it was restored from
+	private static void checkRestore(BrickYardModel model) {
+		byte[] saved = model.saveState();
+		model.restoreState(saved);
+		if (!Arrays.equals(saved, model.saveState())) {
+			throw new IllegalStateException(
+					"restoring a saved state does not give the state back");
+		}
+	}
+
+	// checks the same of a level laid out further since the state was
+	// saved, which restoring has to take back. The level is rows of
+	// bricks over the whole arena, converted to a temporary file
+	private static void checkLevelRestore() {
+		File text = null;
+		File file = null;
+		LevelFile level = null;
+		try {
+			text = File.createTempFile("benchmark", ".txt");
+			file = File.createTempFile("benchmark", ".lvl");
+			PrintWriter out = new PrintWriter(text, "US-ASCII");
+			try {
+				out.println("arena " + LEVEL_X + " " + LEVEL_Y);
+				for (int y = FIELD_TOP; y < LEVEL_Y - FIELD_TOP; y += 20) {
+					out.println("row 0 " + y + " " + LEVEL_X / 60
+							+ " 60 58 19 10 #ffc800");
+				}
+			} finally {
+				out.close();
+			}
+			LevelConverter.convert(text, file);
+			level = new LevelFile(file);
+			BrickYardModel model = new BrickYardModel();
+			model.setRecordScores(false);
+			model.setLevel(level);
+			byte[] saved = model.saveState();
+			model.loadRegions(0, 0, LEVEL_X, LEVEL_Y);
+			model.restoreState(saved);
+			if (!Arrays.equals(saved, model.saveState())) {
+				throw new IllegalStateException("restoring a saved state "
+						+ "does not take back the regions laid out since");
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("could not make a level to check",
+					e);
+		} finally {
+			if (level != null) {
+				try {
+					level.close();
+				} catch (IOException e) {
+					// only a temporary file
+				}
+			}
+			if (text != null) {
+				text.delete();
+			}
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * A single benchmark: setup runs once before warmup, op is the measured
+	 * operation
+	 */
+	private static abstract class Benchmark {
+
+		// name printed in the results, and matched by the filter
+		final String name;
+
+		// number of bricks in the model
+		final int count;
+
+		// the model being measured
+		BrickYardModel model;
+
+		Benchmark(String name, int count) {
+			this.name = name + "/" + count;
+			this.count = count;
+		}
+
+		void setup() {
+			model = new BrickYardModel();
+			model.setRecordScores(false);
+			fillBricks(model, count);
+		}
+
+		abstract int op();
+	}
+
+	/**
+	 * One tick of the model, with a paddle that follows the ball and
+	 * relaunches it when lost. The field is refilled whenever half of it has
+	 * been knocked out, so the brick count stays near the nominal one
+	 */
+	private static class TickBenchmark extends Benchmark {
+
+		// runs the model
+		private HeadlessEngine engine;
+
+		TickBenchmark(int count) {
+			super("tick", count);
+		}
+
+		@Override
+		void setup() {
+			super.setup();
+			engine = new HeadlessEngine(model, new PaddleInput() {
+				@Override
+				public int nextInput(long tick, BrickYardModel m) {
+					Ball ball = m.getBall();
+					Shield shield = m.getShield();
+					int ballMid = ball.getX() + ball.getSizeX() / 2;
+					int shieldMid = shield.getX() + shield.getSizeX() / 2;
+					int keys = ballMid < shieldMid - 4 ? LEFT
+							: ballMid > shieldMid + 4 ? RIGHT : 0;
+					if (ball.getVX() == 0 && ball.getVY() == 0) {
+						keys |= LAUNCH;
+					}
+					return keys;
+				}
+			});
+		}
+
+		@Override
+		int op() {
+			if (engine.isGameOver()) {
+				engine.reset();
+				fillBricks(model, count);
+			} else if (model.getBrickStore().getLiveCount() < count / 2) {
+				fillBricks(model, count);
+			}
+			engine.step(1);
+			return model.getBall().getX();
+		}
+	}
+
+	/**
+	 * One tick of the model with a thousand balls in play, swept in
+	 * parallel. Lost balls are replaced and the field refilled as in the
+	 * tick benchmark, so the load stays near the nominal one
+	 */
+	private static class MultiBallBenchmark extends Benchmark {
+
+		// where replacement balls are served from, the same every run
+		private Random random;
+
+		MultiBallBenchmark(int count) {
+			super("multiball", count);
+		}
+
+		@Override
+		void setup() {
+			super.setup();
+			model.setGameOverListener(null);
+			random = new Random(42);
+		}
+
+		@Override
+		int op() {
+			while (model.getBalls().size() < BALLS) {
+				model.addBall(random.nextInt(FIELD_X - 20),
+						FIELD_BOTTOM + random.nextInt(40),
+						random.nextInt(13) - 6, -1 - random.nextInt(6));
+			}
+			if (model.getBrickStore().getLiveCount() < count / 2) {
+				fillBricks(model, count);
+			}
+			model.moveObjects();
+			return model.getScore();
+		}
+	}
+
+	/**
+	 * Builds the list of Brick objects the controller walks every frame
+	 */
+	private static class GetBricksBenchmark extends Benchmark {
+
+		GetBricksBenchmark(int count) {
+			super("getBricks", count);
+		}
+
+		@Override
+		int op() {
+			return model.getBricks().size();
+		}
+	}
+
+	/**
+	 * Builds the per-frame brick graphics the controller hands the view
+	 */
+	private static class BrickGraphicBenchmark extends Benchmark {
+
+		// controller over the model, with its timer stopped
+		private BrickBreakerControl control;
+
+		BrickGraphicBenchmark(int count) {
+			super("getBrickGraphic", count);
+		}
+
+		@Override
+		void setup() {
+			super.setup();
+			control = new BrickBreakerControl(model);
+		}
+
+		@Override
+		int op() {
+			return control.getBrickGraphic().size();
+		}
+	}
+
+	/**
+	 * Fills the render snapshot a frame is drawn from
+	 */
+	private static class SnapshotBenchmark extends Benchmark {
+
+		// the snapshot, reused every operation
+		private RenderSnapshot snapshot = new RenderSnapshot();
+
+		SnapshotBenchmark(int count) {
+			super("snapshot", count);
+		}
+
+		@Override
+		int op() {
+			model.fillSnapshot(snapshot, model.getLayoutVersion(),
+					model.getRemovedCount());
+			return snapshot.getBallX(0);
+		}
+	}
+
+	/**
+	 * Saves the model's state and restores it again, as rewinding or
+	 * forking a game does. Setup checks that a restored state, with or
+	 * without a level, saves the same bytes again
+	 */
+	private static class StateBenchmark extends Benchmark {
+
+		// the saved state, reused every operation
+		private ByteBuffer state;
+
+		StateBenchmark(int count) {
+			super("state", count);
+		}
+
+		@Override
+		void setup() {
+			super.setup();
+			checkRestore(model);
+			checkLevelRestore();
+			state = ByteBuffer.allocate(model.getStateSize());
+		}
+
+		@Override
+		int op() {
+			state.clear();
+			model.saveState(state);
+			state.flip();
+			model.restoreState(state);
+			return state.position();
+		}
+	}
+
+	/**
+	 * Paints a whole frame, background included, to an offscreen image the
+	 * size of the window
+	 */
+	private static class PaintBenchmark extends Benchmark {
+
+		// hands out the snapshots, and draws the frames
+		private BrickBreakerControl control;
+		private BrickYardRenderer renderer;
+
+		// the offscreen frame and its graphics
+		private BufferedImage frame;
+		private Graphics2D g;
+
+		// rectangles that changed since the last frame
+		private IntList dirty = new IntList();
+
+		PaintBenchmark(int count) {
+			super("paint", count);
+		}
+
+		@Override
+		void setup() {
+			super.setup();
+			control = new BrickBreakerControl(model);
+			renderer = new BrickYardRenderer(control);
+
+			// stand in for the background image with a gradient
+			BufferedImage background = new BufferedImage(800, 600,
+					BufferedImage.TYPE_INT_RGB);
+			Graphics2D bg = background.createGraphics();
+			bg.setPaint(new GradientPaint(0, 0, Color.BLACK, 0, 600,
+					Color.DARK_GRAY));
+			bg.fillRect(0, 0, 800, 600);
+			bg.dispose();
+			renderer.setBackground(background);
+
+			frame = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+			g = frame.createGraphics();
+		}
+
+		@Override
+		int op() {
+			dirty.clear();
+			control.publishSnapshot(1);
+			renderer.nextFrame(dirty);
+			renderer.paint(g);
+			return frame.getRGB(0, 0) + dirty.size();
+		}
+	}
+
+	/**
+	 * Paints a frame of an arena 64 screens in area while scrolling across
+	 * it, so every frame redraws the brick layer. Only the bricks in sight
+	 * are drawn, so the cost follows the bricks on screen, about 1/64 of
+	 * the count, rather than the arena
+	 */
+	private static class ScrollBenchmark extends Benchmark {
+
+		// hands out the snapshots, and draws the frames
+		private BrickBreakerControl control;
+		private BrickYardRenderer renderer;
+
+		// the offscreen frame and its graphics
+		private BufferedImage frame;
+		private Graphics2D g;
+
+		// rectangles that changed since the last frame
+		private IntList dirty = new IntList();
+
+		// where the camera is scrolled to
+		private int position;
+
+		ScrollBenchmark(int count) {
+			super("scroll", count);
+		}
+
+		@Override
+		void setup() {
+			model = new BrickYardModel();
+			model.setRecordScores(false);
+			model.setArenaSize(ARENA_X, ARENA_Y);
+			fillBricks(model, count, 0, ARENA_X, ARENA_Y);
+			control = new BrickBreakerControl(model);
+			renderer = new BrickYardRenderer(control);
+			renderer.getCamera().setTracking(false);
+			frame = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+			g = frame.createGraphics();
+		}
+
+		@Override
+		int op() {
+			position = (position + SCROLL_STEP) % (ARENA_Y - 600);
+			renderer.getCamera().moveTo(position * ARENA_X / ARENA_Y,
+					position);
+			dirty.clear();
+			control.publishSnapshot(1);
+			renderer.nextFrame(dirty);
+			renderer.paint(g);
+			return frame.getRGB(0, 0) + dirty.size();
+		}
+	}
+
+	/**
+	 * One step of a batch of games, each with a paddle that follows its
+	 * ball and relaunches it when lost, as in the tick benchmark. Games
+	 * start over as they end. The steps per second are the operations per
+	 * second times the games in the batch
+	 */
+	private static class BatchBenchmark extends Benchmark {
+
+		// the games, and the buffers they are stepped with
+		private BatchEnv env;
+		private int[] actions;
+		private float[] observations;
+		private float[] rewards;
+		private byte[] done;
+
+		BatchBenchmark(int count) {
+			super("batch", count);
+		}
+
+		@Override
+		void setup() {
+			super.setup();
+			int games = Math.max(1, Math.min(BATCH_GAMES, BATCH_SLOTS
+					/ count));
+			env = new BatchEnv(model, games, Integer.MAX_VALUE);
+			actions = new int[games];
+			observations = new float[games * env.getObservationSize()];
+			rewards = new float[games];
+			done = new byte[games];
+			env.reset(observations);
+		}
+
+		@Override
+		int op() {
+			int ballMid = model.getBall().getSizeX() / 2;
+			int shieldMid = model.getShield().getSizeX() / 2;
+			for (int g = 0; g < actions.length; g++) {
+				int ball = env.getBallX(g) + ballMid;
+				int shield = env.getShieldX(g) + shieldMid;
+				int keys = ball < shield - 4 ? PaddleInput.LEFT
+						: ball > shield + 4 ? PaddleInput.RIGHT : 0;
+				int at = g * env.getObservationSize();
+				if (observations[at + BatchEnv.OBS_BALL_VX] == 0
+						&& observations[at + BatchEnv.OBS_BALL_VY] == 0) {
+					keys |= PaddleInput.LAUNCH;
+				}
+				actions[g] = keys;
+			}
+			env.step(actions, observations, rewards, done);
+			return done[0] + env.getScore(0);
+		}
+	}
+}
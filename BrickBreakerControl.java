@@ -1,38 +1,144 @@
 import java.awt.event.*;
+import java.io.*;
 import java.util.*;
-import javax.swing.Timer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.swing.SwingUtilities;
 
 /**
- * Controller class for a BrickBreaker game
+ * Controller class for a BrickBreaker game.  The model is stepped
+ * on the game loop's thread, and only ever touched there once the
+ * loop is running.  Frames reach the Swing thread as render
+ * snapshots passed through a SnapshotHandoff, and key presses reach
+ * the loop's thread as flags it picks up before each step, so
+ * neither thread waits on the other
  * @author Brian Lorton
  *
  */
-public class BrickBreakerControl implements ActionListener, KeyListener {
+public class BrickBreakerControl implements GameLoop.Frame, KeyListener,
+		GameOverListener, SnapshotSource {
+
+	private static final Logger LOG = Logger
+			.getLogger(BrickBreakerControl.class.getName());
 
 	// game board
 	private BrickYardModel model;
 
-	// view
-	private BrickBreakerView view;
+	// view, registered after the loop may have started
+	private volatile BrickBreakerView view;
+
+	// loop for movement, animation
+	GameLoop loop;
+
+	// length of a simulation step, and time between frames
+	final long STEP_NANOS = 13000000L;
+	final long FRAME_NANOS = 1000000000L / 60;
+
+	// most steps to run per frame when catching up
+	final int MAX_STEPS = 5;
+
+	// refreshes the view on the Swing thread, and whether a
+	// refresh is already waiting to run there
+	private RefreshTask refreshTask;
+	private AtomicBoolean refreshQueued;
+
+	// passes render snapshots from the loop to the Swing thread
+	private SnapshotHandoff snapshots;
+
+	// layout version and removed brick log length of the last
+	// snapshot taken for drawing, packed so both are read at once
+	private volatile long drawn = -1L << 32;
 
-	// Timer for movement, animation
-	Timer timer;
+	// keys held, and whether a launch was asked for, set on the
+	// Swing thread and applied on the loop's thread
+	private volatile boolean leftHeld, rightHeld;
+	private AtomicBoolean launchRequested;
 
-	// timer pulse delay
-	final int TIMER_DELAY = 13;
+	// records the input applied each step, and the file it is
+	// saved to, if turned on by starting with
+	// -Dbrickbreaker.recordInput=<file>
+	private InputRecorder recorder;
+	private File recording;
+
+	// latency histograms published over JMX, recording only once
+	// enabled there or by starting with -Dbrickbreaker.metrics=true
+	private GameMetrics metrics;
 
 	/**
 	 * Constructs a BrickBreakerControl
 	 */
 	public BrickBreakerControl() {
+		this(new BrickYardModel());
+
+		// play in a larger arena, if given one with
+		// -Dbrickbreaker.arena=<width>x<height>
+		String arena = System.getProperty("brickbreaker.arena");
+		if (arena != null) {
+			try {
+				String[] size = arena.split("x");
+				model.setArenaSize(Integer.parseInt(size[0].trim()),
+						Integer.parseInt(size[1].trim()));
+				publishSnapshot(1);
+			} catch (IllegalArgumentException
+					| ArrayIndexOutOfBoundsException e) {
+				LOG.log(Level.WARNING, "Could not use arena size " + arena
+						+ ", playing in the default one", e);
+			}
+		}
+
+		// lay the bricks out from a level file, if given one with
+		// -Dbrickbreaker.level=<file>
+		String levelPath = System.getProperty("brickbreaker.level");
+		if (levelPath != null) {
+			try {
+				model.setLevel(new LevelFile(new File(levelPath)));
+				publishSnapshot(1);
+			} catch (IOException e) {
+				LOG.log(Level.WARNING, "Could not open level " + levelPath
+						+ ", playing the built-in one", e);
+			}
+		}
+
+		// record the game's input if asked to
+		String path = System.getProperty("brickbreaker.recordInput");
+		if (path != null) {
+			startRecording(new File(path));
+		}
+
+		// time ticks and frames, for inspecting over JMX
+		metrics = new GameMetrics(STEP_NANOS);
+		metrics.setEnabled(Boolean.getBoolean("brickbreaker.metrics"));
+		model.setMetrics(metrics);
+		try {
+			metrics.register();
+		} catch (JMException e) {
+			LOG.log(Level.WARNING, "Could not publish metrics over JMX", e);
+		}
+
+		// start the loop
+		loop.start();
+	}
 
-		// create the model, register this controller with it
-		model = new BrickYardModel();
+	// constructs a controller around an existing model, leaving
+	// the loop stopped.  Used by benchmarks, which drive the model
+	// and draw frames themselves on a single thread
+	BrickBreakerControl(BrickYardModel model) {
+
+		// register this controller with the model
+		this.model = model;
 		model.addControl(this);
 
-		// create the timer and start it
-		timer = new Timer(TIMER_DELAY, this);
-		timer.start();
+		// publish a first snapshot, so there is always one to draw
+		snapshots = new SnapshotHandoff();
+		publishSnapshot(1);
+
+		// create the loop
+		refreshTask = new RefreshTask();
+		refreshQueued = new AtomicBoolean();
+		launchRequested = new AtomicBoolean();
+		loop = new GameLoop(STEP_NANOS, FRAME_NANOS, MAX_STEPS, this);
 
 		// initialize shield movement state
 		model.setShieldLeft(false);
@@ -40,6 +146,15 @@ public class BrickBreakerControl implements ActionListener, KeyListener {
 
 	}
 
+	/**
+	 * Retrieves the latency histograms ticks and frames are
+	 * timed into
+	 * @return the metrics, or null if nothing is timed
+	 */
+	public GameMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Allows a view to be registered with this controller 
 	 * so the controller can call methods on it
@@ -54,14 +169,14 @@ public class BrickBreakerControl implements ActionListener, KeyListener {
 	 * Pauses the game
 	 */
 	public void pause() {
-		timer.stop();
+		loop.setPaused(true);
 	}
 
 	/**
 	 * Unpauses the game
 	 */
 	public void unpause(){
-		timer.start();
+		loop.setPaused(false);
 	}
 	
 	/**
@@ -89,35 +204,65 @@ public class BrickBreakerControl implements ActionListener, KeyListener {
 	}
 	
 	/**
-	 * Signals the view that the game has ended
+	 * Stops the loop and signals the view that the game has ended.
+	 * Called on the loop's thread, so the view is told on the Swing
+	 * thread
 	 */
+	@Override
 	public void gameOver(){
-		view.gameOver();
+		loop.stop();
+		saveRecording();
+		if (view != null) {
+			SwingUtilities.invokeLater(new Runnable() {
+				@Override
+				public void run() {
+					view.gameOver();
+				}
+			});
+		}
 	}
 	
 	/**
-	 * Retrieves a BallGraphic from the model
-	 * @return Ball.BallGraphic object for drawing
+	 * Takes the newest render snapshot for drawing.  It stays
+	 * unchanged until the next call, and must be drawn, as the
+	 * snapshots that follow only carry bricks laid out and knocked
+	 * out since.
+	 * Called from the thread that draws
+	 * @return the snapshot to draw
 	 */
-	public Ball.BallGraphic getBallGraphic() {
-		return model.getBall().getBallGraphic();
+	@Override
+	public RenderSnapshot getSnapshot() {
+		RenderSnapshot snapshot = snapshots.take();
+		int removed = snapshot.getRemovedStart()
+				+ snapshot.getRemovedCount();
+		drawn = (long) snapshot.getLayoutVersion() << 32
+				| (removed & 0xffffffffL);
+		return snapshot;
 	}
 
 	/**
-	 * Retrieves a ShieldGraphic from the model
-	 * @return Shield.ShieldGraphic object for drawing
+	 * Fills a render snapshot from the model and publishes it for
+	 * drawing.  Called once per frame, after the frame's steps, from
+	 * the thread stepping the model
+	 * @param alpha how far between the last two steps to draw
 	 */
-	public Shield.ShieldGraphic getShieldGraphic() {
-		return model.getShield().getShieldGraphic();
+	public void publishSnapshot(double alpha) {
+		long seen = drawn;
+		RenderSnapshot snapshot = snapshots.getFilling();
+		model.fillSnapshot(snapshot, (int) (seen >>> 32), (int) seen);
+		snapshot.setAlpha(alpha);
+		snapshots.publish();
 	}
 
 	/**
 	 * Generates a list of BrickGraphic objects, which contain only the
-	 * information necessary to draw them
+	 * information necessary to draw them.  Only for the benchmarks:
+	 * it reads the model directly, so it is unsafe while the loop is
+	 * running; views draw from getSnapshot instead
 	 * 
 	 * @return list of BrickGraphic objects used for drawing
 	 */
-	public ArrayList<Brick.BrickGraphic> getBrickGraphic() {
+	ArrayList<Brick.BrickGraphic> getBrickGraphic() {
 		ArrayList<Brick.BrickGraphic> temp = new ArrayList<Brick.BrickGraphic>();
 		for (Brick brick : model.getBricks()) {
 			Brick.BrickGraphic bla = brick.getBrickGraphic();
@@ -127,13 +272,68 @@ public class BrickBreakerControl implements ActionListener, KeyListener {
 	}
 
 	/**
-	 * handles timer tick events.  moves objects and 
-	 * refreshes the screen
+	 * handles game loop frames.  moves objects on the loop's
+	 * thread, applying the keys held before each step, then
+	 * publishes a snapshot and asks the Swing thread to draw it
 	 */
 	@Override
-	public void actionPerformed(ActionEvent e) {
-		model.moveObjects();
-		view.refresh();
+	public void frame(int steps, double alpha) {
+		for (int i = 0; i < steps; i++) {
+			applyInput();
+			model.moveObjects();
+		}
+		publishSnapshot(alpha);
+
+		// one refresh waiting is enough; it draws the newest snapshot
+		if (view != null && refreshQueued.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(refreshTask);
+		}
+	}
+
+	// passes the keys held and any launch asked for on to the
+	// model, noting them down if the input is being recorded
+	private void applyInput() {
+		boolean left = leftHeld;
+		boolean right = rightHeld;
+		boolean launch = launchRequested.get()
+				&& launchRequested.getAndSet(false);
+		model.setShieldLeft(left);
+		model.setShieldRight(right);
+		if (launch) {
+			model.launchBall();
+		}
+		if (recorder != null) {
+			recorder.record(model.getTick(), (left ? PaddleInput.LEFT : 0)
+					| (right ? PaddleInput.RIGHT : 0)
+					| (launch ? PaddleInput.LAUNCH : 0));
+		}
+	}
+
+	// records the input from the start of the game, saving it
+	// when the game ends or the program exits.  Must be called
+	// before the loop starts
+	private void startRecording(File file) {
+		recorder = new InputRecorder();
+		recording = file;
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				saveRecording();
+			}
+		}, "input-recording-shutdown"));
+	}
+
+	// saves the input recorded so far, if recording
+	private void saveRecording() {
+		if (recorder == null) {
+			return;
+		}
+		try {
+			recorder.save(recording);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not save input recording to "
+					+ recording, e);
+		}
 	}
 	
 	/**
@@ -145,23 +345,19 @@ public class BrickBreakerControl implements ActionListener, KeyListener {
 		int key = e.getKeyCode();
 
 		if (key == KeyEvent.VK_P) {
-			if (timer.isRunning()) {
-				timer.stop();
-			} else {
-				timer.start();
-			}
+			loop.setPaused(!loop.isPaused());
 		}
 
 		if (key == KeyEvent.VK_SPACE) {
-			model.launchBall();
+			launchRequested.set(true);
 		}
 
 		if (key == KeyEvent.VK_LEFT) {
-			model.setShieldLeft(true);
+			leftHeld = true;
 		}
 
 		if (key == KeyEvent.VK_RIGHT) {
-			model.setShieldRight(true);
+			rightHeld = true;
 		}
 	}
 
@@ -174,11 +370,11 @@ public class BrickBreakerControl implements ActionListener, KeyListener {
 		switch (e.getKeyCode()) {
 
 		case KeyEvent.VK_LEFT:
-			model.setShieldLeft(false);
+			leftHeld = false;
 			break;
 
 		case KeyEvent.VK_RIGHT:
-			model.setShieldRight(false);
+			rightHeld = false;
 			break;
 		}
 
@@ -191,4 +387,19 @@ public class BrickBreakerControl implements ActionListener, KeyListener {
 	public void keyTyped(KeyEvent e) {
 
 	}
+
+	/**
+	 * Draws the newest snapshot on the Swing thread.  Reused every
+	 * frame
+	 */
+	private class RefreshTask implements Runnable {
+
+		@Override
+		public void run() {
+			// clear first, so a snapshot published while drawing
+			// queues another refresh
+			refreshQueued.set(false);
+			view.refresh();
+		}
+	}
 }
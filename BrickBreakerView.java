@@ -1,8 +1,9 @@
 import java.awt.*;
-import java.awt.image.BufferedImage;
+import java.awt.event.*;
 import java.io.*;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 
@@ -15,14 +16,27 @@ import javax.swing.*;
 @SuppressWarnings("serial")
 public class BrickBreakerView extends JFrame {
 
-	// brick break logic
+	// brick break logic, or null when showing a game run elsewhere
 	private BrickBreakerControl control;
 
-	// display panel
+	// display panel, used unless active rendering is turned on
 	private bbGraphics display;
 
-	// background of game screen
-	private BufferedImage background;
+	// canvas for active rendering, turned on by starting with
+	// -Dbrickbreaker.activeRendering=true
+	private ActiveRenderCanvas canvas;
+
+	// draws the game frames
+	private BrickYardRenderer renderer;
+
+	// rectangles of the panel to repaint each frame, four ints apiece
+	private IntList dirty;
+
+	// how much each press of + or - zooms by
+	private static final double ZOOM_STEP = 1.25;
+
+	// time between the ticks a StateServer sends
+	private static final long STEP_NANOS = 13000000L;
 
 	/**
 	 * Constructs a new BrickBreakerView
@@ -30,25 +44,153 @@ public class BrickBreakerView extends JFrame {
 	public BrickBreakerView() {
 		// initialize control
 		control = new BrickBreakerControl();
+		setUp(control, control.FRAME_NANOS);
+
+		// register with the control last, as it starts refreshing
+		// the view as soon as it knows about it
 		control.addView(this);
+	}
+
+	/**
+	 * Constructs a BrickBreakerView showing a game run by a StateServer.
+	 * The arrows and space are sent to the server, which lets the first
+	 * viewer to press them play
+	 * @param client connection to the server, not yet started
+	 * @throws IOException if the client can't be started
+	 */
+	public BrickBreakerView(final StateClient client) throws IOException {
+		setUp(client, STEP_NANOS);
+
+		this.addKeyListener(new KeyAdapter() {
+			// arrows held
+			private int held;
+
+			@Override
+			public void keyPressed(KeyEvent e) {
+				switch (e.getKeyCode()) {
+				case KeyEvent.VK_LEFT:
+					held |= PaddleInput.LEFT;
+					break;
+				case KeyEvent.VK_RIGHT:
+					held |= PaddleInput.RIGHT;
+					break;
+				case KeyEvent.VK_SPACE:
+					client.launch();
+					return;
+				default:
+					return;
+				}
+				client.setHeld(held);
+			}
 
-		// initialize the graphics panel
-		display = new bbGraphics();
-		this.add(display);
+			@Override
+			public void keyReleased(KeyEvent e) {
+				switch (e.getKeyCode()) {
+				case KeyEvent.VK_LEFT:
+					held &= ~PaddleInput.LEFT;
+					break;
+				case KeyEvent.VK_RIGHT:
+					held &= ~PaddleInput.RIGHT;
+					break;
+				default:
+					return;
+				}
+				client.setHeld(held);
+			}
+		});
+
+		// draw each tick as it arrives; one refresh waiting is
+		// enough, as it draws the newest
+		final AtomicBoolean refreshQueued = new AtomicBoolean();
+		final Runnable refreshTask = new Runnable() {
+			@Override
+			public void run() {
+				refreshQueued.set(false);
+				refresh();
+			}
+		};
+		client.setListener(new StateClient.Listener() {
+			@Override
+			public void stateReceived(StateClient client) {
+				if (refreshQueued.compareAndSet(false, true)) {
+					SwingUtilities.invokeLater(refreshTask);
+				}
+			}
+		});
+		client.start();
+	}
+
+	// sets up the renderer, the panel or canvas drawn on, and the
+	// zoom keys
+	private void setUp(SnapshotSource source, long frameNanos) {
+		// initialize the renderer and graphics panel
+		renderer = new BrickYardRenderer(source);
+		dirty = new IntList();
+		if (Boolean.getBoolean("brickbreaker.activeRendering")) {
+			// triple buffer, leaving key events to the frame
+			canvas = new ActiveRenderCanvas(3, frameNanos);
+			canvas.setFocusable(false);
+			this.add(canvas);
+		} else {
+			display = new bbGraphics();
+			this.add(display);
+		}
 
 		// pull in the background image from the file system
 		try {
-			background = ImageIO.read(new File("img/space.png"));
+			renderer.setBackground(ImageIO.read(new File("img/space.png")));
 		} catch (IOException e) {
 
 		}
+
+		// zoom the camera with + and -, and back to full size with 0
+		this.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				Camera camera = renderer.getCamera();
+				switch (e.getKeyCode()) {
+				case KeyEvent.VK_EQUALS:
+				case KeyEvent.VK_PLUS:
+				case KeyEvent.VK_ADD:
+					camera.zoomBy(ZOOM_STEP);
+					break;
+				case KeyEvent.VK_MINUS:
+				case KeyEvent.VK_SUBTRACT:
+					camera.zoomBy(1 / ZOOM_STEP);
+					break;
+				case KeyEvent.VK_0:
+					camera.setZoom(1);
+					break;
+				}
+			}
+		});
 	}
 
 	/**
-	 * Refreshes the graphics on the panel
+	 * Refreshes the graphics on the panel.  With active rendering
+	 * the whole frame is drawn and shown; otherwise only the parts
+	 * of the panel that changed since the last frame are repainted.
+	 * Either way the frame is on screen when this returns, and the
+	 * time it took is recorded if the metrics are enabled
 	 */
 	public void refresh() {
-		display.repaint();
+		GameMetrics metrics = control != null ? control.getMetrics() : null;
+		boolean timed = metrics != null && metrics.isEnabled();
+		long start = timed ? System.nanoTime() : 0;
+
+		dirty.clear();
+		renderer.nextFrame(dirty);
+		if (canvas != null) {
+			canvas.render(renderer);
+		} else if (display != null) {
+			for (int i = 0; i < dirty.size(); i += 4) {
+				display.paintImmediately(dirty.get(i), dirty.get(i + 1),
+						dirty.get(i + 2), dirty.get(i + 3));
+			}
+		}
+		if (timed) {
+			metrics.recordPaint(System.nanoTime() - start);
+		}
 	}
 
 	/**
@@ -83,12 +225,20 @@ public class BrickBreakerView extends JFrame {
 		System.exit(NORMAL);
 	}
 
-	// just used to get the program running
-	public static void main(String[] args) {
+	// just used to get the program running.  Starting with
+	// -Dbrickbreaker.server=<port> shows the game a StateServer
+	// on this machine is running instead of playing one here
+	public static void main(String[] args) throws IOException {
 
 		Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
 
-		BrickBreakerView bbui = new BrickBreakerView();
+		BrickBreakerView bbui;
+		Integer port = Integer.getInteger("brickbreaker.server");
+		if (port != null) {
+			bbui = new BrickBreakerView(new StateClient(port));
+		} else {
+			bbui = new BrickBreakerView();
+		}
 		bbui.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		bbui.setSize(800, 600);
 		bbui.setLocation(screenSize.width / 2 - 400,
@@ -108,25 +258,8 @@ public class BrickBreakerView extends JFrame {
 		protected void paintComponent(Graphics g) {
 			super.paintComponent(g);
 
-			// draw the background image
-			g.drawImage(background, 0, 0, 800, 600, null);
-
-			// draw the ball
-			control.getBallGraphic().drawMe(g);
-
-			// draw the shield
-			control.getShieldGraphic().drawMe(g);
-
-			// draw the bricks
-			for (Brick.BrickGraphic bg : control.getBrickGraphic()) {
-				bg.drawMe(g);
-			}
-
-			// draw the score and balls remaining
-			g.setFont(new Font("Courier", Font.BOLD, 20));
-			g.setColor(Color.white);
-			g.drawString("SCORE: " + control.getScore(), 600, 50);
-			g.drawString("Balls: " + control.getBallsRemaining(), 50, 50);
+			// draw the frame
+			renderer.paint(g);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,195 @@
+import java.util.*;
+
+/**
+ * Uniform grid of cells used by a BrickYardModel to find the bricks near a
+ * region without scanning every brick in the yard. Each brick id is filed
+ * under the cell containing its upper left corner. Ids stay filed after the
+ * brick is knocked out; queries skip bricks the BrickStore no longer has
+ * standing.
+ *
+ * Cells are kept in pages, allocated once a brick is filed in them, so a
+ * grid can be copied in time proportional to its page count. The copies
+ * share pages, and the cells' id arrays, until one of them files a brick in
+ * a page or cell, which then gets its own copy of it first.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BrickGrid {
+
+	// cells per page, as a power of two
+	private static final int PAGE_SHIFT = 10;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// width and height of a single cell in pixels
+	private final int cellSize;
+
+	// number of cells across and down
+	private final int cols, rows;
+
+	// brick ids filed by cell, row major, indexed by
+	// [cell >>> PAGE_SHIFT][cell & PAGE_MASK]; null pages are empty
+	private int[][][] cells;
+
+	// number of ids filed in each cell, paged like cells
+	private int[][] cellCount;
+
+	// one bit per cell, set once the cell's id array is this grid's own
+	private long[][] ownedCells;
+
+	// pages this grid may write to, rather than share with a copy
+	private boolean[] owned;
+
+	// largest brick size seen, used to widen queries so bricks
+	// whose corner sits in a neighbouring cell are not missed
+	private int maxSizeX, maxSizeY;
+
+	/**
+	 * Constructs an empty grid covering the given area
+	 *
+	 * @param sizeX
+	 *            width of the covered area in pixels
+	 * @param sizeY
+	 *            height of the covered area in pixels
+	 * @param cellSize
+	 *            width and height of each cell in pixels
+	 */
+	public BrickGrid(int sizeX, int sizeY, int cellSize) {
+		this.cellSize = cellSize;
+		this.cols = Math.max(1, (sizeX + cellSize - 1) / cellSize);
+		this.rows = Math.max(1, (sizeY + cellSize - 1) / cellSize);
+		int pages = ((cols * rows - 1) >>> PAGE_SHIFT) + 1;
+		cells = new int[pages][][];
+		cellCount = new int[pages][];
+		ownedCells = new long[pages][];
+		owned = new boolean[pages];
+		Arrays.fill(owned, true);
+	}
+
+	/**
+	 * Makes a grid with the same bricks filed as this one, that more bricks
+	 * can be added to while this one is still being queried, e.g. on
+	 * another thread. Only the page tables are copied; both grids share
+	 * every page and cell until they file a brick in it, and then copy it
+	 * first, so neither ever sees a brick added to the other
+	 *
+	 * @return the new grid
+	 */
+	public BrickGrid copy() {
+		BrickGrid copy = new BrickGrid(cols * cellSize, rows * cellSize,
+				cellSize);
+		System.arraycopy(cells, 0, copy.cells, 0, cells.length);
+		System.arraycopy(cellCount, 0, copy.cellCount, 0, cellCount.length);
+		System.arraycopy(ownedCells, 0, copy.ownedCells, 0,
+				ownedCells.length);
+		Arrays.fill(copy.owned, false);
+		Arrays.fill(owned, false);
+		copy.maxSizeX = maxSizeX;
+		copy.maxSizeY = maxSizeY;
+		return copy;
+	}
+
+	/**
+	 * Files a brick under the cell containing its upper left corner
+	 *
+	 * @param store
+	 *            the store holding the brick
+	 * @param id
+	 *            the brick to add
+	 */
+	public void add(BrickStore store, int id) {
+		int cell = rowOf(store.getY(id)) * cols + colOf(store.getX(id));
+		int page = ownPage(cell >>> PAGE_SHIFT);
+		int slot = cell & PAGE_MASK;
+		int[] ids = cells[page][slot];
+		int count = cellCount[page][slot];
+		long bit = 1L << slot;
+		if (ids == null) {
+			ids = new int[4];
+		} else if (count == ids.length) {
+			ids = Arrays.copyOf(ids, ids.length * 2);
+		} else if ((ownedCells[page][slot >>> 6] & bit) == 0) {
+			ids = Arrays.copyOf(ids, ids.length);
+		}
+		cells[page][slot] = ids;
+		ownedCells[page][slot >>> 6] |= bit;
+		ids[count] = id;
+		cellCount[page][slot] = count + 1;
+		maxSizeX = Math.max(maxSizeX, store.getSizeX(id));
+		maxSizeY = Math.max(maxSizeY, store.getSizeY(id));
+	}
+
+	/**
+	 * Collects every standing brick touching the given rectangle, edges
+	 * included, in the order they were added to each cell
+	 *
+	 * @param store
+	 *            the store holding the bricks
+	 * @param x1
+	 *            left edge of the rectangle
+	 * @param y1
+	 *            top edge of the rectangle
+	 * @param x2
+	 *            right edge of the rectangle
+	 * @param y2
+	 *            bottom edge of the rectangle
+	 * @param found
+	 *            list the brick ids are added to; it is cleared first
+	 */
+	public void query(BrickStore store, int x1, int y1, int x2, int y2,
+			IntList found) {
+		found.clear();
+		int firstCol = colOf(x1 - maxSizeX);
+		int lastCol = colOf(x2);
+		int firstRow = rowOf(y1 - maxSizeY);
+		int lastRow = rowOf(y2);
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstCol; c <= lastCol; c++) {
+				int cell = r * cols + c;
+				int[] counts = cellCount[cell >>> PAGE_SHIFT];
+				if (counts == null) {
+					continue;
+				}
+				int[] ids = cells[cell >>> PAGE_SHIFT][cell & PAGE_MASK];
+				int count = counts[cell & PAGE_MASK];
+				for (int i = 0; i < count; i++) {
+					int id = ids[i];
+					if (store.isLive(id) && store.getX(id) <= x2
+							&& store.getX(id) + store.getSizeX(id) >= x1
+							&& store.getY(id) <= y2
+							&& store.getY(id) + store.getSizeY(id) >= y1) {
+						found.add(id);
+					}
+				}
+			}
+		}
+	}
+
+	// copies a page shared with another grid before a brick is filed in it,
+	// leaving its cells' id arrays shared until they are written to as well
+	private int ownPage(int page) {
+		if (!owned[page] || cellCount[page] == null) {
+			if (cellCount[page] == null) {
+				cells[page] = new int[PAGE_SIZE][];
+				cellCount[page] = new int[PAGE_SIZE];
+			} else {
+				cells[page] = cells[page].clone();
+				cellCount[page] = cellCount[page].clone();
+			}
+			ownedCells[page] = new long[PAGE_SIZE >>> 6];
+			owned[page] = true;
+		}
+		return page;
+	}
+
+	// column containing the given x, clamped to the grid
+	private int colOf(int x) {
+		return Math.min(cols - 1, Math.max(0, Math.floorDiv(x, cellSize)));
+	}
+
+	// row containing the given y, clamped to the grid
+	private int rowOf(int y) {
+		return Math.min(rows - 1, Math.max(0, Math.floorDiv(y, cellSize)));
+	}
+}
@@ -0,0 +1,232 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Keeps the background and the standing bricks drawn into an image, so a
+ * frame can put the whole brick field on screen with one image draw. The
+ * image is only redrawn in full when the bricks are replaced or the camera
+ * moves; when bricks are laid out in an area, or a brick is knocked out,
+ * just that rectangle is patched.
+ *
+ * The layer is the size of the frame, not the arena, and only the bricks the
+ * camera can see are looked up, through the brick grid, and drawn. Drawing
+ * costs the same in an arena of millions of bricks as in one screenful.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BrickLayerCache {
+
+	// size of the layer in pixels, that of the frame
+	private final int sizeX, sizeY;
+
+	// image drawn behind the bricks, scaled to the layer
+	private BufferedImage background;
+
+	// the cached layer
+	private BufferedImage layer;
+
+	// layout version the layer was drawn from, and how much of its
+	// removed brick log has been patched in since
+	private int layoutVersion;
+	private int removedSeen;
+	private boolean valid;
+
+	// where the camera was when the layer was drawn
+	private int cameraX, cameraY;
+	private double cameraZoom;
+
+	// reusable storage for ids of bricks under a patched rectangle
+	private IntList found;
+
+	/**
+	 * Constructs an empty BrickLayerCache. The layer is drawn on the first
+	 * update
+	 *
+	 * @param sizeX
+	 *            width of the layer
+	 * @param sizeY
+	 *            height of the layer
+	 */
+	public BrickLayerCache(int sizeX, int sizeY) {
+		this.sizeX = sizeX;
+		this.sizeY = sizeY;
+		found = new IntList();
+	}
+
+	/**
+	 * Sets the image drawn behind the bricks. The layer is redrawn on the
+	 * next update
+	 *
+	 * @param background
+	 *            the background image, or null to leave the layer clear
+	 *            behind the bricks
+	 */
+	public void setBackground(BufferedImage background) {
+		this.background = background;
+		layer = null;
+		valid = false;
+	}
+
+	/**
+	 * Brings the layer up to date with a render snapshot
+	 *
+	 * @param snapshot
+	 *            the snapshot being drawn, giving the bricks and the ones
+	 *            knocked out
+	 * @param camera
+	 *            the part of the arena the frame shows
+	 * @param changed
+	 *            x, y, width and height of each rectangle of the layer
+	 *            that changed are added to this list, four ints at a time
+	 */
+	public void update(RenderSnapshot snapshot, Camera camera,
+			IntList changed) {
+		// the snapshot carries the areas laid out since the version
+		// the view last drew, which may be older than the layer's
+		int version = snapshot.getLayoutVersion();
+		int laidOutFrom = version - snapshot.getLaidOutCount();
+		if (!valid || layoutVersion < laidOutFrom || layoutVersion > version
+				|| camera.getX() != cameraX || camera.getY() != cameraY
+				|| camera.getZoom() != cameraZoom) {
+			redraw(snapshot, camera);
+			changed.add(0);
+			changed.add(0);
+			changed.add(sizeX);
+			changed.add(sizeY);
+			return;
+		}
+
+		// snapshots can repeat areas and log entries already patched in
+		int start = snapshot.getRemovedStart();
+		int end = start + snapshot.getRemovedCount();
+		if (layoutVersion == version && end <= removedSeen) {
+			return;
+		}
+		int first = Math.max(0, removedSeen - start);
+		BrickStore bricks = snapshot.getBrickStore();
+		Graphics2D g = layer.createGraphics();
+		try {
+			for (int i = 4 * (layoutVersion - laidOutFrom);
+					i < 4 * snapshot.getLaidOutCount(); i += 4) {
+				patchArena(g, snapshot, camera, snapshot.getLaidOut(i),
+						snapshot.getLaidOut(i + 1), snapshot.getLaidOut(i + 2),
+						snapshot.getLaidOut(i + 3), changed);
+			}
+			for (int i = first; i < end - start; i++) {
+				int id = snapshot.getRemoved(i);
+				patchArena(g, snapshot, camera, bricks.getX(id),
+						bricks.getY(id), bricks.getSizeX(id),
+						bricks.getSizeY(id), changed);
+			}
+		} finally {
+			g.dispose();
+		}
+		layoutVersion = version;
+		removedSeen = Math.max(removedSeen, end);
+	}
+
+	/**
+	 * Retrieves the cached layer
+	 *
+	 * @return the layer, or null before the first update
+	 */
+	public BufferedImage getImage() {
+		return layer;
+	}
+
+	// draws the whole layer from scratch
+	private void redraw(RenderSnapshot snapshot, Camera camera) {
+		if (layer == null) {
+			layer = createLayer();
+		}
+		Graphics2D g = layer.createGraphics();
+		try {
+			patch(g, snapshot, camera, 0, 0, sizeX, sizeY);
+		} finally {
+			g.dispose();
+		}
+		cameraX = camera.getX();
+		cameraY = camera.getY();
+		cameraZoom = camera.getZoom();
+		layoutVersion = snapshot.getLayoutVersion();
+		removedSeen = snapshot.getRemovedStart() + snapshot.getRemovedCount();
+		valid = true;
+	}
+
+	// redraws the part of the layer showing a rectangle of the arena, if
+	// the camera can see any of it, and adds that part to the changed
+	// list
+	private void patchArena(Graphics2D g, RenderSnapshot snapshot,
+			Camera camera, int arenaX, int arenaY, int width, int height,
+			IntList changed) {
+		int x1 = camera.toFrameX(arenaX);
+		int y1 = camera.toFrameY(arenaY);
+		int x2 = Math.max(x1 + 1, camera.toFrameX(arenaX + width));
+		int y2 = Math.max(y1 + 1, camera.toFrameY(arenaY + height));
+		if (x1 >= sizeX || y1 >= sizeY || x2 <= 0 || y2 <= 0) {
+			// out of sight
+			return;
+		}
+		int x = Math.max(0, x1);
+		int y = Math.max(0, y1);
+		int w = Math.min(sizeX, x2) - x;
+		int h = Math.min(sizeY, y2) - y;
+		patch(g, snapshot, camera, x, y, w, h);
+		changed.add(x);
+		changed.add(y);
+		changed.add(w);
+		changed.add(h);
+	}
+
+	// redraws one rectangle of the layer: background first, then the
+	// standing bricks that touch it
+	private void patch(Graphics2D g, RenderSnapshot snapshot, Camera camera,
+			int x, int y, int w, int h) {
+		Shape clip = g.getClip();
+		g.clipRect(x, y, w, h);
+		if (background != null) {
+			g.drawImage(background, 0, 0, sizeX, sizeY, null);
+		} else {
+			Composite composite = g.getComposite();
+			g.setComposite(AlphaComposite.Clear);
+			g.fillRect(x, y, w, h);
+			g.setComposite(composite);
+		}
+
+		BrickStore bricks = snapshot.getBrickStore();
+		snapshot.findBricks(camera.toArenaX(x), camera.toArenaY(y),
+				camera.toArenaX(x + w), camera.toArenaY(y + h), found);
+
+		// draw in the order the bricks were added, so overlapping bricks
+		// always stack the same way
+		found.sort();
+		for (int i = 0; i < found.size(); i++) {
+			int id = found.get(i);
+			int bx = bricks.getX(id);
+			int by = bricks.getY(id);
+			int fx = camera.toFrameX(bx);
+			int fy = camera.toFrameY(by);
+			g.setColor(bricks.getPaletteColor(bricks.getPalette(id)));
+			g.fillRect(fx, fy,
+					Math.max(1, camera.toFrameX(bx + bricks.getSizeX(id)) - fx),
+					Math.max(1, camera.toFrameY(by + bricks.getSizeY(id)) - fy));
+		}
+		g.setClip(clip);
+	}
+
+	// creates an image the screen can draw quickly, translucent if there
+	// is no background to fill it
+	private BufferedImage createLayer() {
+		int transparency = background != null ? Transparency.OPAQUE
+				: Transparency.TRANSLUCENT;
+		if (GraphicsEnvironment.isHeadless()) {
+			return new BufferedImage(sizeX, sizeY,
+					transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+							: BufferedImage.TYPE_INT_ARGB);
+		}
+		return GraphicsEnvironment.getLocalGraphicsEnvironment()
+				.getDefaultScreenDevice().getDefaultConfiguration()
+				.createCompatibleImage(sizeX, sizeY, transparency);
+	}
+}
@@ -0,0 +1,507 @@
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Column oriented storage for the bricks of a BrickYardModel. Each brick is
+ * an id into parallel int columns for position, size and points, plus a
+ * palette index in place of a Color reference. Whether a brick is still
+ * standing is kept in a bitset, so knocking one out is a single bit clear.
+ *
+ * Columns are split into fixed size pages, so growing the store never copies
+ * the bricks already in it. Ids can also be reserved up front and filled in
+ * any order, e.g. region by region as a level is loaded; pages are only
+ * allocated once a brick is put in them.
+ *
+ * A store can be copied in time proportional to its page count, to lay out
+ * more bricks while the old store is still being drawn. The copies share
+ * their pages until one of them writes to a page, which then gets its own
+ * copy of that page first.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BrickStore {
+
+	// bricks per page, as a power of two
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	// longs per page of a bitset
+	private static final int PAGE_WORDS = PAGE_SIZE >>> 6;
+
+	// column pages, indexed by [id >>> PAGE_SHIFT][id & PAGE_MASK]
+	private int[][] x, y, sizeX, sizeY, points;
+	private byte[][] palette;
+
+	// one bit per id, set while the brick is standing, paged like the columns
+	private long[][] live;
+
+	// one bit per id, set once the id has been given a brick
+	private long[][] filled;
+
+	// pages this store may write to, rather than share with a copy
+	private boolean[] owned;
+
+	// number of ids handed out, and how many are still standing
+	private int size;
+	private int liveCount;
+
+	// colors referenced by the palette column, at most 256
+	private ArrayList<Color> colors;
+
+	/**
+	 * Constructs an empty BrickStore
+	 */
+	public BrickStore() {
+		x = new int[1][];
+		y = new int[1][];
+		sizeX = new int[1][];
+		sizeY = new int[1][];
+		points = new int[1][];
+		palette = new byte[1][];
+		live = new long[][] { new long[PAGE_WORDS] };
+		filled = new long[][] { new long[PAGE_WORDS] };
+		owned = new boolean[] { true };
+		colors = new ArrayList<Color>();
+	}
+
+	/**
+	 * Adds a standing brick to the store
+	 *
+	 * @param bx
+	 *            x of the upper left corner
+	 * @param by
+	 *            y of the upper left corner
+	 * @param bSizeX
+	 *            width in pixels
+	 * @param bSizeY
+	 *            height in pixels
+	 * @param bPoints
+	 *            points the brick is worth when broken
+	 * @param color
+	 *            color of the brick
+	 * @return id of the new brick
+	 */
+	public int add(int bx, int by, int bSizeX, int bSizeY, int bPoints,
+			Color color) {
+		int id = size;
+		reserve(size + 1);
+		set(id, bx, by, bSizeX, bSizeY, bPoints, color);
+		return id;
+	}
+
+	/**
+	 * Hands out ids up to the given count without giving them bricks.
+	 * Reserved ids are not standing until set. Pages are not allocated
+	 * until then either, so reserving millions of ids costs two bits each
+	 *
+	 * @param count
+	 *            number of ids to hand out in all; less than size() does
+	 *            nothing
+	 */
+	public void reserve(int count) {
+		if (count <= size) {
+			return;
+		}
+		int pages = ((count - 1) >>> PAGE_SHIFT) + 1;
+		if (pages > x.length) {
+			int grown = Math.max(pages, x.length * 2);
+			x = Arrays.copyOf(x, grown);
+			y = Arrays.copyOf(y, grown);
+			sizeX = Arrays.copyOf(sizeX, grown);
+			sizeY = Arrays.copyOf(sizeY, grown);
+			points = Arrays.copyOf(points, grown);
+			palette = Arrays.copyOf(palette, grown);
+			live = Arrays.copyOf(live, grown);
+			filled = Arrays.copyOf(filled, grown);
+			owned = Arrays.copyOf(owned, grown);
+		}
+		for (int page = (size + PAGE_MASK) >>> PAGE_SHIFT; page < pages; page++) {
+			if (live[page] == null) {
+				live[page] = new long[PAGE_WORDS];
+				filled[page] = new long[PAGE_WORDS];
+				owned[page] = true;
+			}
+		}
+		size = count;
+	}
+
+	/**
+	 * Gives a reserved id its brick, which starts out standing
+	 *
+	 * @param id
+	 *            the id, below size(), not given a brick before
+	 * @param bx
+	 *            x of the upper left corner
+	 * @param by
+	 *            y of the upper left corner
+	 * @param bSizeX
+	 *            width in pixels
+	 * @param bSizeY
+	 *            height in pixels
+	 * @param bPoints
+	 *            points the brick is worth when broken
+	 * @param color
+	 *            color of the brick
+	 */
+	public void set(int id, int bx, int by, int bSizeX, int bSizeY,
+			int bPoints, Color color) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("brick id " + id
+					+ " is not reserved");
+		}
+		if (isFilled(id)) {
+			throw new IllegalArgumentException("brick " + id
+					+ " is already laid out");
+		}
+		int page = ownPage(id >>> PAGE_SHIFT);
+		if (x[page] == null) {
+			x[page] = new int[PAGE_SIZE];
+			y[page] = new int[PAGE_SIZE];
+			sizeX[page] = new int[PAGE_SIZE];
+			sizeY[page] = new int[PAGE_SIZE];
+			points[page] = new int[PAGE_SIZE];
+			palette[page] = new byte[PAGE_SIZE];
+		}
+		int slot = id & PAGE_MASK;
+		x[page][slot] = bx;
+		y[page][slot] = by;
+		sizeX[page][slot] = bSizeX;
+		sizeY[page][slot] = bSizeY;
+		points[page][slot] = bPoints;
+		palette[page][slot] = (byte) paletteIndex(color);
+		filled[page][slot >>> 6] |= 1L << id;
+		live[page][slot >>> 6] |= 1L << id;
+		liveCount++;
+	}
+
+	/**
+	 * Knocks out a brick. Its id stays valid, but it no longer counts as
+	 * standing
+	 *
+	 * @param id
+	 *            the brick to remove
+	 */
+	public void kill(int id) {
+		if (isLive(id)) {
+			int page = ownPage(id >>> PAGE_SHIFT);
+			live[page][(id & PAGE_MASK) >>> 6] &= ~(1L << id);
+			liveCount--;
+		}
+	}
+
+	/**
+	 * Checks whether a brick is still standing
+	 *
+	 * @param id
+	 *            the brick to check
+	 * @return true if the brick has not been knocked out
+	 */
+	public boolean isLive(int id) {
+		return (live[id >>> PAGE_SHIFT][(id & PAGE_MASK) >>> 6] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Checks whether an id has been given a brick, standing or not
+	 *
+	 * @param id
+	 *            the id to check, below size()
+	 * @return true once the id has been added or set
+	 */
+	public boolean isFilled(int id) {
+		return (filled[id >>> PAGE_SHIFT][(id & PAGE_MASK) >>> 6] & (1L << id)) != 0;
+	}
+
+	/**
+	 * Finds the first standing brick with an id of at least the one given.
+	 * Use this to walk the standing bricks in id order
+	 *
+	 * @param from
+	 *            first id to consider
+	 * @return id of the next standing brick, or -1 if there are none
+	 */
+	public int nextLive(int from) {
+		if (from >= size) {
+			return -1;
+		}
+		int word = from >>> 6;
+		long bits = liveWord(word) & (-1L << from);
+		while (true) {
+			if (bits != 0) {
+				int id = (word << 6) + Long.numberOfTrailingZeros(bits);
+				return id < size ? id : -1;
+			}
+			if (++word << 6 >= size) {
+				return -1;
+			}
+			bits = liveWord(word);
+		}
+	}
+
+	/**
+	 * Retrieves the number of ids handed out, standing, knocked out, or
+	 * only reserved
+	 *
+	 * @return one more than the highest id
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Retrieves the number of bricks still standing
+	 *
+	 * @return standing brick count
+	 */
+	public int getLiveCount() {
+		return liveCount;
+	}
+
+	/**
+	 * Retrieves the X component of a brick's location
+	 *
+	 * @param id
+	 *            the brick
+	 * @return x of the upper left corner
+	 */
+	public int getX(int id) {
+		return x[id >>> PAGE_SHIFT][id & PAGE_MASK];
+	}
+
+	/**
+	 * Retrieves the Y component of a brick's location
+	 *
+	 * @param id
+	 *            the brick
+	 * @return y of the upper left corner
+	 */
+	public int getY(int id) {
+		return y[id >>> PAGE_SHIFT][id & PAGE_MASK];
+	}
+
+	/**
+	 * Retrieves the width of a brick
+	 *
+	 * @param id
+	 *            the brick
+	 * @return width in pixels
+	 */
+	public int getSizeX(int id) {
+		return sizeX[id >>> PAGE_SHIFT][id & PAGE_MASK];
+	}
+
+	/**
+	 * Retrieves the height of a brick
+	 *
+	 * @param id
+	 *            the brick
+	 * @return height in pixels
+	 */
+	public int getSizeY(int id) {
+		return sizeY[id >>> PAGE_SHIFT][id & PAGE_MASK];
+	}
+
+	/**
+	 * Retrieves the point value of a brick
+	 *
+	 * @param id
+	 *            the brick
+	 * @return points the brick is worth
+	 */
+	public int getPoints(int id) {
+		return points[id >>> PAGE_SHIFT][id & PAGE_MASK];
+	}
+
+	/**
+	 * Retrieves the palette index of a brick
+	 *
+	 * @param id
+	 *            the brick
+	 * @return index into the palette, see getPaletteColor
+	 */
+	public int getPalette(int id) {
+		return palette[id >>> PAGE_SHIFT][id & PAGE_MASK] & 0xFF;
+	}
+
+	/**
+	 * Retrieves the color stored at a palette index
+	 *
+	 * @param index
+	 *            the palette index
+	 * @return the color
+	 */
+	public Color getPaletteColor(int index) {
+		return colors.get(index);
+	}
+
+	/**
+	 * Retrieves the number of longs writeLive writes
+	 *
+	 * @return one long per 64 ids handed out
+	 */
+	public int getLiveWords() {
+		return (size + 63) >>> 6;
+	}
+
+	/**
+	 * Writes which bricks are standing, one bit per id handed out, as
+	 * getLiveWords() longs
+	 *
+	 * @param out
+	 *            buffer to write to, from its position
+	 */
+	public void writeLive(ByteBuffer out) {
+		int words = getLiveWords();
+		for (int i = 0; i < words; i++) {
+			out.putLong(liveWord(i));
+		}
+	}
+
+	/**
+	 * Knocks out the bricks not standing in a set of bits like those
+	 * writeLive writes. Fails without changing anything if the bits would
+	 * bring back a brick already knocked out; see copyWithLive for that
+	 *
+	 * @param bits
+	 *            at least getLiveWords() longs, one bit per id
+	 * @param killed
+	 *            list the ids of the bricks knocked out are added to, in id
+	 *            order
+	 * @return true if the bits were applied, false if they bring back a
+	 *         brick
+	 */
+	public boolean restoreLive(long[] bits, IntList killed) {
+		int words = getLiveWords();
+		for (int i = 0; i < words; i++) {
+			if ((bits[i] & ~liveWord(i)) != 0) {
+				return false;
+			}
+		}
+		for (int i = 0; i < words; i++) {
+			long gone = liveWord(i) & ~bits[i];
+			if (gone == 0) {
+				continue;
+			}
+			int page = ownPage(i >>> (PAGE_SHIFT - 6));
+			live[page][i & (PAGE_WORDS - 1)] &= ~gone;
+			liveCount -= Long.bitCount(gone);
+			while (gone != 0) {
+				killed.add((i << 6) + Long.numberOfTrailingZeros(gone));
+				gone &= gone - 1;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Makes a store with the same bricks as this one, standing as a set of
+	 * bits like those writeLive writes says. The columns are shared with
+	 * this store, so this takes time in proportion to the bitset only. This
+	 * store is left as it is
+	 *
+	 * @param bits
+	 *            at least getLiveWords() longs, one bit per id; only bricks
+	 *            given to ids are taken as standing
+	 * @return the new store
+	 */
+	public BrickStore copyWithLive(long[] bits) {
+		BrickStore copy = copy();
+		copy.liveCount = 0;
+		for (int page = 0; page < live.length && live[page] != null; page++) {
+			long[] pageBits = new long[PAGE_WORDS];
+			for (int i = 0; i < PAGE_WORDS; i++) {
+				int word = (page << (PAGE_SHIFT - 6)) + i;
+				if (word < bits.length) {
+					pageBits[i] = bits[word] & filled[page][i];
+					copy.liveCount += Long.bitCount(pageBits[i]);
+				}
+			}
+			copy.live[page] = pageBits;
+		}
+		return copy;
+	}
+
+	/**
+	 * Makes a store with the same bricks as this one, standing or not, that
+	 * more bricks can be laid out in while this one is still being read,
+	 * e.g. drawn on another thread. Only the page tables are copied; both
+	 * stores share every page until they write to it, and then copy that
+	 * page first, so neither ever sees a change made to the other
+	 *
+	 * @return the new store
+	 */
+	public BrickStore copy() {
+		BrickStore copy = new BrickStore();
+		copy.x = Arrays.copyOf(x, x.length);
+		copy.y = Arrays.copyOf(y, y.length);
+		copy.sizeX = Arrays.copyOf(sizeX, sizeX.length);
+		copy.sizeY = Arrays.copyOf(sizeY, sizeY.length);
+		copy.points = Arrays.copyOf(points, points.length);
+		copy.palette = Arrays.copyOf(palette, palette.length);
+		copy.live = Arrays.copyOf(live, live.length);
+		copy.filled = Arrays.copyOf(filled, filled.length);
+		copy.owned = new boolean[owned.length];
+		Arrays.fill(owned, false);
+		copy.colors = new ArrayList<Color>(colors);
+		copy.size = size;
+		copy.liveCount = liveCount;
+		return copy;
+	}
+
+	/**
+	 * Builds a Brick object for the given id. Changes to the returned Brick
+	 * are not reflected in the store
+	 *
+	 * @param id
+	 *            the brick
+	 * @return a Brick with the same position, size, points and color
+	 */
+	public Brick toBrick(int id) {
+		Brick temp = new Brick(getPoints(id));
+		temp.setX(getX(id));
+		temp.setY(getY(id));
+		temp.setSizeX(getSizeX(id));
+		temp.setSizeY(getSizeY(id));
+		temp.setColor(getPaletteColor(getPalette(id)));
+		return temp;
+	}
+
+	// retrieves a word of the live bitset, by index over all pages
+	private long liveWord(int word) {
+		return live[word >>> (PAGE_SHIFT - 6)][word & (PAGE_WORDS - 1)];
+	}
+
+	// copies a page shared with another store before it is written to
+	private int ownPage(int page) {
+		if (!owned[page]) {
+			if (x[page] != null) {
+				x[page] = x[page].clone();
+				y[page] = y[page].clone();
+				sizeX[page] = sizeX[page].clone();
+				sizeY[page] = sizeY[page].clone();
+				points[page] = points[page].clone();
+				palette[page] = palette[page].clone();
+			}
+			live[page] = live[page].clone();
+			filled[page] = filled[page].clone();
+			owned[page] = true;
+		}
+		return page;
+	}
+
+	// finds the palette index of a color, adding it if not present
+	private int paletteIndex(Color color) {
+		int index = colors.indexOf(color);
+		if (index < 0) {
+			if (colors.size() == 256) {
+				throw new IllegalStateException(
+						"brick palette is limited to 256 colors");
+			}
+			colors.add(color);
+			index = colors.size() - 1;
+		}
+		return index;
+	}
+}
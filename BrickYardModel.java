@@ -1,6 +1,11 @@
 import java.awt.*;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Represents the Model/Data and Logic for a BrickBreaker game
@@ -9,29 +14,58 @@ import java.util.*;
  */
 public class BrickYardModel {
 
-	// container for storing all objects
-	private ArrayList<PlaceableObject> placeables;
+	private static final Logger LOG = Logger
+			.getLogger(BrickYardModel.class.getName());
+
+	// the balls and shield in play.  There is always at least
+	// one ball; the first is the one served and relaunched
+	private List<Ball> balls;
+	private List<Ball> ballsView;
+	private Shield shield;
+
+	// the bricks, stored by column
+	private BrickStore bricks;
+
+	// read-only view over the balls, shield, and bricks
+	private List<PlaceableObject> placeables;
 
 	// Controller object containing timer
 	BrickBreakerControl control;
 
+	// told when the last ball is lost
+	private GameOverListener gameOverListener;
+
+	// whether final scores are written to the high scores file
+	private boolean recordScores = true;
+
 	// 'lives' the player has in reserve
 	private int ballsRemaining;
 
 	// current score
 	private int score;
+
+	// turns ended by losing the ball this game
+	private int ballsLost;
+
+	// ticks run since the game started
+	private long tick;
 	
-	// file for tracking the high scores
+	// files for tracking the high scores: the binary top scores
+	// file, and the text file of every score it replaces
 	private File file;
-	
-	// provide read access to the High Scores file
-	private Scanner sc;
-	
-	// provide write access to High Scores file
-	private PrintWriter pw;
-	
-	// storage for loaded scores
-	ArrayList<Integer> scores;
+	private File legacyFile;
+
+	// saves and reads the top scores in the background, started
+	// the first time they are needed
+	private ScoreWriter scoreWriter;
+
+	// number of top scores kept
+	private final int HIGH_SCORE_COUNT = 100;
+
+	// forcing a game's score out to disk is cheap, and kiosks
+	// get switched off at the wall
+	private final ScoreWriter.SyncPolicy SCORE_SYNC =
+			ScoreWriter.SyncPolicy.EVERY_BATCH;
 
 	// keep track of which keys are currently pressed
 	private boolean rightPressed, leftPressed;
@@ -39,28 +73,96 @@ public class BrickYardModel {
 	// for keeping track of whether currently paused due to losing a ball
 	private boolean pauseBallLoss;
 
-	// size of the game screen
-	private int yardSizeX = 786;
-	private int yardSizeY = 564;
+	// size of the game screen, which a level may change
+	private final int SCREEN_X = 786;
+	private final int SCREEN_Y = 564;
+	private int yardSizeX = SCREEN_X;
+	private int yardSizeY = SCREEN_Y;
+
+	// arena size the built-in rows are played in
+	private int arenaX = SCREEN_X;
+	private int arenaY = SCREEN_Y;
+
+	// the level the bricks are laid out from, or null for the
+	// built-in rows, and which of its regions have been laid out,
+	// one bit each
+	private LevelFile level;
+	private long[] loadedRegions;
+
+	// spatial index of the bricks, so collision checks only
+	// look at bricks near the ball
+	private BrickGrid grid;
+
+	// size of a grid cell, a little larger than a brick
+	private final int GRID_CELL = 64;
+
+	// sweeps the balls through each tick, in parallel when
+	// there are many
+	private BallMover mover;
+
+	// reusable storage for ids of bricks near a ball's path when
+	// looking for the next contact
+	private IntList nearPath;
+
+	// ids of the bricks knocked out since the bricks were last
+	// replaced, in the order they were hit, for views that cache
+	// the bricks
+	private IntList removedBricks;
+
+	// bumped whenever bricks are laid out, added, or replaced
+	private int layoutVersion;
 
-	// impact range buffer
-	// used to prevent ball from passing through
-	// objects it should collide with
-	// default: 6 (pixels), but might need to be
-	// higher if ball velocity is increased
-	private final int IMPACT_BUFFER = 6;	
+	// layout version the bricks were last replaced at, by clearing
+	// them or bringing them back when restoring a state
+	private int replacedVersion;
+
+	// one entry per layout version since then, six ints each: the
+	// first id and number of the bricks laid out, then the x, y,
+	// width and height of the area of the arena they cover
+	private IntList laidOut;
+
+	// set once a snapshot has handed the store and grid to a view,
+	// which may still be drawing them, so bricks are only laid out
+	// in copies of them from then on
+	private boolean layoutShared;
+
+	// fingerprint of the brick layout, and the layout version it
+	// was worked out for, so saved states are only restored over
+	// the bricks they were saved from
+	private int layoutHash;
+	private int hashedVersion = -1;
+
+	// identifies a saved state, and its format
+	private final int STATE_MAGIC = 0x42427374;
+	private final int STATE_VERSION = 2;
+
+	// bytes of a saved state apart from the brick and region
+	// bits, and per ball
+	private final int STATE_FIXED = 61;
+	private final int STATE_PER_BALL = 24;
+
+	// which bricks a state being restored has standing
+	private long[] restoring = new long[0];
+
+	// times the phases of each tick while enabled, if set
+	private GameMetrics metrics;
 
 	/**
 	 * Constructs a BrickYardModel
 	 */
 	public BrickYardModel() {
 		// initialize object storage
-		placeables = new ArrayList<PlaceableObject>();
-		file = new  File("data/HighScores.txt");
-		scores = new ArrayList<Integer>();
+		placeables = new PlaceablesView();
+		file = new File("data/HighScores.dat");
+		legacyFile = new File("data/HighScores.txt");
+		balls = new ArrayList<Ball>();
+		ballsView = Collections.unmodifiableList(balls);
+		mover = new BallMover();
+		nearPath = new IntList();
+		removedBricks = new IntList();
+		laidOut = new IntList();
 		
 		this.newGame();
-		pauseBallLoss = true;
 	}
 
 	/**
@@ -70,25 +172,74 @@ public class BrickYardModel {
 	 */
 	public void addControl(BrickBreakerControl control) {
 		this.control = control;
+		this.gameOverListener = control;
+	}
+
+	/**
+	 * Register the object to be told when the last ball is lost,
+	 * replacing any controller registered with addControl
+	 * @param listener the object to notify, or null for none
+	 */
+	public void setGameOverListener(GameOverListener listener) {
+		this.gameOverListener = listener;
+	}
+
+	/**
+	 * Sets where the times of each tick's phases are recorded.
+	 * Nothing is timed while the metrics are disabled
+	 * @param metrics the metrics, or null for none
+	 */
+	public void setMetrics(GameMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Sets whether the final score of each game is written to the
+	 * high scores file.  On by default
+	 * @param record true to write scores, false to skip them
+	 */
+	public void setRecordScores(boolean record) {
+		this.recordScores = record;
 	}
 
 	/**
 	 * Retrieve the current list of objects in this model.
-	 * Includes Brick, Ball, and Shield objects
+	 * Includes Ball, Shield, and Brick objects.  The list is a
+	 * read-only view, and reflects later changes to the model
 	 */
-	public ArrayList<PlaceableObject> getPlaceables() {
+	public List<PlaceableObject> getPlaceables() {
 		return placeables;
 	}
 
 	/**
 	 * Start a new game.  Resets balls remaining, creates a new
-	 * Ball and Shield, and several Brick objects
+	 * Ball and Shield, and several Brick objects, or lays out the
+	 * level if one is set
 	 */
 	public void newGame() {
 		ballsRemaining = 3;
-		placeables.clear();
-		placeables.add(new Ball());
-		placeables.add(new Shield());
+		score = 0;
+		ballsLost = 0;
+		tick = 0;
+		this.clearBricks();
+		balls.clear();
+		balls.add(new Ball());
+		shield = new Shield();
+		// keep the shield as far off the bottom as on the screen
+		shield.setY(shield.getY() + yardSizeY - SCREEN_Y);
+		shield.setArenaWidth(yardSizeX);
+		if (level != null) {
+			this.layOutLevel();
+		} else {
+			this.layOutRows();
+		}
+		
+		nextBall();
+		pauseBallLoss = true;
+	}
+
+	// lays out the built-in rows of bricks
+	private void layOutRows() {
 		for(int i = 70; i <= 670; i += 60){
 			this.addBrick(i, 75);
 		}
@@ -112,40 +263,253 @@ public class BrickYardModel {
 		for(int i = 110; i <= 670; i += 60){
 			this.addBrick(i, 175);
 		}
-		
-		nextBall();
+	}
+
+	/**
+	 * Lays out the bricks from a level file from now on, and starts
+	 * a new game.  The yard takes the level's arena size.  Regions
+	 * of the level are only laid out as play reaches them, so a
+	 * level of millions of bricks starts as quickly as a small one
+	 * @param level the level, kept open while it is in use, or null
+	 * to go back to the built-in rows
+	 */
+	public void setLevel(LevelFile level) {
+		this.level = level;
+		yardSizeX = level != null ? level.getWidth() : arenaX;
+		yardSizeY = level != null ? level.getHeight() : arenaY;
+		this.newGame();
+	}
+
+	/**
+	 * Sets the size of the arena the built-in rows are played in,
+	 * and starts a new game.  The arena can be any size from the
+	 * default screen up, independent of the window, which scrolls
+	 * to follow play.  A level sets its own arena size, which
+	 * takes over while the level is set
+	 * @param width arena width, at least 786
+	 * @param height arena height, at least 564
+	 */
+	public void setArenaSize(int width, int height) {
+		if (width < SCREEN_X || height < SCREEN_Y) {
+			throw new IllegalArgumentException("arena " + width + "x"
+					+ height + " is smaller than " + SCREEN_X + "x"
+					+ SCREEN_Y);
+		}
+		arenaX = width;
+		arenaY = height;
+		this.setLevel(level);
+	}
 
+	/**
+	 * Retrieves the width of the arena being played in
+	 * @return arena width in pixels
+	 */
+	public int getArenaWidth() {
+		return yardSizeX;
+	}
+
+	/**
+	 * Retrieves the height of the arena being played in
+	 * @return arena height in pixels
+	 */
+	public int getArenaHeight() {
+		return yardSizeY;
+	}
+
+	/**
+	 * Retrieves the level the bricks are laid out from
+	 * @return the level, or null for the built-in rows
+	 */
+	public LevelFile getLevel() {
+		return level;
+	}
+
+	// reserves an id for every brick of the level, then lays out
+	// the regions on the opening screen
+	private void layOutLevel() {
+		bricks.reserve(level.getBrickCount());
+		int regions = level.getRegionsX() * level.getRegionsY();
+		loadedRegions = new long[(regions + 63) >>> 6];
+		this.loadRegions(0, 0, SCREEN_X, SCREEN_Y);
+	}
+
+	/**
+	 * Lays out the regions of the level touching a rectangle that
+	 * are not laid out yet, along with any whose bricks could reach
+	 * into it.  Does nothing without a level
+	 * @param x1 left edge of the rectangle
+	 * @param y1 top edge of the rectangle
+	 * @param x2 right edge of the rectangle
+	 * @param y2 bottom edge of the rectangle
+	 * @return number of bricks laid out
+	 */
+	public int loadRegions(int x1, int y1, int x2, int y2) {
+		if (loadedRegions == null) {
+			return 0;
+		}
+		int size = level.getRegionSize();
+		int reach = level.getMaxBrickSize();
+		int firstCol = Math.max(0, Math.floorDiv(x1 - reach, size));
+		int lastCol = Math.min(level.getRegionsX() - 1,
+				Math.floorDiv(x2, size));
+		int firstRow = Math.max(0, Math.floorDiv(y1 - reach, size));
+		int lastRow = Math.min(level.getRegionsY() - 1,
+				Math.floorDiv(y2, size));
+		int loaded = 0;
+		for (int r = firstRow; r <= lastRow; r++) {
+			for (int c = firstCol; c <= lastCol; c++) {
+				int region = r * level.getRegionsX() + c;
+				long bit = 1L << region;
+				if ((loadedRegions[region >>> 6] & bit) == 0) {
+					loadedRegions[region >>> 6] |= bit;
+					loaded += this.layOutRegion(region);
+				}
+			}
+		}
+		return loaded;
+	}
+
+	// lays out a region of the level as a layout version of its
+	// own.  A damaged region is left empty, so play goes on
+	// around it
+	private int layOutRegion(int region) {
+		this.unshareLayout();
+		int loaded;
+		try {
+			loaded = level.loadRegion(region, bricks, grid);
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Could not lay out region " + region
+					+ " of the level", e);
+			return 0;
+		}
+		if (loaded > 0) {
+			// the region's bricks start in it, but can reach past it
+			int size = level.getRegionSize();
+			int reach = level.getMaxBrickSize();
+			this.logLayout(level.getRegionFirstId(region), loaded,
+					region % level.getRegionsX() * size,
+					region / level.getRegionsX() * size,
+					size + reach, size + reach);
+		}
+		return loaded;
 	}
 
 	// adds a brick to this model with the given x, y
 	private void addBrick(int x, int y) {
 		Brick temp = new Brick(10);
-		temp.setColor(Color.ORANGE);
-		temp.setX(x);
-		temp.setY(y);
-		placeables.add(temp);
+		this.addBrick(x, y, temp.getSizeX(), temp.getSizeY(),
+				temp.getPoints(), Color.ORANGE);
+	}
+
+	/**
+	 * Adds a brick to this model
+	 * @param x x of the upper left corner
+	 * @param y y of the upper left corner
+	 * @param sizeX width in pixels
+	 * @param sizeY height in pixels
+	 * @param points points the brick is worth when broken
+	 * @param color color of the brick
+	 */
+	public void addBrick(int x, int y, int sizeX, int sizeY, int points,
+			Color color) {
+		this.unshareLayout();
+		int id = bricks.add(x, y, sizeX, sizeY, points, color);
+		grid.add(bricks, id);
+		this.logLayout(id, 1, x, y, sizeX, sizeY);
+	}
+
+	/**
+	 * Removes every brick from this model, leaving the balls,
+	 * shield, and score as they are
+	 */
+	public void clearBricks() {
+		// start a new store and grid rather than clearing them, as
+		// snapshots of the old layout may still be being drawn
+		bricks = new BrickStore();
+		grid = new BrickGrid(yardSizeX, yardSizeY, GRID_CELL);
+		loadedRegions = null;
+		layoutShared = false;
+		this.replaceLayout();
+	}
+
+	// starts a layout version that replaces the bricks rather than
+	// adding to them, which views draw from scratch
+	private void replaceLayout() {
+		removedBricks.clear();
+		laidOut.clear();
+		layoutVersion++;
+		replacedVersion = layoutVersion;
+	}
+
+	// starts a layout version for bricks laid out in an area
+	private void logLayout(int firstId, int count, int x, int y,
+			int width, int height) {
+		laidOut.add(firstId);
+		laidOut.add(count);
+		laidOut.add(x);
+		laidOut.add(y);
+		laidOut.add(width);
+		laidOut.add(height);
+		layoutVersion++;
+	}
+
+	// copies the store and grid before bricks are laid out in them,
+	// if a snapshot has handed them to a view.  The copies share
+	// their pages until they are written to, so this costs only
+	// the page tables
+	private void unshareLayout() {
+		if (layoutShared) {
+			bricks = bricks.copy();
+			grid = grid.copy();
+			layoutShared = false;
+		}
 	}
 
 	// call this when the specified brick has been hit
 	// tallies score and removes the brick
-	private void impactBrick(Brick beenHit) {
-		score += beenHit.getPoints();
-		placeables.remove(beenHit);
+	private void impactBrick(int beenHit) {
+		score += bricks.getPoints(beenHit);
+		bricks.kill(beenHit);
+		removedBricks.add(beenHit);
 	}
 
 	/**
-	 * Retrieves the Ball
+	 * Retrieves the Ball served and relaunched.  With several
+	 * balls in play, this is the first of them
 	 * @return the Ball
 	 */
 	public Ball getBall() {
-		Ball temp = new Ball();
-		for (PlaceableObject po : placeables) {
-			if (po.getClass() == Ball.class) {
-				temp = (Ball) po;
-				break;
-			}
-		}
-		return temp;
+		return balls.get(0);
+	}
+
+	/**
+	 * Retrieves every ball in play, in order.  There is always
+	 * at least one
+	 * @return read-only list of the balls
+	 */
+	public List<Ball> getBalls() {
+		return ballsView;
+	}
+
+	/**
+	 * Puts another ball into play, e.g. for a multi-ball power-up.
+	 * It plays until it is lost, and is not counted against the
+	 * balls remaining
+	 * @param x x of the new ball's upper left corner
+	 * @param y y of the new ball's upper left corner
+	 * @param vx velocity in the x direction
+	 * @param vy velocity in the y direction
+	 * @return the new Ball
+	 */
+	public Ball addBall(int x, int y, int vx, int vy) {
+		Ball extra = new Ball();
+		extra.setX(x);
+		extra.setY(y);
+		extra.setVX(vx);
+		extra.setVY(vy);
+		extra.savePosition();
+		balls.add(extra);
+		return extra;
 	}
 
 	/**
@@ -153,14 +517,7 @@ public class BrickYardModel {
 	 * @return the Shield
 	 */
 	public Shield getShield() {
-		Shield temp = new Shield();
-		for (PlaceableObject po : placeables) {
-			if (po.getClass() == Shield.class) {
-				temp = (Shield) po;
-				break;
-			}
-		}
-		return temp;
+		return shield;
 	}
 
 	/**
@@ -168,14 +525,139 @@ public class BrickYardModel {
 	 * @return Bricks in this model
 	 */
 	public ArrayList<Brick> getBricks() {
-		ArrayList<Brick> temp = new ArrayList<Brick>();
-		for (PlaceableObject po : placeables) {
-			if (po.getClass() == Brick.class) {
-				temp.add((Brick) po);
-			}
+		ArrayList<Brick> temp = new ArrayList<Brick>(bricks.getLiveCount());
+		for (int id = bricks.nextLive(0); id >= 0;
+				id = bricks.nextLive(id + 1)) {
+			temp.add(bricks.toBrick(id));
 		}
 		return temp;
 	}
+
+	/**
+	 * Retrieves the column store backing the bricks.  Standing
+	 * bricks can be walked with nextLive without building Brick objects
+	 * @return the BrickStore of this model
+	 */
+	public BrickStore getBrickStore() {
+		return bricks;
+	}
+
+	/**
+	 * Collects the ids of the standing bricks touching a rectangle
+	 * @param x1 left edge of the rectangle
+	 * @param y1 top edge of the rectangle
+	 * @param x2 right edge of the rectangle
+	 * @param y2 bottom edge of the rectangle
+	 * @param found list the ids are added to; it is cleared first
+	 */
+	public void findBricks(int x1, int y1, int x2, int y2, IntList found) {
+		grid.query(bricks, x1, y1, x2, y2, found);
+	}
+
+	/**
+	 * Retrieves the layout version, which changes whenever bricks are
+	 * laid out, added, or cleared.  Knocking bricks out does not
+	 * change it
+	 * @return the layout version
+	 */
+	public int getLayoutVersion() {
+		return layoutVersion;
+	}
+
+	/**
+	 * Retrieves the layout version the bricks were last replaced at,
+	 * by clearing them or bringing knocked out bricks back when
+	 * restoring a state.  Since then an id always stands for the
+	 * same brick, the removed brick log only grows, and each later
+	 * version laid out one batch of bricks, see getLaidOutFirstId
+	 * @return the layout version of the last replacement
+	 */
+	public int getReplacedVersion() {
+		return replacedVersion;
+	}
+
+	/**
+	 * Retrieves the id of the first brick laid out at a layout
+	 * version since the bricks were last replaced.  A version lays
+	 * out bricks with consecutive ids
+	 * @param version the layout version, above getReplacedVersion()
+	 * and at most getLayoutVersion()
+	 * @return id of the first brick laid out
+	 */
+	public int getLaidOutFirstId(int version) {
+		return laidOut.get(6 * (version - replacedVersion - 1));
+	}
+
+	/**
+	 * Retrieves the number of bricks laid out at a layout version
+	 * since the bricks were last replaced
+	 * @param version the layout version, above getReplacedVersion()
+	 * and at most getLayoutVersion()
+	 * @return number of bricks laid out
+	 */
+	public int getLaidOutCount(int version) {
+		return laidOut.get(6 * (version - replacedVersion - 1) + 1);
+	}
+
+	/**
+	 * Retrieves the number of bricks knocked out since the bricks
+	 * were last replaced
+	 * @return length of the removed brick log
+	 */
+	public int getRemovedCount() {
+		return removedBricks.size();
+	}
+
+	/**
+	 * Retrieves an entry of the removed brick log.  Entries are in the
+	 * order the bricks were hit, so a view can catch up on removals by
+	 * remembering how many entries it has seen
+	 * @param index position in the log, below getRemovedCount()
+	 * @return id of the brick knocked out
+	 */
+	public int getRemovedBrick(int index) {
+		return removedBricks.get(index);
+	}
+
+	/**
+	 * Copies everything a frame draws into a render snapshot, reusing
+	 * the snapshot's storage.  The snapshot carries the areas laid
+	 * out and the removed brick log from where the view has already
+	 * caught up to
+	 * @param snapshot the snapshot to fill
+	 * @param drawnVersion layout version the view last drew
+	 * @param drawnRemoved how much of that layout's removed brick
+	 * log the view has drawn
+	 */
+	public void fillSnapshot(RenderSnapshot snapshot, int drawnVersion,
+			int drawnRemoved) {
+		snapshot.setBallCount(balls.size());
+		for (int i = 0; i < balls.size(); i++) {
+			snapshot.setBall(i, balls.get(i));
+		}
+		snapshot.setShield(shield);
+		snapshot.setHud(score, ballsRemaining);
+		snapshot.setArena(yardSizeX, yardSizeY);
+
+		// a view that drew the bricks since they were last replaced
+		// only needs what has changed since, and any other view gets
+		// the whole removed brick log and draws from scratch
+		int areas = laidOut.size();
+		int from = 0;
+		if (drawnVersion >= replacedVersion && drawnVersion <= layoutVersion) {
+			areas = 6 * (drawnVersion - replacedVersion);
+			from = Math.min(drawnRemoved, removedBricks.size());
+		}
+		snapshot.setBricks(layoutVersion, bricks, grid, from);
+		layoutShared = true;
+		for (int i = areas; i < laidOut.size(); i += 6) {
+			snapshot.addLaidOut(laidOut.get(i + 2), laidOut.get(i + 3),
+					laidOut.get(i + 4), laidOut.get(i + 5));
+		}
+		for (int i = from; i < removedBricks.size(); i++) {
+			snapshot.addRemoved(removedBricks.get(i));
+		}
+	}
 	
 	/**
 	 * Retrieves the current score
@@ -187,23 +669,28 @@ public class BrickYardModel {
 
 	/**
 	 * Retrieve the high score list of this model
-	 * @return High Score list
+	 * @return High Score list, highest first
 	 */
 	public ArrayList<Integer> getHighScores(){
-		try{
-			sc = new Scanner(file);
-			while(sc.hasNext()){
-				scores.add(Integer.parseInt(sc.next()));
-			}
-			Collections.sort(scores);
-			Collections.reverse(scores);
-		}
-		catch (FileNotFoundException e){
-			System.out.println(e.getStackTrace());
+		int[] top = new int[HIGH_SCORE_COUNT];
+		int count = getHighScores(top);
+		ArrayList<Integer> scores = new ArrayList<Integer>(count);
+		for (int i = 0; i < count; i++) {
+			scores.add(top[i]);
 		}
 		return scores;
 	}
-	
+
+	/**
+	 * Copies the high scores, highest first, into an array
+	 * without allocating.  Waits for any score still being saved
+	 * @param into array to fill; as many scores as fit are copied
+	 * @return number of scores copied
+	 */
+	public int getHighScores(int[] into) {
+		return getScoreWriter().getTopScores(into);
+	}
+
 	/**
 	 * Let's the model know the 'right' button has been pressed
 	 * @param pressed true if pressed, false if released or not pressed
@@ -235,41 +722,53 @@ public class BrickYardModel {
 	
 	// decrements the balls remaining, and creates a new ball
 	private void nextBall(){
-		ballsRemaining -= 1;
 		Ball ball = getBall();
+		ballsRemaining -= 1;
 		ball.setVX(4);
 		ball.setVY(4);
 		ball.setX(100);
 		ball.setY(200);
-		getShield().moveToCenter();
+		shield.moveToCenter();
+
+		// don't draw the ball sliding back to the start
+		ball.savePosition();
+		shield.savePosition();
 	}
 
 	// called when the ball reaches the bottom of the screen
-	// stops the current ball.  If no balls remaining, writes the 
-	// current score to the scores list file and triggers the game over
-	// method in the controller
+	// stops the current ball.  If no balls remaining, queues the
+	// current score to be saved and notifies the game over listener
 	private void ballLost() {
+		Ball ball = getBall();
+		ballsLost++;
 		pauseBallLoss = true;
-		getBall().setVX(0);
-		getBall().setVY(0);
+		ball.setVX(0);
+		ball.setVY(0);
 		if(ballsRemaining < 1){
-			// attempt to access the high scores file
-			try{
-				pw = new PrintWriter(new FileWriter(file, true));
-				
-				// add current score to scores list
-				pw.println(Integer.toString(score));				
-			}
-			catch(Exception e){
-				System.out.println(e.getStackTrace());
+			if(recordScores){
+				recordScore();
 			}
-			
-			finally{
-				pw.close();
+			if(gameOverListener != null){
+				gameOverListener.gameOver();
 			}
-			control.gameOver();
 		}
 	}
+
+	// queues the current score to be saved with the high scores
+	private void recordScore() {
+		getScoreWriter().submit(score);
+	}
+
+	// starts the score writer on first use.  It opens the high
+	// scores file, migrating the old text file if there is one,
+	// on its own thread
+	private synchronized ScoreWriter getScoreWriter() {
+		if (scoreWriter == null) {
+			scoreWriter = new ScoreWriter(file, legacyFile,
+					HIGH_SCORE_COUNT, SCORE_SYNC, null);
+		}
+		return scoreWriter;
+	}
 	
 	/**
 	 * Retrieves the number of balls remaining
@@ -280,187 +779,610 @@ public class BrickYardModel {
 	}
 
 	/**
-	 * Moves the ball and shield, detects wall, shield, and 
-	 * brick collisions, and calls appropriate methods to 
-	 * deal with those collisions
+	 * Retrieves the number of balls lost this game.  Extra balls
+	 * lost while another is still in play are not counted
+	 * @return balls lost
 	 */
-	public void moveObjects() {
-		Ball ball = this.getBall();
+	public int getBallsLost(){
+		return ballsLost;
+	}
 
-		// MOVE SHIELD //
-		this.moveShield();
+	/**
+	 * Retrieves the number of ticks run since the game started,
+	 * which is also the number of the tick moveObjects runs next
+	 * @return tick count
+	 */
+	public long getTick(){
+		return tick;
+	}
+
+	/**
+	 * Retrieves the number of bytes saveState writes for the
+	 * model as it is now
+	 * @return size of the saved state
+	 */
+	public int getStateSize() {
+		int regionWords = loadedRegions != null ? loadedRegions.length : 0;
+		return STATE_FIXED + STATE_PER_BALL * balls.size()
+				+ 8 * bricks.getLiveWords() + 8 * regionWords;
+	}
+
+	/**
+	 * Saves everything that changes during a game: the tick, score,
+	 * balls remaining and lost, pause and key flags, shield, balls,
+	 * which bricks are standing, one bit each, and which regions of
+	 * the level are laid out.  The brick layout itself is not saved,
+	 * so restoring needs a model with the same bricks laid out, or
+	 * the same level
+	 * @param out buffer to write to, from its position; needs
+	 * getStateSize() bytes
+	 */
+	public void saveState(ByteBuffer out) {
+		out.putInt(STATE_MAGIC);
+		out.putInt(STATE_VERSION);
+		out.putLong(tick);
+		out.putInt(score);
+		out.putInt(ballsRemaining);
+		out.putInt(ballsLost);
+		out.put((byte) ((pauseBallLoss ? 1 : 0) | (leftPressed ? 2 : 0)
+				| (rightPressed ? 4 : 0)));
+
+		// the shield's velocity is set from the keys every tick
+		putPosition(out, shield);
+		out.putInt(balls.size());
+		for (int i = 0; i < balls.size(); i++) {
+			Ball ball = balls.get(i);
+			putPosition(out, ball);
+			out.putInt(ball.getVX());
+			out.putInt(ball.getVY());
+		}
+
+		out.putInt(bricks.size());
+		out.putInt(getLayoutHash());
+		bricks.writeLive(out);
+		if (loadedRegions != null) {
+			out.putInt(loadedRegions.length);
+			for (long word : loadedRegions) {
+				out.putLong(word);
+			}
+		} else {
+			out.putInt(0);
+		}
+	}
+
+	/**
+	 * Saves the model's state to a new array, see saveState(ByteBuffer)
+	 * @return the saved state
+	 */
+	public byte[] saveState() {
+		byte[] state = new byte[getStateSize()];
+		saveState(ByteBuffer.wrap(state));
+		return state;
+	}
+
+	/**
+	 * Puts the model back in a state saved by saveState, from this
+	 * model or another with the same bricks laid out.  Bricks
+	 * knocked out since are brought back, and with a level, only
+	 * the regions laid out when the state was saved are left laid
+	 * out.  The model is left as it was if the state can't be
+	 * restored
+	 * @param in buffer holding the saved state, at its position
+	 * @throws IllegalArgumentException if the buffer does not hold a
+	 * saved state, or the state was saved over other bricks
+	 * @throws BufferUnderflowException if the state is cut short
+	 */
+	public void restoreState(ByteBuffer in) {
+		if (in.getInt() != STATE_MAGIC || in.getInt() != STATE_VERSION) {
+			throw new IllegalArgumentException("not a saved model state");
+		}
+		long savedTick = in.getLong();
+		int savedScore = in.getInt();
+		int savedRemaining = in.getInt();
+		int savedLost = in.getInt();
+		int flags = in.get();
+		int shieldAt = in.position();
+		in.position(shieldAt + 16);
+		int count = in.getInt();
+		if (count < 1 || count > in.remaining() / STATE_PER_BALL) {
+			throw new IllegalArgumentException("saved state has " + count
+					+ " balls");
+		}
+		int ballsAt = in.position();
+		in.position(ballsAt + STATE_PER_BALL * count);
+		if (in.getInt() != bricks.size() || in.getInt() != getLayoutHash()) {
+			throw new IllegalArgumentException(
+					"saved state is for a different brick layout");
+		}
+		int words = bricks.getLiveWords();
+		int liveAt = in.position();
+		if (in.remaining() < 8 * words + 4) {
+			throw new BufferUnderflowException();
+		}
+		in.position(liveAt + 8 * words);
+		int regionWords = in.getInt();
+		int expected = loadedRegions != null ? loadedRegions.length : 0;
+		if (regionWords != expected) {
+			throw new IllegalArgumentException(
+					"saved state is for a different brick layout");
+		}
+		int regionsAt = in.position();
+		in.position(regionsAt + 8 * regionWords);
+
+		// everything checks out, so change the model
+		tick = savedTick;
+		score = savedScore;
+		ballsRemaining = savedRemaining;
+		ballsLost = savedLost;
+		pauseBallLoss = (flags & 1) != 0;
+		leftPressed = (flags & 2) != 0;
+		rightPressed = (flags & 4) != 0;
+		getPosition(in, shieldAt, shield);
 
-		// CHECK FOR BALL COLLISIONS //
-		if (ball.getVY() > 0) {
-			checkCollBottom();
+		if (balls.size() > count) {
+			balls.subList(count, balls.size()).clear();
 		}
-		if (ball.getVX() < 0) {
-			checkCollLeft();
+		while (balls.size() < count) {
+			balls.add(new Ball());
 		}
-		if (ball.getVX() > 0) {
-			checkCollRight();
+		for (int i = 0; i < count; i++) {
+			Ball ball = balls.get(i);
+			int at = ballsAt + STATE_PER_BALL * i;
+			getPosition(in, at, ball);
+			ball.setVX(in.getInt(at + 16));
+			ball.setVY(in.getInt(at + 20));
 		}
-		if (ball.getVY() < 0) {
-			checkCollTop();
+
+		if (restoring.length < words) {
+			restoring = new long[words];
+		}
+		for (int i = 0; i < words; i++) {
+			restoring[i] = in.getLong(liveAt + 8 * i);
+		}
+		if (regionWords > 0) {
+			this.restoreRegions(in, regionsAt);
 		}
 
-		// velocity adjusted, now move the ball
-		this.getBall().move();
+		// going forward only knocks bricks out, which views can patch
+		// in.  Bringing bricks back takes a new store, as the old one
+		// may still be being drawn
+		if (!bricks.restoreLive(restoring, removedBricks)) {
+			bricks = bricks.copyWithLive(restoring);
+			this.replaceLayout();
+			hashedVersion = layoutVersion;
+		}
 	}
 
-	// detect whether the shield is up against a wall, then
-	// move the shield based on its velocity
-	private void moveShield() {
-		Shield shield = this.getShield();
+	// lays out the regions the state being restored had laid out.
+	// If regions it didn't have are laid out now, the level is
+	// laid out again from a new store and grid, as clearBricks
+	// does, so just the saved regions end up laid out
+	private void restoreRegions(ByteBuffer in, int at) {
+		for (int i = 0; i < loadedRegions.length; i++) {
+			if ((loadedRegions[i] & ~in.getLong(at + 8 * i)) != 0) {
+				bricks = new BrickStore();
+				grid = new BrickGrid(yardSizeX, yardSizeY, GRID_CELL);
+				bricks.reserve(level.getBrickCount());
+				Arrays.fill(loadedRegions, 0L);
+				layoutShared = false;
+				this.replaceLayout();
+				break;
+			}
+		}
+		int regions = level.getRegionsX() * level.getRegionsY();
+		for (int region = 0; region < regions; region++) {
+			long bit = 1L << region;
+			boolean saved = (in.getLong(at + 8 * (region >>> 6)) & bit) != 0;
+			if (saved && (loadedRegions[region >>> 6] & bit) == 0) {
+				loadedRegions[region >>> 6] |= bit;
+				this.layOutRegion(region);
+			}
+		}
+	}
 
-		if (rightPressed && !leftPressed
-				&& shield.getX() + shield.getSizeX() < yardSizeX) {
-			// player pressing right arrow and shield not touching right wall
-			shield.setMovingRight();
-		} else if (!rightPressed && leftPressed && shield.getX() > 0) {
-			// player pressing left arrow and shield not touching left wall
-			shield.setMovingLeft();
-		} else {
-			// either no arrow pressed, or impeded by wall
-			shield.setMovingStop();
+	/**
+	 * Puts the model back in a saved state, see
+	 * restoreState(ByteBuffer)
+	 * @param state the saved state
+	 */
+	public void restoreState(byte[] state) {
+		restoreState(ByteBuffer.wrap(state));
+	}
+
+	// writes an object's location and its location at the start
+	// of the tick
+	private void putPosition(ByteBuffer out, PlaceableObject object) {
+		out.putInt(object.getX());
+		out.putInt(object.getY());
+		out.putInt(object.getPrevX());
+		out.putInt(object.getPrevY());
+	}
+
+	// reads a location written by putPosition at the given index
+	private void getPosition(ByteBuffer in, int at, PlaceableObject object) {
+		object.setX(in.getInt(at + 8));
+		object.setY(in.getInt(at + 12));
+		object.savePosition();
+		object.setX(in.getInt(at));
+		object.setY(in.getInt(at + 4));
+	}
+
+	// works out the fingerprint of the brick layout, once per
+	// layout version.  A level's regions may be laid out in any
+	// order, so the level's own shape stands in for its bricks
+	private int getLayoutHash() {
+		if (level != null && loadedRegions != null) {
+			int hash = level.getBrickCount();
+			hash = 31 * hash + level.getWidth();
+			hash = 31 * hash + level.getHeight();
+			hash = 31 * hash + level.getRegionSize();
+			hash = 31 * hash + level.getMaxBrickSize();
+			return hash;
 		}
-		shield.move();
+		if (hashedVersion != layoutVersion) {
+			int hash = bricks.size();
+			for (int id = 0; id < bricks.size(); id++) {
+				if (!bricks.isFilled(id)) {
+					continue;
+				}
+				hash = 31 * hash + id;
+				hash = 31 * hash + bricks.getX(id);
+				hash = 31 * hash + bricks.getY(id);
+				hash = 31 * hash + bricks.getSizeX(id);
+				hash = 31 * hash + bricks.getSizeY(id);
+				hash = 31 * hash + bricks.getPoints(id);
+			}
+			layoutHash = hash;
+			hashedVersion = layoutVersion;
+		}
+		return layoutHash;
 	}
 
-	// These 4 methods check collisions and modify the
-	// velocity of the ball, but do not break any bricks
-	// any bricks collided with will be added to 'hitBricks'
-	// break bricks after all these are called
-	// clear 'hitBricks' after impactBrick() has been called
-	private void checkCollBottom() {
-		Ball ball = this.getBall();
-		Shield shield = this.getShield();
-		// check if bottom edge is against wall
-		if (ball.getY() + ball.getSizeY() >= yardSizeY) {
-			// up against bottom wall, game over!
-			this.ballLost();
+	/**
+	 * Moves the balls and shield, detects wall, shield, and 
+	 * brick collisions, and calls appropriate methods to 
+	 * deal with those collisions.  Each ball is swept along its
+	 * whole path for the tick, so it can't pass through anything
+	 * however fast it moves.  Many balls are swept in parallel
+	 */
+	public void moveObjects() {
+		// time the phases only while the metrics are enabled
+		GameMetrics timing = metrics != null && metrics.isEnabled()
+				? metrics : null;
+		long start = timing != null ? System.nanoTime() : 0;
+
+		// remember where this tick started, for interpolated drawing
+		for (int i = 0; i < balls.size(); i++) {
+			balls.get(i).savePosition();
+		}
+		shield.savePosition();
+		// MOVE SHIELD //
+		this.moveShield();
+		long shieldDone = timing != null ? System.nanoTime() : 0;
+
+		// LAY OUT ANY REGIONS OF THE LEVEL THE BALLS ARE REACHING //
+		if (loadedRegions != null) {
+			this.loadRegionsAhead();
 		}
 
-		// check if bottom edge is against the shield
-		if (ball.getY() + ball.getSizeY() >= shield.getY()
-				&& ball.getY() + ball.getSizeY() <= shield.getY()
-						+ IMPACT_BUFFER) {
-			// only test horizontal if within range vertically
-			if (ball.getX() + ball.getSizeX() >= shield.getX()
-					&& ball.getX() <= shield.getX() + shield.getSizeX()) {
-				ball.setVY(ball.getVY() * -1);
+		// MOVE BALLS, BOUNCING OFF ANYTHING IN THEIR PATHS //
+		mover.move(balls, shield, bricks, grid, yardSizeX, yardSizeY);
+		long collideDone = timing != null ? System.nanoTime() : 0;
+
+		// let the model know which bricks were hit.  Hits come in
+		// ball order, so when several balls strike the same brick
+		// in a tick, the lowest numbered ball knocks it out
+		for (int i = 0; i < mover.getHitCount(); i++) {
+			int id = mover.getHitBrick(i);
+			if (bricks.isLive(id)) {
+				this.impactBrick(id);
 			}
 		}
+		if (mover.getLostCount() > 0) {
+			this.removeLostBalls();
+		}
+		tick++;
+		if (timing != null) {
+			timing.recordTick(start, shieldDone, collideDone,
+					System.nanoTime());
+		}
+	}
 
-		// check if bottom edge is against a brick
-		for (Brick b : this.getBricks()) {
-			if (ball.getY() + ball.getSizeY() >= b.getY()
-					&& ball.getY() + ball.getSizeY() <= b.getY()
-							+ IMPACT_BUFFER) {
-				if (ball.getX() + ball.getSizeX() >= b.getX()
-						&& ball.getX() <= b.getX() + b.getSizeX()) {
-					ball.setVY(ball.getVY() * -1);
-					// let the model know the brick was hit
-					this.impactBrick(b);
+	/**
+	 * Runs a number of ticks with the arrows held as they are, ending
+	 * exactly where calling moveObjects that many times would.  Runs
+	 * of ticks in which no ball can touch a wall, the shield or a
+	 * brick, nor reach a new region of the level, are jumped over in
+	 * a single step, worked out from the balls' straight paths, so
+	 * headless runs cost little more than the bounces in them.  The
+	 * ticks around the shield's height are run one at a time.  Stops
+	 * early after a tick in which a ball is lost
+	 * @param ticks most ticks to run
+	 * @return number of ticks run
+	 */
+	public long advance(long ticks) {
+		long run = 0;
+		while (run < ticks) {
+			if (loadedRegions != null) {
+				this.loadRegionsAhead();
+			}
+			long free = this.freeTicks(ticks - run);
+			if (free > 1) {
+				this.jump(free);
+				run += free;
+			} else {
+				int lost = ballsLost;
+				this.moveObjects();
+				run++;
+				if (ballsLost != lost) {
+					break;
 				}
 			}
 		}
+		return run;
 	}
 
-	private void checkCollTop() {
-		Ball ball = this.getBall();
-		// moving up, check if top edge is against wall
-		if (ball.getY() < -1) {
-			// up against the wall, flip y velocity
-			ball.setVY(ball.getVY() * -1);
-		}
+	// number of ticks from now, up to limit, in which no ball can
+	// touch anything or reach a region of the level not laid out yet
+	private long freeTicks(long limit) {
+		long free = limit;
+		int sy = shield.getY();
+		int sy2 = sy + shield.getSizeY();
+		for (int i = 0; i < balls.size() && free > 1; i++) {
+			Ball ball = balls.get(i);
+			int x = ball.getX();
+			int y = ball.getY();
+			int vx = ball.getVX();
+			int vy = ball.getVY();
+			int sizeX = ball.getSizeX();
+			int sizeY = ball.getSizeY();
+
+			// walls, and the bottom where the ball is lost
+			free = Math.min(free, ticksBefore(x, -vx));
+			free = Math.min(free, ticksBefore(yardSizeX - sizeX - x, vx));
+			free = Math.min(free, ticksBefore(y, -vy));
+			free = Math.min(free, ticksBefore(yardSizeY - sizeY - y, vy));
+
+			// the band the shield moves along, wherever it is in it
+			if (y + sizeY < sy) {
+				free = Math.min(free, ticksBefore(sy - sizeY - y, vy));
+			} else if (y > sy2) {
+				free = Math.min(free, ticksBefore(y - sy2, -vy));
+			} else {
+				free = 0;
+			}
+
+			// the regions the ball's reach covers each tick
+			if (loadedRegions != null) {
+				int size = level.getRegionSize();
+				int reach = level.getMaxBrickSize();
+				free = Math.min(free, ticksInRegion(
+						x + Math.min(vx, 0) - reach, vx, size));
+				free = Math.min(free, ticksInRegion(
+						x + sizeX + Math.max(vx, 0), vx, size));
+				free = Math.min(free, ticksInRegion(
+						y + Math.min(vy, 0) - reach, vy, size));
+				free = Math.min(free, ticksInRegion(
+						y + sizeY + Math.max(vy, 0), vy, size));
+			}
+			if (free <= 1) {
+				break;
+			}
 
-		// check if top edge is against a brick
-		for (Brick b : this.getBricks()) {
-			// first check vertical
-			if (ball.getY() >= b.getY() + b.getSizeY() - IMPACT_BUFFER
-					&& ball.getY() <= b.getY() + b.getSizeY()) {
-				// only test horizontal if within range vertically
-				if (ball.getX() + ball.getSizeX() >= b.getX()
-						&& ball.getX() <= b.getX() + b.getSizeX()) {
-					ball.setVY(ball.getVY() * -1);
-					// let the model know the brick was hit
-					this.impactBrick(b);
+			// bricks along the ball's path until then: the ticks
+			// before the ball's box first touches each one's
+			long endX = x + vx * free;
+			long endY = y + vy * free;
+			grid.query(bricks, (int) Math.min(x, endX),
+					(int) Math.min(y, endY),
+					(int) Math.max(x, endX) + sizeX,
+					(int) Math.max(y, endY) + sizeY, nearPath);
+			for (int k = 0; k < nearPath.size(); k++) {
+				int id = nearPath.get(k);
+				int bx = bricks.getX(id);
+				int by = bricks.getY(id);
+				double enter = Math.max(
+						entersAt(x, sizeX, vx, bx, bx + bricks.getSizeX(id)),
+						entersAt(y, sizeY, vy, by, by + bricks.getSizeY(id)));
+				double leave = Math.min(
+						leavesAt(x, sizeX, vx, bx, bx + bricks.getSizeX(id)),
+						leavesAt(y, sizeY, vy, by, by + bricks.getSizeY(id)));
+				if (enter <= leave && leave >= 0) {
+					free = enter <= 0 ? 0 : Math.min(free,
+							(long) Math.ceil(enter) - 1);
 				}
 			}
 		}
+		return free;
 	}
 
-	private void checkCollLeft() {
-		Ball ball = this.getBall();
-		Shield shield = this.getShield();
-		// check if left edge is against wall
-		if (ball.getX() < -1) {
-			// up against the wall, flip the x velocity
-			ball.setVX(ball.getVX() * -1);
+	// moves everything through ticks in which nothing touches, as
+	// that many calls to moveObjects would.  The last tick is run
+	// from where the one before it left things, so drawing still
+	// interpolates across a single tick
+	private void jump(long ticks) {
+		for (int i = 0; i < balls.size(); i++) {
+			Ball ball = balls.get(i);
+			ball.setX((int) (ball.getX() + ball.getVX() * (ticks - 1)));
+			ball.setY((int) (ball.getY() + ball.getVY() * (ticks - 1)));
+			ball.savePosition();
+			ball.move();
 		}
 
-		// check if left edge is against shield
-		if (ball.getY() <= shield.getY() + shield.getSizeY()
-				&& ball.getY() + ball.getSizeY() >= shield.getY()) {
-			// only test horizontal if ball is within range vertically
-			if (ball.getX() >= shield.getX() + shield.getSizeX()
-					- IMPACT_BUFFER
-					&& ball.getX() <= shield.getX() + shield.getSizeX()) {
-				ball.setVX(ball.getVX() * -1);
-			}
+		// the shield moves at a steady speed until it reaches a wall
+		long moves = 0;
+		int speed = shield.getSpeed();
+		if (rightPressed && !leftPressed) {
+			int gap = yardSizeX - shield.getX() - shield.getSizeX();
+			moves = Math.max(0, (gap + speed - 1) / speed);
+		} else if (leftPressed && !rightPressed) {
+			moves = Math.max(0, (shield.getX() + speed - 1) / speed);
 		}
+		moves = Math.min(moves, ticks - 1) * (leftPressed ? -1 : 1);
+		shield.setX((int) (shield.getX() + speed * moves));
+		shield.savePosition();
+		this.moveShield();
+		tick += ticks;
+	}
 
-		// check if left edge is against a brick
-		for (Brick b : this.getBricks()) {
-			if (ball.getY() <= b.getY() + b.getSizeY()
-					&& ball.getY() + ball.getSizeY() >= b.getY()) {
-				// only test horizontal if ball is within range vertically
-				if (ball.getX() >= b.getX() + b.getSizeX() - IMPACT_BUFFER
-						&& ball.getX() <= b.getX() + b.getSizeX()) {
-					ball.setVX(ball.getVX() * -1);
-					// let the model know the brick was hit
-					this.impactBrick(b);
-				}
+	// ticks moving at this speed takes to close a gap without
+	// touching, the last counted tick ending short of contact
+	private static long ticksBefore(long gap, int speed) {
+		if (speed <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return gap <= 0 ? 0 : (gap - 1) / speed;
+	}
+
+	// ticks from now an edge moving at this speed stays within the
+	// same region
+	private static long ticksInRegion(int edge, int speed, int size) {
+		int start = Math.floorDiv(edge, size) * size;
+		if (speed > 0) {
+			return (start + size - edge + speed - 1) / speed;
+		} else if (speed < 0) {
+			return (edge - start) / -speed + 1;
+		}
+		return Long.MAX_VALUE;
+	}
+
+	// time a box moving along one axis starts to touch a span
+	private static double entersAt(int at, int size, int speed, int from,
+			int to) {
+		if (speed > 0) {
+			return (double) (from - at - size) / speed;
+		} else if (speed < 0) {
+			return (double) (at - to) / -speed;
+		}
+		return at + size >= from && at <= to ? Double.NEGATIVE_INFINITY
+				: Double.POSITIVE_INFINITY;
+	}
+
+	// time a box moving along one axis stops touching a span
+	private static double leavesAt(int at, int size, int speed, int from,
+			int to) {
+		if (speed > 0) {
+			return (double) (to - at) / speed;
+		} else if (speed < 0) {
+			return (double) (at + size - from) / -speed;
+		}
+		return at + size >= from && at <= to ? Double.POSITIVE_INFINITY
+				: Double.NEGATIVE_INFINITY;
+	}
+
+	// lays out the regions each ball could reach this tick
+	private void loadRegionsAhead() {
+		for (int i = 0; i < balls.size(); i++) {
+			Ball ball = balls.get(i);
+			int x = ball.getX();
+			int y = ball.getY();
+			this.loadRegions(x + Math.min(ball.getVX(), 0),
+					y + Math.min(ball.getVY(), 0),
+					x + ball.getSizeX() + Math.max(ball.getVX(), 0),
+					y + ball.getSizeY() + Math.max(ball.getVY(), 0));
+		}
+	}
+
+	// takes the balls that reached the bottom out of play.  If
+	// every ball went, the first one stays as the ball to serve
+	// again, and the turn is over
+	private void removeLostBalls() {
+		if (mover.getLostCount() == balls.size()) {
+			if (balls.size() > 1) {
+				balls.subList(1, balls.size()).clear();
 			}
+			// up against bottom wall, game over!
+			this.ballLost();
+			return;
 		}
+		int kept = 0;
+		int next = 0;
+		for (int i = 0; i < balls.size(); i++) {
+			if (next < mover.getLostCount() && mover.getLost(next) == i) {
+				next++;
+			} else {
+				balls.set(kept++, balls.get(i));
+			}
+		}
+		balls.subList(kept, balls.size()).clear();
 	}
 
-	private void checkCollRight() {
-		Ball ball = this.getBall();
-		Shield shield = this.getShield();
-		// check if right edge is against wall
-		if (ball.getX() + ball.getSizeX() >= yardSizeX) {
-			// up against right wall, flip x velocity
-			ball.setVX(ball.getVX() * -1);
+	// detect whether the shield is up against a wall, then
+	// move the shield based on its velocity
+	private void moveShield() {
+		if (rightPressed && !leftPressed
+				&& shield.getX() + shield.getSizeX() < yardSizeX) {
+			// player pressing right arrow and shield not touching right wall
+			shield.setMovingRight();
+		} else if (!rightPressed && leftPressed && shield.getX() > 0) {
+			// player pressing left arrow and shield not touching left wall
+			shield.setMovingLeft();
+		} else {
+			// either no arrow pressed, or impeded by wall
+			shield.setMovingStop();
 		}
+		shield.move();
+	}
+
+	/**
+	 * Read-only list over the balls, the shield, and then the standing
+	 * bricks, so callers can still treat the model as one list of objects.
+	 * Bricks are built from the BrickStore as they are reached
+	 */
+	private class PlaceablesView extends AbstractList<PlaceableObject> {
 
-		// check if right edge is against the shield
-		else if (ball.getY() + ball.getSizeY() >= shield.getY()
-				&& ball.getY() <= shield.getY() + shield.getSizeY()) {
-			// only test horizontal if ball is within range vertically
-			if (ball.getX() + ball.getSizeX() >= shield.getX()
-					&& ball.getX() + ball.getSizeX() <= shield.getX()
-							+ IMPACT_BUFFER) {
-				ball.setVX(ball.getVX() * -1);
+		@Override
+		public PlaceableObject get(int index) {
+			if (index >= 0 && index < balls.size()) {
+				return balls.get(index);
+			}
+			if (index == balls.size()) {
+				return shield;
+			}
+			int id = bricks.nextLive(0);
+			for (int i = balls.size() + 1; i < index && id >= 0; i++) {
+				id = bricks.nextLive(id + 1);
+			}
+			if (index < 0 || id < 0) {
+				throw new IndexOutOfBoundsException("Index: " + index);
 			}
+			return bricks.toBrick(id);
+		}
 
+		@Override
+		public int size() {
+			return bricks.getLiveCount() + balls.size() + 1;
 		}
 
-		// check if right edge is against a brick
-		for (Brick b : this.getBricks()) {
-			if (ball.getY() + ball.getSizeY() >= b.getY()
-					&& ball.getY() <= b.getY() + b.getSizeY()) {
-				// only test horizontal if ball is within range vertically
-				if (ball.getX() + ball.getSizeX() >= b.getX()
-						&& ball.getX() + ball.getSizeX() <= b.getX()
-								+ IMPACT_BUFFER) {
-					// brick hit, adjust ball velocity
-					ball.setVX(ball.getVX() * -1);
-					// let the model know the brick was hit
-					this.impactBrick(b);
+		@Override
+		public Iterator<PlaceableObject> iterator() {
+			return new Iterator<PlaceableObject>() {
+				// objects returned so far, and the next brick id
+				private int index = 0;
+				private int next = bricks.nextLive(0);
+
+				@Override
+				public boolean hasNext() {
+					return index <= balls.size() || next >= 0;
 				}
-			}
+
+				@Override
+				public PlaceableObject next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					index++;
+					if (index <= balls.size()) {
+						return balls.get(index - 1);
+					}
+					if (index == balls.size() + 1) {
+						return shield;
+					}
+					Brick temp = bricks.toBrick(next);
+					next = bricks.nextLive(next + 1);
+					return temp;
+				}
+			};
 		}
 	}
 }
@@ -0,0 +1,293 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Draws frames of a BrickBreaker game from the render snapshots handed out by
+ * a SnapshotSource, such as a BrickBreakerControl. The view's display panel paints through this, and
+ * so can anything else that needs a frame, such as an offscreen image.
+ *
+ * The background and bricks come from a BrickLayerCache, so a frame costs
+ * one image draw plus the moving objects, however many bricks there are.
+ * nextFrame also works out which rectangles differ from the previous frame,
+ * for views that only repaint what changed. Neither allocates anything once
+ * running: positions are read straight from the snapshot, balls are drawn
+ * from a sprite rather than with fillOval, which builds a shape every call,
+ * and the HUD text is kept in char arrays that are only rewritten when the
+ * numbers change.
+ *
+ * A Camera decides which part of the arena a frame shows, and at what zoom,
+ * so arenas larger than the frame scroll to follow the ball. The HUD stays
+ * put.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class BrickYardRenderer {
+
+	// size of a frame
+	private static final int FRAME_X = 800;
+	private static final int FRAME_Y = 600;
+
+	// where the score and balls remaining are drawn
+	private static final Rectangle SCORE_AREA = new Rectangle(600, 28, 200,
+			28);
+	private static final Rectangle BALLS_AREA = new Rectangle(50, 28, 200, 28);
+
+	// HUD font and labels
+	private static final Font HUD_FONT = new Font("Courier", Font.BOLD, 20);
+	private static final String SCORE_LABEL = "SCORE: ";
+	private static final String BALLS_LABEL = "Balls: ";
+
+	// source of the snapshots to draw
+	private SnapshotSource source;
+
+	// background and bricks, drawn once and patched as bricks break
+	private BrickLayerCache layer;
+
+	// the part of the arena shown
+	private Camera camera;
+
+	// what the frame being drawn shows
+	private RenderSnapshot snapshot;
+
+	// a ball drawn once, and the size and color it was drawn at
+	private BufferedImage ballSprite;
+	private Color spriteColor;
+
+	// where the previous frame drew the moving objects, four ints per
+	// object: the shield first, then each ball
+	private int[] drawn;
+	private int drawnCount;
+
+	// HUD text, and the values it was last written for
+	private char[] scoreText, ballsText;
+	private int scoreLength, ballsLength;
+	private int lastScore = -1, lastBallsRemaining = -1;
+
+	// scratch space for frames painted without calling nextFrame
+	private IntList unused;
+
+	/**
+	 * Constructs a BrickYardRenderer
+	 *
+	 * @param source
+	 *            where to take render snapshots from
+	 */
+	public BrickYardRenderer(SnapshotSource source) {
+		this.source = source;
+		layer = new BrickLayerCache(FRAME_X, FRAME_Y);
+		camera = new Camera(FRAME_X, FRAME_Y);
+		drawn = new int[8];
+		scoreText = label(SCORE_LABEL);
+		ballsText = label(BALLS_LABEL);
+		unused = new IntList();
+	}
+
+	/**
+	 * Sets the image drawn behind the game
+	 *
+	 * @param background
+	 *            the background image, or null for none
+	 */
+	public void setBackground(BufferedImage background) {
+		layer.setBackground(background);
+	}
+
+	/**
+	 * Retrieves the camera frames are drawn through, for scrolling and
+	 * zooming. Only use it on the thread that draws
+	 *
+	 * @return the camera
+	 */
+	public Camera getCamera() {
+		return camera;
+	}
+
+	/**
+	 * Takes the source's latest snapshot as what the next frame shows,
+	 * and works out where it differs from the previous one. Call once per
+	 * frame before painting it
+	 *
+	 * @param dirty
+	 *            x, y, width and height of each rectangle that needs
+	 *            repainting are added to this list, four ints at a time
+	 */
+	public void nextFrame(IntList dirty) {
+		snapshot = source.getSnapshot();
+		camera.setArena(snapshot.getArenaWidth(), snapshot.getArenaHeight());
+		if (snapshot.getBallCount() > 0) {
+			camera.track(snapshot.getBallX(0) + snapshot.getBallSizeX(0) / 2,
+					snapshot.getBallY(0) + snapshot.getBallSizeY(0) / 2);
+		}
+		layer.update(snapshot, camera, dirty);
+
+		// moving objects need clearing where they were and drawing
+		// where they are now
+		int objects = snapshot.getBallCount() + 1;
+		if (objects * 4 > drawn.length) {
+			drawn = Arrays.copyOf(drawn, objects * 8);
+		}
+		moved(dirty, 0, snapshot.getShieldX(), snapshot.getShieldY(),
+				snapshot.getShieldSizeX(), snapshot.getShieldSizeY());
+		for (int i = 0; i < snapshot.getBallCount(); i++) {
+			moved(dirty, i + 1, snapshot.getBallX(i), snapshot.getBallY(i),
+					snapshot.getBallSizeX(i), snapshot.getBallSizeY(i));
+		}
+
+		// balls that have left play only need clearing
+		for (int i = objects; i < drawnCount; i++) {
+			int at = i * 4;
+			addRect(dirty, drawn[at], drawn[at + 1], drawn[at + 2],
+					drawn[at + 3]);
+		}
+		drawnCount = objects;
+
+		int score = snapshot.getScore();
+		if (score != lastScore) {
+			scoreLength = SCORE_LABEL.length()
+					+ writeNumber(scoreText, SCORE_LABEL.length(), score);
+			addRect(dirty, SCORE_AREA.x, SCORE_AREA.y, SCORE_AREA.width,
+					SCORE_AREA.height);
+			lastScore = score;
+		}
+		int ballsRemaining = snapshot.getBallsRemaining();
+		if (ballsRemaining != lastBallsRemaining) {
+			ballsLength = BALLS_LABEL.length()
+					+ writeNumber(ballsText, BALLS_LABEL.length(),
+							ballsRemaining);
+			addRect(dirty, BALLS_AREA.x, BALLS_AREA.y, BALLS_AREA.width,
+					BALLS_AREA.height);
+			lastBallsRemaining = ballsRemaining;
+		}
+	}
+
+	/**
+	 * Draws a complete frame. Graphics with a clip only draw within it
+	 *
+	 * @param g
+	 *            the Graphics object to draw the frame on
+	 */
+	public void paint(Graphics g) {
+		if (snapshot == null) {
+			nextFrame(unused);
+			unused.clear();
+		}
+
+		// draw the background and bricks
+		g.drawImage(layer.getImage(), 0, 0, null);
+
+		// draw the balls in sight, scaled if zoomed
+		for (int i = 0; i < snapshot.getBallCount(); i++) {
+			int x = camera.toFrameX(snapshot.getBallX(i));
+			int y = camera.toFrameY(snapshot.getBallY(i));
+			int w = Math.max(1, camera.toFrameX(snapshot.getBallX(i)
+					+ snapshot.getBallSizeX(i)) - x);
+			int h = Math.max(1, camera.toFrameY(snapshot.getBallY(i)
+					+ snapshot.getBallSizeY(i)) - y);
+			if (x >= FRAME_X || y >= FRAME_Y || x + w <= 0 || y + h <= 0) {
+				continue;
+			}
+			BufferedImage sprite = ballSprite(i);
+			if (w == sprite.getWidth() && h == sprite.getHeight()) {
+				g.drawImage(sprite, x, y, null);
+			} else {
+				g.drawImage(sprite, x, y, w, h, null);
+			}
+		}
+
+		// draw the shield
+		int x = camera.toFrameX(snapshot.getShieldX());
+		int y = camera.toFrameY(snapshot.getShieldY());
+		g.setColor(snapshot.getShieldColor());
+		g.fillRect(x, y, Math.max(1, camera.toFrameX(snapshot.getShieldX()
+				+ snapshot.getShieldSizeX()) - x), Math.max(1, camera
+				.toFrameY(snapshot.getShieldY() + snapshot.getShieldSizeY())
+				- y));
+
+		// draw the score and balls remaining
+		g.setFont(HUD_FONT);
+		g.setColor(Color.white);
+		g.drawChars(scoreText, 0, scoreLength, 600, 50);
+		g.drawChars(ballsText, 0, ballsLength, 50, 50);
+	}
+
+	// retrieves the sprite for a ball, redrawing it if the ball's size
+	// or color has changed
+	private BufferedImage ballSprite(int ball) {
+		int w = snapshot.getBallSizeX(ball);
+		int h = snapshot.getBallSizeY(ball);
+		Color color = snapshot.getBallColor();
+		if (ballSprite == null || ballSprite.getWidth() != w
+				|| ballSprite.getHeight() != h || !color.equals(spriteColor)) {
+			ballSprite = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = ballSprite.createGraphics();
+			try {
+				g.setColor(color);
+				g.fillOval(0, 0, w, h);
+			} finally {
+				g.dispose();
+			}
+			spriteColor = color;
+		}
+		return ballSprite;
+	}
+
+	// marks the area an object moved across as dirty, and remembers
+	// where it is now in the frame
+	private void moved(IntList dirty, int object, int ax, int ay, int aw,
+			int ah) {
+		int x = camera.toFrameX(ax);
+		int y = camera.toFrameY(ay);
+		int w = Math.max(1, camera.toFrameX(ax + aw) - x);
+		int h = Math.max(1, camera.toFrameY(ay + ah) - y);
+		int at = object * 4;
+		if (object < drawnCount) {
+			int x2 = Math.max(drawn[at] + drawn[at + 2], x + w);
+			int y2 = Math.max(drawn[at + 1] + drawn[at + 3], y + h);
+			int x1 = Math.min(drawn[at], x);
+			int y1 = Math.min(drawn[at + 1], y);
+			addRect(dirty, x1, y1, x2 - x1, y2 - y1);
+		} else {
+			addRect(dirty, x, y, w, h);
+		}
+		drawn[at] = x;
+		drawn[at + 1] = y;
+		drawn[at + 2] = w;
+		drawn[at + 3] = h;
+	}
+
+	// adds a rectangle to a dirty list
+	private static void addRect(IntList dirty, int x, int y, int w, int h) {
+		dirty.add(x);
+		dirty.add(y);
+		dirty.add(w);
+		dirty.add(h);
+	}
+
+	// makes a buffer holding a label with room for any int after it
+	private static char[] label(String text) {
+		char[] buffer = new char[text.length() + 11];
+		text.getChars(0, text.length(), buffer, 0);
+		return buffer;
+	}
+
+	// writes a number in decimal into a buffer, returning its length
+	private static int writeNumber(char[] buffer, int offset, int number) {
+		long value = number;
+		int length = 0;
+		if (value < 0) {
+			buffer[offset + length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		for (int i = offset + length + digits - 1; i >= offset + length; i--) {
+			buffer[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return length + digits;
+	}
+}
@@ -0,0 +1,225 @@
+/**
+ * Maps the arena onto a frame of fixed size, so an arena larger than the
+ * window can be scrolled through and zoomed. The camera holds the arena point
+ * drawn at the frame's upper left corner and the zoom, and converts between
+ * arena and frame coordinates. It never shows past the arena's edges unless
+ * the whole arena fits in the frame, in which case the arena sits at the
+ * upper left as it always has.
+ *
+ * While tracking, the camera follows a point, such as the ball, scrolling
+ * only when the point leaves the middle half of the frame, so the view
+ * holds still most of the time and cached drawing stays valid.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class Camera {
+
+	// zoom limits
+	private static final double MIN_ZOOM = 1.0 / 64;
+	private static final double MAX_ZOOM = 8;
+
+	// size of the frame in pixels
+	private final int frameX, frameY;
+
+	// size of the arena
+	private int arenaX, arenaY;
+
+	// arena point drawn at the frame's upper left, and the scale
+	private int x, y;
+	private double zoom = 1;
+
+	// whether to follow the point given to track
+	private boolean tracking = true;
+
+	/**
+	 * Constructs a Camera showing the upper left of the arena at full size
+	 *
+	 * @param frameX
+	 *            width of the frame drawn
+	 * @param frameY
+	 *            height of the frame drawn
+	 */
+	public Camera(int frameX, int frameY) {
+		this.frameX = frameX;
+		this.frameY = frameY;
+		this.arenaX = frameX;
+		this.arenaY = frameY;
+	}
+
+	/**
+	 * Sets the size of the arena being shown, keeping the view inside it
+	 *
+	 * @param width
+	 *            arena width
+	 * @param height
+	 *            arena height
+	 */
+	public void setArena(int width, int height) {
+		if (width != arenaX || height != arenaY) {
+			arenaX = width;
+			arenaY = height;
+			clamp();
+		}
+	}
+
+	/**
+	 * Sets whether the camera follows the point given to track
+	 *
+	 * @param tracking
+	 *            true to follow, false to stay where moved
+	 */
+	public void setTracking(boolean tracking) {
+		this.tracking = tracking;
+	}
+
+	/**
+	 * Scrolls to keep a point in the middle half of the frame, if tracking
+	 *
+	 * @param px
+	 *            x of the point in the arena
+	 * @param py
+	 *            y of the point in the arena
+	 */
+	public void track(int px, int py) {
+		if (!tracking) {
+			return;
+		}
+		int spanX = (int) (frameX / zoom);
+		int spanY = (int) (frameY / zoom);
+		int nx = x;
+		int ny = y;
+		if (px < x + spanX / 4) {
+			nx = px - spanX / 4;
+		} else if (px > x + spanX * 3 / 4) {
+			nx = px - spanX * 3 / 4;
+		}
+		if (py < y + spanY / 4) {
+			ny = py - spanY / 4;
+		} else if (py > y + spanY * 3 / 4) {
+			ny = py - spanY * 3 / 4;
+		}
+		moveTo(nx, ny);
+	}
+
+	/**
+	 * Scrolls so an arena point is at the frame's upper left, or as near as
+	 * the arena's edges allow
+	 *
+	 * @param ax
+	 *            x of the point in the arena
+	 * @param ay
+	 *            y of the point in the arena
+	 */
+	public void moveTo(int ax, int ay) {
+		x = ax;
+		y = ay;
+		clamp();
+	}
+
+	/**
+	 * Zooms by a factor, keeping the arena point at the middle of the frame
+	 * where it is
+	 *
+	 * @param factor
+	 *            above 1 to zoom in, below 1 to zoom out
+	 */
+	public void zoomBy(double factor) {
+		setZoom(zoom * factor);
+	}
+
+	/**
+	 * Sets the zoom, keeping the arena point at the middle of the frame
+	 * where it is
+	 *
+	 * @param zoom
+	 *            frame pixels per arena pixel, 1 for full size; limited to
+	 *            between 1/64 and 8
+	 */
+	public void setZoom(double zoom) {
+		int midX = x + (int) (frameX / (2 * this.zoom));
+		int midY = y + (int) (frameY / (2 * this.zoom));
+		this.zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom));
+		moveTo(midX - (int) (frameX / (2 * this.zoom)),
+				midY - (int) (frameY / (2 * this.zoom)));
+	}
+
+	/**
+	 * Retrieves the arena x drawn at the frame's left edge
+	 *
+	 * @return x in the arena
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * Retrieves the arena y drawn at the frame's top edge
+	 *
+	 * @return y in the arena
+	 */
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * Retrieves the zoom
+	 *
+	 * @return frame pixels per arena pixel
+	 */
+	public double getZoom() {
+		return zoom;
+	}
+
+	/**
+	 * Converts an arena x to the frame
+	 *
+	 * @param ax
+	 *            x in the arena
+	 * @return x in the frame
+	 */
+	public int toFrameX(int ax) {
+		return zoom == 1 ? ax - x : (int) Math.floor((ax - x) * zoom);
+	}
+
+	/**
+	 * Converts an arena y to the frame
+	 *
+	 * @param ay
+	 *            y in the arena
+	 * @return y in the frame
+	 */
+	public int toFrameY(int ay) {
+		return zoom == 1 ? ay - y : (int) Math.floor((ay - y) * zoom);
+	}
+
+	/**
+	 * Converts a frame x to the arena
+	 *
+	 * @param fx
+	 *            x in the frame
+	 * @return x of the arena pixel drawn there
+	 */
+	public int toArenaX(int fx) {
+		return zoom == 1 ? fx + x : x + (int) Math.floor(fx / zoom);
+	}
+
+	/**
+	 * Converts a frame y to the arena
+	 *
+	 * @param fy
+	 *            y in the frame
+	 * @return y of the arena pixel drawn there
+	 */
+	public int toArenaY(int fy) {
+		return zoom == 1 ? fy + y : y + (int) Math.floor(fy / zoom);
+	}
+
+	// keeps the view inside the arena where it can
+	private void clamp() {
+		int maxX = arenaX - (int) Math.ceil(frameX / zoom);
+		int maxY = arenaY - (int) Math.ceil(frameY / zoom);
+		x = Math.max(0, Math.min(x, maxX));
+		y = Math.max(0, Math.min(y, maxY));
+	}
+}
@@ -0,0 +1,168 @@
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed timestep game loop driven by System.nanoTime. Elapsed time is
+ * banked and paid out as whole simulation steps of a fixed length, so game
+ * speed does not depend on how often frames are drawn. Whatever is left
+ * over is passed along as the fraction of a step to interpolate by when
+ * drawing.
+ *
+ * When the loop falls behind, at most a set number of steps are run per
+ * frame and the rest of the backlog is dropped, so a long stall slows the
+ * game down instead of fast forwarding it.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class GameLoop implements Runnable {
+
+	/**
+	 * Receives the steps and frames of a GameLoop
+	 */
+	public interface Frame {
+
+		/**
+		 * Runs the given number of simulation steps, then draws a frame
+		 *
+		 * @param steps
+		 *            number of fixed steps to simulate, possibly zero
+		 * @param alpha
+		 *            how far past the last step the frame is, from 0 up to
+		 *            but not including 1
+		 */
+		public void frame(int steps, double alpha);
+	}
+
+	// length of a simulation step and of a frame
+	private final long stepNanos;
+	private final long frameNanos;
+
+	// most steps run in a single frame
+	private final int maxSteps;
+
+	// receives the steps and frames
+	private final Frame target;
+
+	// thread running the loop, if started
+	private Thread thread;
+
+	// loop state, changed from other threads
+	private volatile boolean running;
+	private volatile boolean paused;
+
+	// steps thrown away because the loop fell too far behind
+	private volatile long droppedSteps;
+
+	/**
+	 * Constructs a GameLoop. The loop does not run until started
+	 *
+	 * @param stepNanos
+	 *            length of a simulation step in nanoseconds
+	 * @param frameNanos
+	 *            time between frames in nanoseconds
+	 * @param maxSteps
+	 *            most steps to run before drawing a frame
+	 * @param target
+	 *            receives the steps and frames
+	 */
+	public GameLoop(long stepNanos, long frameNanos, int maxSteps,
+			Frame target) {
+		this.stepNanos = stepNanos;
+		this.frameNanos = frameNanos;
+		this.maxSteps = maxSteps;
+		this.target = target;
+	}
+
+	/**
+	 * Starts the loop on its own daemon thread
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			running = true;
+			thread = new Thread(this, "game-loop");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stops the loop after the current frame
+	 */
+	public synchronized void stop() {
+		running = false;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+			thread = null;
+		}
+	}
+
+	/**
+	 * Pauses or resumes the simulation. Frames are still drawn while
+	 * paused, but no steps are run and the time spent paused is not banked
+	 *
+	 * @param paused
+	 *            true to pause, false to resume
+	 */
+	public void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	/**
+	 * Checks whether the simulation is paused
+	 *
+	 * @return true if paused
+	 */
+	public boolean isPaused() {
+		return paused;
+	}
+
+	/**
+	 * Retrieves the number of steps dropped because the loop fell too far
+	 * behind to catch up
+	 *
+	 * @return dropped step count
+	 */
+	public long getDroppedSteps() {
+		return droppedSteps;
+	}
+
+	/**
+	 * Runs the loop until stopped
+	 */
+	@Override
+	public void run() {
+		long previous = System.nanoTime();
+		long banked = 0;
+		long nextFrame = previous;
+		while (running) {
+			long now = System.nanoTime();
+			if (!paused) {
+				banked += now - previous;
+			}
+			previous = now;
+
+			int steps = 0;
+			while (banked >= stepNanos && steps < maxSteps) {
+				banked -= stepNanos;
+				steps++;
+			}
+			if (banked >= stepNanos) {
+				// too far behind, let the backlog go
+				droppedSteps += banked / stepNanos;
+				banked %= stepNanos;
+			}
+
+			target.frame(steps, (double) banked / stepNanos);
+
+			// wait for the next frame, skipping any already missed
+			nextFrame += frameNanos;
+			now = System.nanoTime();
+			if (nextFrame < now) {
+				nextFrame = now;
+			}
+			while (running && (now = System.nanoTime()) < nextFrame) {
+				LockSupport.parkNanos(nextFrame - now);
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.*;
+
+/**
+ * Latency histograms for the phases of a tick and for drawing frames,
+ * published over JMX as brickbreaker:type=GameMetrics. The model and view
+ * record into it when it is enabled; disabled, which is how it starts, they
+ * skip even reading the clock.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class GameMetrics implements GameMetricsMXBean {
+
+	/** name the metrics are registered under */
+	public static final String OBJECT_NAME = "brickbreaker:type=GameMetrics";
+
+	// whether times are being recorded
+	private volatile boolean enabled;
+
+	// length of a game loop step; longer ticks are overruns
+	private final long stepNanos;
+
+	// whole ticks, their phases, and frames drawn
+	private final LatencyHistogram tick, shield, collide, resolve, paint;
+
+	// ticks longer than a step
+	private final AtomicLong overruns;
+
+	/**
+	 * Constructs a disabled GameMetrics
+	 *
+	 * @param stepNanos
+	 *            length of a game loop step in nanoseconds
+	 */
+	public GameMetrics(long stepNanos) {
+		this.stepNanos = stepNanos;
+		tick = new LatencyHistogram();
+		shield = new LatencyHistogram();
+		collide = new LatencyHistogram();
+		resolve = new LatencyHistogram();
+		paint = new LatencyHistogram();
+		overruns = new AtomicLong();
+	}
+
+	/**
+	 * Records the times of a tick's phases, given as System.nanoTime
+	 * readings
+	 *
+	 * @param start
+	 *            when the tick started
+	 * @param shieldDone
+	 *            when the shield had moved
+	 * @param collideDone
+	 *            when the balls had been swept
+	 * @param end
+	 *            when the tick ended
+	 */
+	public void recordTick(long start, long shieldDone, long collideDone,
+			long end) {
+		shield.record(shieldDone - start);
+		collide.record(collideDone - shieldDone);
+		resolve.record(end - collideDone);
+		tick.record(end - start);
+		if (end - start > stepNanos) {
+			overruns.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Records the time taken to draw a frame
+	 *
+	 * @param nanos
+	 *            the time in nanoseconds
+	 */
+	public void recordPaint(long nanos) {
+		paint.record(nanos);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, replacing any
+	 * registered before
+	 *
+	 * @throws JMException
+	 *             if they can't be registered
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName(OBJECT_NAME);
+		if (server.isRegistered(name)) {
+			server.unregisterMBean(name);
+		}
+		server.registerMBean(this, name);
+	}
+
+	@Override
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Override
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	@Override
+	public LatencySummary getTick() {
+		return LatencySummary.of(tick);
+	}
+
+	@Override
+	public LatencySummary getShieldPhase() {
+		return LatencySummary.of(shield);
+	}
+
+	@Override
+	public LatencySummary getCollidePhase() {
+		return LatencySummary.of(collide);
+	}
+
+	@Override
+	public LatencySummary getResolvePhase() {
+		return LatencySummary.of(resolve);
+	}
+
+	@Override
+	public LatencySummary getPaint() {
+		return LatencySummary.of(paint);
+	}
+
+	@Override
+	public long getTickOverruns() {
+		return overruns.get();
+	}
+
+	@Override
+	public double getStepMicros() {
+		return stepNanos / 1e3;
+	}
+
+	@Override
+	public void reset() {
+		tick.reset();
+		shield.reset();
+		collide.reset();
+		resolve.reset();
+		paint.reset();
+		overruns.set(0);
+	}
+}
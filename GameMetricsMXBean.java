@@ -0,0 +1,84 @@
+/**
+ * Management interface of GameMetrics, for watching a running game's tick
+ * and frame times from JConsole or any other JMX client. Times are in
+ * microseconds. Nothing is measured until enabled
+ *
+ * @author Brian Lorton
+ *
+ */
+public interface GameMetricsMXBean {
+
+	/**
+	 * Checks whether times are being measured
+	 *
+	 * @return true if enabled
+	 */
+	public boolean isEnabled();
+
+	/**
+	 * Turns measuring on or off. Off, measuring costs a single check per
+	 * tick and frame
+	 *
+	 * @param enabled
+	 *            true to measure
+	 */
+	public void setEnabled(boolean enabled);
+
+	/**
+	 * Retrieves the times of whole ticks
+	 *
+	 * @return tick times
+	 */
+	public LatencySummary getTick();
+
+	/**
+	 * Retrieves the times spent moving the shield at the start of each tick
+	 *
+	 * @return shield phase times
+	 */
+	public LatencySummary getShieldPhase();
+
+	/**
+	 * Retrieves the times spent sweeping the balls through the walls,
+	 * shield and bricks, moving them as they go
+	 *
+	 * @return collide phase times
+	 */
+	public LatencySummary getCollidePhase();
+
+	/**
+	 * Retrieves the times spent knocking out the bricks hit and taking lost
+	 * balls out of play
+	 *
+	 * @return resolve phase times
+	 */
+	public LatencySummary getResolvePhase();
+
+	/**
+	 * Retrieves the times taken to draw frames
+	 *
+	 * @return frame drawing times
+	 */
+	public LatencySummary getPaint();
+
+	/**
+	 * Retrieves the number of ticks that took longer than a step of the
+	 * game loop, and so held the game back
+	 *
+	 * @return overrun count
+	 */
+	public long getTickOverruns();
+
+	/**
+	 * Retrieves the length of a game loop step, the limit past which a
+	 * tick counts as an overrun
+	 *
+	 * @return step length in microseconds
+	 */
+	public double getStepMicros();
+
+	/**
+	 * Clears every time measured so far
+	 */
+	public void reset();
+}
@@ -0,0 +1,13 @@
+/**
+ * Receives notice from a BrickYardModel that the last ball has been lost
+ * 
+ * @author Brian Lorton
+ *
+ */
+public interface GameOverListener {
+
+	/**
+	 * Called once the player has run out of balls
+	 */
+	public void gameOver();
+}
@@ -0,0 +1,152 @@
+/**
+ * Runs a BrickYardModel without a timer, window, or keyboard. Each call to
+ * step advances the model as fast as the CPU allows, taking paddle input from
+ * a PaddleInput instead of key events. Nothing here touches Swing or needs a
+ * display, so it is safe to use on servers without one.
+ *
+ * Driven by a ScriptedPaddleInput, the engine can step event by event: it
+ * knows how long each input is held, so it lets the model jump straight to
+ * the next contact instead of running every tick. The game ends up exactly
+ * where stepping tick by tick would leave it.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class HeadlessEngine implements GameOverListener {
+
+	// the game being run
+	private BrickYardModel model;
+
+	// where the paddle input comes from
+	private PaddleInput input;
+
+	// optional callback for the end of a game
+	private GameOverListener listener;
+
+	// ticks run since the last reset
+	private long tick;
+
+	// set once the model reports the last ball lost
+	private boolean gameOver;
+
+	// whether to jump between contacts while the input is held
+	private boolean eventDriven;
+
+	/**
+	 * Constructs a HeadlessEngine for the given model. The model's scores are
+	 * not written to the high score file while it is driven by this engine
+	 *
+	 * @param model
+	 *            the model to run
+	 * @param input
+	 *            source of paddle input
+	 */
+	public HeadlessEngine(BrickYardModel model, PaddleInput input) {
+		this.model = model;
+		this.input = input;
+		model.setRecordScores(false);
+		model.setGameOverListener(this);
+	}
+
+	/**
+	 * Registers a callback to be told when a game ends
+	 *
+	 * @param listener
+	 *            the callback, or null for none
+	 */
+	public void setGameOverListener(GameOverListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets whether to step event by event. This only takes effect with a
+	 * ScriptedPaddleInput, whose input is known ahead; other input is
+	 * asked for every tick
+	 *
+	 * @param eventDriven
+	 *            true to jump over ticks in which nothing touches
+	 */
+	public void setEventDriven(boolean eventDriven) {
+		this.eventDriven = eventDriven;
+	}
+
+	/**
+	 * Advances the model, stopping early if the game ends
+	 *
+	 * @param ticks
+	 *            most ticks to run
+	 * @return number of ticks actually run
+	 */
+	public long step(long ticks) {
+		long run = 0;
+		while (run < ticks && !gameOver) {
+			int keys = input.nextInput(tick, model);
+			model.setShieldLeft((keys & PaddleInput.LEFT) != 0);
+			model.setShieldRight((keys & PaddleInput.RIGHT) != 0);
+			if ((keys & PaddleInput.LAUNCH) != 0) {
+				model.launchBall();
+			}
+			if (eventDriven && input instanceof ScriptedPaddleInput) {
+				// the input holds until the script's next entry
+				long change = ((ScriptedPaddleInput) input)
+						.nextChange(tick + 1);
+				long held = model.advance(Math.min(ticks - run, change - tick));
+				tick += held;
+				run += held;
+			} else {
+				model.moveObjects();
+				tick++;
+				run++;
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * Starts a new game in the model and resets the tick count
+	 */
+	public void reset() {
+		model.newGame();
+		tick = 0;
+		gameOver = false;
+	}
+
+	/**
+	 * Checks whether the current game has ended
+	 *
+	 * @return true once the last ball has been lost
+	 */
+	public boolean isGameOver() {
+		return gameOver;
+	}
+
+	/**
+	 * Retrieves the number of ticks run since the last reset
+	 *
+	 * @return tick count
+	 */
+	public long getTick() {
+		return tick;
+	}
+
+	/**
+	 * Retrieves the model this engine runs
+	 *
+	 * @return the model
+	 */
+	public BrickYardModel getModel() {
+		return model;
+	}
+
+	/**
+	 * Called by the model when the last ball is lost. Stops stepping and
+	 * passes the notice on to the registered callback
+	 */
+	@Override
+	public void gameOver() {
+		gameOver = true;
+		if (listener != null) {
+			listener.gameOver();
+		}
+	}
+}
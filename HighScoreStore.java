@@ -0,0 +1,303 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Keeps the top scores ever recorded in a small fixed-size binary file,
+ * memory-mapped so recording a score is a few writes to memory rather than a
+ * file append. Only the best K scores are kept, as a min-heap whose smallest
+ * score sits at the root: a new score either loses to the root straight
+ * away, or replaces it and sifts down, so recording is O(log K) however many
+ * games have been played.
+ *
+ * The file holds a header (magic number, format version, capacity, count)
+ * followed by the heap's slots, so the in-memory heap and the file always
+ * match. Scores from the old one-per-line text file are migrated the first
+ * time the binary file is created.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class HighScoreStore implements Closeable {
+
+	// identifies the file format
+	private static final int MAGIC = 0x48695363;
+	private static final int VERSION = 1;
+
+	// header layout: magic, version, capacity, count
+	private static final int CAPACITY_AT = 8;
+	private static final int COUNT_AT = 12;
+	private static final int HEADER = 16;
+
+	// most scores kept
+	private final int capacity;
+
+	// the kept scores as a min-heap, and how many there are
+	private final int[] heap;
+	private int count;
+
+	// scratch space for sorting the scores when they are read
+	private final int[] sorted;
+
+	// the open file and its mapping
+	private FileChannel channel;
+	private MappedByteBuffer map;
+
+	/**
+	 * Opens a HighScoreStore, creating the file if it does not exist. A new
+	 * file is seeded from the legacy text file if there is one; an existing
+	 * file made with a different capacity is rewritten to this one
+	 *
+	 * @param file
+	 *            the binary high score file
+	 * @param legacy
+	 *            the old text file of one score per line, or null
+	 * @param capacity
+	 *            number of top scores to keep
+	 * @throws IOException
+	 *             if a file can't be read or written, or the binary file is
+	 *             not a high score file
+	 */
+	public HighScoreStore(File file, File legacy, int capacity)
+			throws IOException {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be positive: "
+					+ capacity);
+		}
+		this.capacity = capacity;
+		heap = new int[capacity];
+		sorted = new int[capacity];
+
+		boolean exists = file.length() > 0;
+		if (!exists) {
+			File parent = file.getAbsoluteFile().getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("can't create directory " + parent);
+			}
+		}
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+		try {
+			if (exists) {
+				load(file);
+			} else if (legacy != null && legacy.isFile()) {
+				migrate(legacy);
+			}
+
+			// lay the file out for this capacity and write the heap to it
+			long size = HEADER + 4L * capacity;
+			if (channel.size() > size) {
+				channel.truncate(size);
+			}
+			map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			map.putInt(0, MAGIC);
+			map.putInt(4, VERSION);
+			map.putInt(CAPACITY_AT, capacity);
+			map.putInt(COUNT_AT, count);
+			for (int i = 0; i < capacity; i++) {
+				map.putInt(HEADER + 4 * i, i < count ? heap[i] : 0);
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Records a score, keeping it if it is among the top scores
+	 *
+	 * @param score
+	 *            the score to record
+	 * @return true if the score was kept
+	 */
+	public synchronized boolean add(int score) {
+		checkOpen();
+		if (count < capacity) {
+			set(count, score);
+			count++;
+			map.putInt(COUNT_AT, count);
+			siftUp(count - 1);
+			return true;
+		}
+		if (score <= heap[0]) {
+			return false;
+		}
+		set(0, score);
+		siftDown(0);
+		return true;
+	}
+
+	/**
+	 * Copies the best scores, highest first, into an array. Allocates
+	 * nothing
+	 *
+	 * @param into
+	 *            array to fill; as many scores as fit are copied
+	 * @return number of scores copied
+	 */
+	public synchronized int getTopScores(int[] into) {
+		System.arraycopy(heap, 0, sorted, 0, count);
+		Arrays.sort(sorted, 0, count);
+		int n = Math.min(count, into.length);
+		for (int i = 0; i < n; i++) {
+			into[i] = sorted[count - 1 - i];
+		}
+		return n;
+	}
+
+	/**
+	 * Retrieves the number of scores kept
+	 *
+	 * @return score count, at most the capacity
+	 */
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * Retrieves the most scores kept
+	 *
+	 * @return the capacity
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Forces the scores recorded so far out to the storage device
+	 */
+	public synchronized void flush() {
+		checkOpen();
+		map.force();
+	}
+
+	/**
+	 * Closes the file. Scores recorded are written back by the operating
+	 * system in its own time; call flush first to force them out now.
+	 * Scores can still be read afterwards, but not recorded
+	 *
+	 * @throws IOException
+	 *             if the file can't be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	// reads the scores of an existing binary file into the heap
+	private void load(File file) throws IOException {
+		ByteBuffer header = read(0, HEADER);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+			throw new IOException(file + " is not a high score file");
+		}
+		int oldCapacity = header.getInt(CAPACITY_AT);
+		int oldCount = header.getInt(COUNT_AT);
+		if (oldCount < 0 || oldCount > oldCapacity
+				|| oldCapacity > (Integer.MAX_VALUE - HEADER) / 4
+				|| HEADER + 4L * oldCapacity > channel.size()) {
+			throw new IOException(file + " is damaged");
+		}
+		ByteBuffer slots = read(HEADER, 4 * oldCount);
+		for (int i = 0; i < oldCount; i++) {
+			offer(slots.getInt(4 * i));
+		}
+	}
+
+	// reads part of the file into a new buffer
+	private ByteBuffer read(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException("high score file is truncated");
+			}
+		}
+		return buffer;
+	}
+
+	// reads the scores of a legacy text file into the heap, skipping
+	// anything that isn't a number
+	private void migrate(File legacy) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(legacy));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				try {
+					offer(Integer.parseInt(line));
+				} catch (NumberFormatException e) {
+					// not a score
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	// adds a score to the heap before the file is mapped
+	private void offer(int score) {
+		if (count < capacity) {
+			heap[count] = score;
+			count++;
+			siftUp(count - 1);
+		} else if (score > heap[0]) {
+			heap[0] = score;
+			siftDown(0);
+		}
+	}
+
+	// moves a slot's score up until its parent is no larger
+	private void siftUp(int i) {
+		int score = heap[i];
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (heap[parent] <= score) {
+				break;
+			}
+			set(i, heap[parent]);
+			i = parent;
+		}
+		set(i, score);
+	}
+
+	// moves a slot's score down until its children are no smaller
+	private void siftDown(int i) {
+		int score = heap[i];
+		int half = count >>> 1;
+		while (i < half) {
+			int child = 2 * i + 1;
+			if (child + 1 < count && heap[child + 1] < heap[child]) {
+				child++;
+			}
+			if (score <= heap[child]) {
+				break;
+			}
+			set(i, heap[child]);
+			i = child;
+		}
+		set(i, score);
+	}
+
+	// writes a heap slot, and its place in the file once mapped
+	private void set(int i, int score) {
+		heap[i] = score;
+		if (map != null) {
+			map.putInt(HEADER + 4 * i, score);
+		}
+	}
+
+	// fails if the store has been closed
+	private void checkOpen() {
+		if (channel == null) {
+			throw new IllegalStateException("high score store is closed");
+		}
+	}
+}
@@ -0,0 +1,152 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Records the paddle input applied to a BrickYardModel, tick by tick, so the
+ * game can be played again exactly by an InputReplayer. The model has no
+ * other source of chance, so its input from the start of a game is all it
+ * takes to reproduce it.
+ *
+ * Only changes are kept: an entry is added when the arrows held change or
+ * space is pressed, the same entries a ScriptedPaddleInput plays back. Each
+ * entry is the ticks since the one before shifted left three bits, with the
+ * input flags in the low bits, written as a varint, so a typical entry takes
+ * a single byte. A log file holds a header, the number of ticks recorded,
+ * the number of entries, and then the entries.
+ *
+ * Recording and saving may happen on different threads.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class InputRecorder {
+
+	// identifies the file format
+	static final int MAGIC = 0x42426970;
+	static final int VERSION = 1;
+
+	// bits of an entry holding the input flags
+	static final int FLAG_BITS = 3;
+
+	// the entries so far, encoded
+	private byte[] entries;
+	private int length;
+	private int count;
+
+	// tick of the last entry, and the arrows held since
+	private long lastTick;
+	private int held;
+
+	// ticks recorded so far
+	private long ticks;
+
+	/**
+	 * Constructs an empty InputRecorder, for a game starting at tick 0
+	 */
+	public InputRecorder() {
+		entries = new byte[256];
+	}
+
+	/**
+	 * Records the input applied before a tick is run. Must be called for
+	 * every tick, in order
+	 *
+	 * @param tick
+	 *            the tick about to be run, counted from the start of the
+	 *            game
+	 * @param input
+	 *            LEFT and RIGHT for the arrows held, plus LAUNCH if space was
+	 *            pressed
+	 */
+	public synchronized void record(long tick, int input) {
+		if (tick < ticks) {
+			throw new IllegalArgumentException("tick " + tick
+					+ " already recorded");
+		}
+		ticks = tick + 1;
+		int arrows = input & (PaddleInput.LEFT | PaddleInput.RIGHT);
+		if (arrows == held && (input & PaddleInput.LAUNCH) == 0) {
+			return;
+		}
+		held = arrows;
+		writeVarLong((tick - lastTick) << FLAG_BITS | arrows
+				| input & PaddleInput.LAUNCH);
+		lastTick = tick;
+		count++;
+	}
+
+	/**
+	 * Retrieves the number of ticks recorded
+	 *
+	 * @return one past the last tick recorded
+	 */
+	public synchronized long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Retrieves the number of entries recorded
+	 *
+	 * @return entry count
+	 */
+	public synchronized int getEntryCount() {
+		return count;
+	}
+
+	/**
+	 * Writes the log recorded so far to a stream
+	 *
+	 * @param out
+	 *            where to write it; not closed
+	 * @throws IOException
+	 *             if the stream can't be written
+	 */
+	public synchronized void writeTo(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeInt(VERSION);
+		writeVarLong(data, ticks);
+		writeVarLong(data, count);
+		data.write(entries, 0, length);
+		data.flush();
+	}
+
+	/**
+	 * Saves the log recorded so far to a file, replacing it
+	 *
+	 * @param file
+	 *            the log file
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public synchronized void save(File file) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	// appends a varint to the entries
+	private void writeVarLong(long value) {
+		if (length + 10 > entries.length) {
+			entries = Arrays.copyOf(entries, entries.length * 2);
+		}
+		while ((value & ~0x7fL) != 0) {
+			entries[length++] = (byte) (value & 0x7f | 0x80);
+			value >>>= 7;
+		}
+		entries[length++] = (byte) value;
+	}
+
+	// writes a varint to a stream
+	private static void writeVarLong(DataOutput out, long value)
+			throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+}
@@ -0,0 +1,183 @@
+import java.io.*;
+
+/**
+ * Plays back a log written by an InputRecorder, driving a fresh headless
+ * BrickYardModel with the recorded input as fast as the CPU allows. The model
+ * ends up exactly where the recorded game did, so a log attached to a bug
+ * report reproduces it, and a log replayed after a change checks the change
+ * left the game alone.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class InputReplayer {
+
+	// ticks the game was recorded for
+	private final long ticks;
+
+	// the entries: tick each takes effect, and its input flags
+	private final long[] entryTicks;
+	private final int[] entryFlags;
+
+	/**
+	 * Reads a log file
+	 *
+	 * @param file
+	 *            the log file
+	 * @throws IOException
+	 *             if the file can't be read or is not an input log
+	 */
+	public InputReplayer(File file) throws IOException {
+		this(new BufferedInputStream(new FileInputStream(file)), true);
+	}
+
+	/**
+	 * Reads a log from a stream
+	 *
+	 * @param in
+	 *            the stream, left open
+	 * @throws IOException
+	 *             if the stream can't be read or is not an input log
+	 */
+	public InputReplayer(InputStream in) throws IOException {
+		this(in, false);
+	}
+
+	// reads the log, closing the stream if asked to
+	private InputReplayer(InputStream in, boolean close) throws IOException {
+		try {
+			DataInputStream data = new DataInputStream(in);
+			if (data.readInt() != InputRecorder.MAGIC) {
+				throw new IOException("not an input log");
+			}
+			int version = data.readInt();
+			if (version != InputRecorder.VERSION) {
+				throw new IOException("unknown input log version " + version);
+			}
+			ticks = readVarLong(data);
+			long count = readVarLong(data);
+			if (count > Integer.MAX_VALUE - 8) {
+				throw new IOException("input log is damaged");
+			}
+			entryTicks = new long[(int) count];
+			entryFlags = new int[(int) count];
+			long tick = 0;
+			int mask = (1 << InputRecorder.FLAG_BITS) - 1;
+			for (int i = 0; i < count; i++) {
+				long entry = readVarLong(data);
+				tick += entry >>> InputRecorder.FLAG_BITS;
+				entryTicks[i] = tick;
+				entryFlags[i] = (int) entry & mask;
+			}
+		} finally {
+			if (close) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the number of ticks the game was recorded for
+	 *
+	 * @return tick count
+	 */
+	public long getTicks() {
+		return ticks;
+	}
+
+	/**
+	 * Retrieves the number of input changes recorded
+	 *
+	 * @return entry count
+	 */
+	public int getEntryCount() {
+		return entryTicks.length;
+	}
+
+	/**
+	 * Builds a script that plays the recorded input
+	 *
+	 * @return a new ScriptedPaddleInput
+	 */
+	public ScriptedPaddleInput getScript() {
+		ScriptedPaddleInput script = new ScriptedPaddleInput();
+		for (int i = 0; i < entryTicks.length; i++) {
+			script.add(entryTicks[i], entryFlags[i]);
+		}
+		return script;
+	}
+
+	/**
+	 * Replays the recorded game in a new model, stopping at the last tick
+	 * recorded or when the game ends
+	 *
+	 * @return the engine the game was replayed with, holding the model
+	 */
+	public HeadlessEngine replay() {
+		return replay(new BrickYardModel());
+	}
+
+	/**
+	 * Replays the recorded game in the given model, which should be set up
+	 * as the recorded one was, e.g. with the same level, at the start of a
+	 * game. The game is stepped event by event, jumping over the ticks in
+	 * which nothing touches
+	 *
+	 * @param model
+	 *            the model to replay in
+	 * @return the engine the game was replayed with, holding the model
+	 */
+	public HeadlessEngine replay(BrickYardModel model) {
+		HeadlessEngine engine = new HeadlessEngine(model, getScript());
+		engine.setEventDriven(true);
+		engine.step(ticks);
+		return engine;
+	}
+
+	// reads a varint written by an InputRecorder
+	private static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("input log is damaged");
+	}
+
+	/**
+	 * Replays a log file and prints where the game ended up
+	 *
+	 * @param args
+	 *            the log file, then the level file the game was played on,
+	 *            if any
+	 * @throws IOException
+	 *             if the log or level can't be read
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("usage: InputReplayer <log file> [level]");
+			System.exit(2);
+		}
+		InputReplayer replayer = new InputReplayer(new File(args[0]));
+		BrickYardModel played = new BrickYardModel();
+		if (args.length > 1) {
+			played.setLevel(new LevelFile(new File(args[1])));
+		}
+		long start = System.nanoTime();
+		HeadlessEngine engine = replayer.replay(played);
+		long nanos = System.nanoTime() - start;
+
+		BrickYardModel model = engine.getModel();
+		System.out.printf("ticks          %d of %d%s%n", engine.getTick(),
+				replayer.getTicks(), engine.isGameOver() ? ", game over" : "");
+		System.out.printf("score          %d%n", model.getScore());
+		System.out.printf("balls          %d remaining, %d lost%n",
+				model.getBallsRemaining(), model.getBallsLost());
+		System.out.printf("bricks         %d standing%n", model
+				.getBrickStore().getLiveCount());
+		System.out.printf("elapsed        %.1f ms%n", nanos / 1e6);
+	}
+}
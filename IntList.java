@@ -0,0 +1,84 @@
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive ints, used as reusable scratch storage
+ * so hot paths don't box or allocate
+ *
+ * @author Brian Lorton
+ *
+ */
+public class IntList {
+
+	// backing storage
+	private int[] values;
+
+	// number of values in use
+	private int size;
+
+	/**
+	 * Constructs an empty IntList
+	 */
+	public IntList() {
+		this(16);
+	}
+
+	/**
+	 * Constructs an empty IntList with room for the given number of values
+	 *
+	 * @param capacity
+	 *            initial capacity
+	 */
+	public IntList(int capacity) {
+		values = new int[Math.max(1, capacity)];
+	}
+
+	/**
+	 * Appends a value, growing the storage if needed
+	 *
+	 * @param value
+	 *            the value to append
+	 */
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	/**
+	 * Retrieves the value at the given index
+	 *
+	 * @param index
+	 *            position of the value
+	 * @return the value
+	 */
+	public int get(int index) {
+		return values[index];
+	}
+
+	/**
+	 * Retrieves the number of values in this list
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sorts the values into ascending order
+	 */
+	public void sort() {
+		// most lists sorted hold a value or two
+		if (size > 1) {
+			Arrays.sort(values, 0, size);
+		}
+	}
+
+	/**
+	 * Empties the list, keeping its storage
+	 */
+	public void clear() {
+		size = 0;
+	}
+}
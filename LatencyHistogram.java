@@ -0,0 +1,136 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how often durations fall in log-linear buckets, for reading off
+ * percentiles of latencies from nanoseconds to over an hour. Each power of
+ * two is split into 32 equal buckets, so a percentile read back is within
+ * about 3% of the true value, and the whole range fits in about 1200
+ * counters.
+ *
+ * Recording is a single atomic increment, never locks and never allocates,
+ * so any number of threads can record while another reads. Readings taken
+ * while recording goes on may miss the latest few values.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class LatencyHistogram {
+
+	// bits of each value kept below its highest bit
+	private static final int SUB_BITS = 6;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int HALF_COUNT = SUB_COUNT / 2;
+
+	// largest value recorded; anything longer counts as this
+	private static final long MAX_VALUE = (1L << 42) - 1;
+
+	// counts per bucket
+	private final AtomicLongArray counts;
+
+	// values recorded, and the longest
+	private final AtomicLong total;
+	private final AtomicLong max;
+
+	/**
+	 * Constructs an empty LatencyHistogram
+	 */
+	public LatencyHistogram() {
+		counts = new AtomicLongArray(bucketOf(MAX_VALUE) + 1);
+		total = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records a duration
+	 *
+	 * @param nanos
+	 *            the duration in nanoseconds; negative counts as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+		counts.incrementAndGet(bucketOf(value));
+		total.incrementAndGet();
+		long longest = max.get();
+		while (value > longest && !max.compareAndSet(longest, value)) {
+			longest = max.get();
+		}
+	}
+
+	/**
+	 * Retrieves the number of durations recorded
+	 *
+	 * @return count since construction or the last reset
+	 */
+	public long getCount() {
+		return total.get();
+	}
+
+	/**
+	 * Retrieves the longest duration recorded, exactly
+	 *
+	 * @return longest duration in nanoseconds, 0 if none
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Retrieves the duration a given fraction of those recorded were no
+	 * longer than
+	 *
+	 * @param fraction
+	 *            from 0 to 1, e.g. 0.99 for the 99th percentile
+	 * @return the duration in nanoseconds, rounded up to the top of its
+	 *         bucket, 0 if none were recorded
+	 */
+	public long getPercentile(double fraction) {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestIn(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * Clears every count
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+		total.set(0);
+		max.set(0);
+	}
+
+	// bucket holding a value: small values get a bucket each, larger
+	// ones share buckets a 32nd of their power of two wide
+	private static int bucketOf(long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS + 1;
+		return shift * HALF_COUNT + (int) (value >>> shift);
+	}
+
+	// largest value falling in a bucket
+	private static long highestIn(int bucket) {
+		if (bucket < SUB_COUNT) {
+			return bucket;
+		}
+		int shift = bucket / HALF_COUNT - 1;
+		long sub = bucket % HALF_COUNT + HALF_COUNT;
+		return ((sub + 1) << shift) - 1;
+	}
+}
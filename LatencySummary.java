@@ -0,0 +1,107 @@
+import java.beans.ConstructorProperties;
+
+/**
+ * Percentiles of a LatencyHistogram taken at one moment, in microseconds,
+ * as shown over JMX
+ *
+ * @author Brian Lorton
+ *
+ */
+public class LatencySummary {
+
+	// durations counted
+	private final long count;
+
+	// percentiles and the longest, in microseconds
+	private final double p50, p99, p999, max;
+
+	/**
+	 * Constructs a LatencySummary
+	 *
+	 * @param count
+	 *            durations counted
+	 * @param p50
+	 *            median, in microseconds
+	 * @param p99
+	 *            99th percentile, in microseconds
+	 * @param p999
+	 *            99.9th percentile, in microseconds
+	 * @param max
+	 *            longest, in microseconds
+	 */
+	@ConstructorProperties({ "count", "p50", "p99", "p999", "max" })
+	public LatencySummary(long count, double p50, double p99, double p999,
+			double max) {
+		this.count = count;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+
+	/**
+	 * Summarizes a histogram of durations in nanoseconds
+	 *
+	 * @param histogram
+	 *            the histogram
+	 * @return its summary
+	 */
+	public static LatencySummary of(LatencyHistogram histogram) {
+		return new LatencySummary(histogram.getCount(),
+				histogram.getPercentile(0.5) / 1e3,
+				histogram.getPercentile(0.99) / 1e3,
+				histogram.getPercentile(0.999) / 1e3,
+				histogram.getMax() / 1e3);
+	}
+
+	/**
+	 * Retrieves the number of durations counted
+	 *
+	 * @return count
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Retrieves the median
+	 *
+	 * @return median in microseconds
+	 */
+	public double getP50() {
+		return p50;
+	}
+
+	/**
+	 * Retrieves the 99th percentile
+	 *
+	 * @return 99th percentile in microseconds
+	 */
+	public double getP99() {
+		return p99;
+	}
+
+	/**
+	 * Retrieves the 99.9th percentile
+	 *
+	 * @return 99.9th percentile in microseconds
+	 */
+	public double getP999() {
+		return p999;
+	}
+
+	/**
+	 * Retrieves the longest duration
+	 *
+	 * @return longest in microseconds
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d p50=%.1fus p99=%.1fus p999=%.1fus "
+				+ "max=%.1fus", count, p50, p99, p999, max);
+	}
+}
@@ -0,0 +1,337 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Converts a brick layout written as text into a LevelFile. The text is read
+ * twice, a line at a time: once to count the bricks in each region, and
+ * again to write each brick straight into its region's place in the mapped
+ * output. Only the region counts are held in memory, so levels of millions
+ * of bricks convert in a few megabytes.
+ *
+ * The text holds one command per line; blank lines and lines starting with
+ * # are ignored:
+ *
+ * <pre>
+ * arena  width height
+ * region size
+ * color  name r g b
+ * brick  x y width height points color
+ * row    x y count step width height points color
+ * </pre>
+ *
+ * arena must come before any bricks; region, which defaults to 256, must
+ * too. Colors are names given by a color line, or #rrggbb. A row lays out
+ * count bricks, each step pixels right of the last. Every brick's upper left
+ * corner must lie inside the arena.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class LevelConverter {
+
+	// region size used when the text doesn't give one
+	private static final int DEFAULT_REGION = 256;
+
+	// the text being converted
+	private final File text;
+
+	// arena and region sizes, once read
+	private int width, height;
+	private int regionSize = DEFAULT_REGION;
+	private int regionsX, regionsY;
+
+	// colors named by color lines, as RGB
+	private Map<String, Integer> names;
+
+	// palette index of each RGB color used, and the palette in order
+	private Map<Integer, Integer> paletteIndex;
+	private IntList palette;
+
+	// bricks per region, largest brick size, and total bricks
+	private int[] counts;
+	private int maxBrickSize;
+	private long brickCount;
+
+	// while writing: the output, where each region starts in it, and
+	// how many of each region's bricks have been written
+	private MappedByteBuffer out;
+	private long[] offsets;
+	private int[] written;
+
+	// the line being read, for error messages, and whether a brick
+	// has been read yet this pass
+	private int lineNumber;
+	private boolean laidOut;
+
+	// constructs a converter for the given text
+	private LevelConverter(File text) {
+		this.text = text;
+		names = new HashMap<String, Integer>();
+		paletteIndex = new HashMap<Integer, Integer>();
+		palette = new IntList();
+	}
+
+	/**
+	 * Converts a text layout into a level file
+	 *
+	 * @param text
+	 *            the text layout
+	 * @param level
+	 *            the level file to write, replaced if it exists
+	 * @throws IOException
+	 *             if a file can't be read or written, or the text has a
+	 *             mistake in it
+	 */
+	public static void convert(File text, File level) throws IOException {
+		new LevelConverter(text).run(level);
+	}
+
+	// counts, lays out, and writes the level
+	private void run(File level) throws IOException {
+		scan(false);
+		if (width == 0) {
+			throw new IOException(text + " has no arena line");
+		}
+		if (counts == null) {
+			splitRegions();
+		}
+
+		// lay the file out: header, palette, directory, then regions
+		int regions = counts.length;
+		long directory = LevelFile.HEADER + 4L * palette.size();
+		offsets = new long[regions];
+		long next = directory + (long) LevelFile.ENTRY * regions;
+		for (int r = 0; r < regions; r++) {
+			offsets[r] = next;
+			next += (long) counts[r] * LevelFile.BRICK;
+		}
+		if (next > Integer.MAX_VALUE || brickCount > Integer.MAX_VALUE) {
+			throw new IOException(text + " has too many bricks for a level");
+		}
+
+		FileChannel channel = FileChannel.open(level.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			out = channel.map(FileChannel.MapMode.READ_WRITE, 0, next);
+			out.putInt(0, LevelFile.MAGIC);
+			out.putInt(4, LevelFile.VERSION);
+			out.putInt(8, width);
+			out.putInt(12, height);
+			out.putInt(16, regionSize);
+			out.putInt(20, regionsX);
+			out.putInt(24, regionsY);
+			out.putInt(28, maxBrickSize);
+			out.putInt(32, (int) brickCount);
+			out.putInt(36, palette.size());
+			for (int i = 0; i < palette.size(); i++) {
+				out.putInt(LevelFile.HEADER + 4 * i, palette.get(i));
+			}
+			for (int r = 0; r < regions; r++) {
+				int at = (int) directory + LevelFile.ENTRY * r;
+				out.putLong(at, offsets[r]);
+				out.putInt(at + 8, counts[r]);
+			}
+
+			written = new int[regions];
+			scan(true);
+			out.force();
+		} finally {
+			channel.close();
+		}
+	}
+
+	// reads the text through, counting bricks or writing them
+	private void scan(boolean write) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(text));
+		try {
+			String line;
+			lineNumber = 0;
+			laidOut = false;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] words = line.split("\\s+");
+				command(words, write);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	// carries out one line
+	private void command(String[] words, boolean write) throws IOException {
+		String command = words[0];
+		if (command.equals("arena")) {
+			expect(words, 3);
+			if (laidOut) {
+				throw mistake("arena must come before the bricks");
+			}
+			width = positive(words[1]);
+			height = positive(words[2]);
+		} else if (command.equals("region")) {
+			expect(words, 2);
+			if (laidOut) {
+				throw mistake("region must come before the bricks");
+			}
+			regionSize = positive(words[1]);
+		} else if (command.equals("color")) {
+			expect(words, 5);
+			names.put(words[1], channel(words[2]) << 16
+					| channel(words[3]) << 8 | channel(words[4]));
+		} else if (command.equals("brick")) {
+			expect(words, 7);
+			brick(number(words[1]), number(words[2]), words, 3, write);
+		} else if (command.equals("row")) {
+			expect(words, 9);
+			int x = number(words[1]);
+			int y = number(words[2]);
+			int count = number(words[3]);
+			int step = number(words[4]);
+			for (int i = 0; i < count; i++) {
+				brick(x + i * step, y, words, 5, write);
+			}
+		} else {
+			throw mistake("unknown command " + command);
+		}
+	}
+
+	// counts or writes a brick whose size, points and color are in the
+	// words from the given index
+	private void brick(int x, int y, String[] words, int from, boolean write)
+			throws IOException {
+		if (width == 0) {
+			throw mistake("arena must come before the bricks");
+		}
+		laidOut = true;
+		if (counts == null) {
+			splitRegions();
+		}
+		int sizeX = number(words[from]);
+		int sizeY = number(words[from + 1]);
+		int points = number(words[from + 2]);
+		int color = color(words[from + 3]);
+		if (x < 0 || y < 0 || x >= width || y >= height) {
+			throw mistake("brick at " + x + ", " + y + " is outside the arena");
+		}
+		if (sizeX < 1 || sizeY < 1 || sizeX > 0xffff || sizeY > 0xffff) {
+			throw mistake("brick size must be from 1 to 65535");
+		}
+		int region = (y / regionSize) * regionsX + x / regionSize;
+
+		if (!write) {
+			counts[region]++;
+			brickCount++;
+			maxBrickSize = Math.max(maxBrickSize, Math.max(sizeX, sizeY));
+			return;
+		}
+		int at = (int) (offsets[region] + (long) written[region]
+				* LevelFile.BRICK);
+		written[region]++;
+		out.putInt(at, x);
+		out.putInt(at + 4, y);
+		out.putShort(at + 8, (short) sizeX);
+		out.putShort(at + 10, (short) sizeY);
+		out.putInt(at + 12, points);
+		out.put(at + 16, (byte) (int) paletteIndex.get(color));
+	}
+
+	// splits the arena into regions, once its size is known
+	private void splitRegions() throws IOException {
+		regionsX = (width + regionSize - 1) / regionSize;
+		regionsY = (height + regionSize - 1) / regionSize;
+		if ((long) regionsX * regionsY > Integer.MAX_VALUE / LevelFile.ENTRY) {
+			throw mistake("too many regions; use a larger region size");
+		}
+		counts = new int[regionsX * regionsY];
+	}
+
+	// looks up a color by name or #rrggbb, adding it to the palette
+	private int color(String word) throws IOException {
+		Integer rgb;
+		if (word.startsWith("#") && word.length() == 7) {
+			try {
+				rgb = Integer.parseInt(word.substring(1), 16);
+			} catch (NumberFormatException e) {
+				throw mistake("bad color " + word);
+			}
+		} else {
+			rgb = names.get(word);
+			if (rgb == null) {
+				throw mistake("unknown color " + word);
+			}
+		}
+		int argb = 0xff000000 | rgb;
+		if (!paletteIndex.containsKey(argb)) {
+			if (palette.size() == 256) {
+				throw mistake("a level can use at most 256 colors");
+			}
+			paletteIndex.put(argb, palette.size());
+			palette.add(argb);
+		}
+		return argb;
+	}
+
+	// fails unless the line has the given number of words
+	private void expect(String[] words, int count) throws IOException {
+		if (words.length != count) {
+			throw mistake(words[0] + " takes " + (count - 1) + " values");
+		}
+	}
+
+	// parses a whole number
+	private int number(String word) throws IOException {
+		try {
+			return Integer.parseInt(word);
+		} catch (NumberFormatException e) {
+			throw mistake("expected a number, not " + word);
+		}
+	}
+
+	// parses a number greater than zero
+	private int positive(String word) throws IOException {
+		int value = number(word);
+		if (value < 1) {
+			throw mistake("expected a positive number, not " + word);
+		}
+		return value;
+	}
+
+	// parses a color channel
+	private int channel(String word) throws IOException {
+		int value = number(word);
+		if (value < 0 || value > 255) {
+			throw mistake("color values must be from 0 to 255");
+		}
+		return value;
+	}
+
+	// an exception pointing at the line being read
+	private IOException mistake(String message) {
+		return new IOException(text + ":" + lineNumber + ": " + message);
+	}
+
+	/**
+	 * Converts a text layout into a level file
+	 *
+	 * @param args
+	 *            the text layout, then the level file to write
+	 * @throws IOException
+	 *             if a file can't be read or written, or the text has a
+	 *             mistake in it
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("usage: LevelConverter <text> <level>");
+			System.exit(2);
+		}
+		LevelConverter.convert(new File(args[0]), new File(args[1]));
+	}
+}
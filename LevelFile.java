@@ -0,0 +1,300 @@
+import java.awt.*;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A brick layout stored in a binary file, split into square regions so a
+ * level of millions of bricks can be laid out a region at a time as play
+ * reaches it. The file is memory-mapped, and opening it reads only the
+ * header and the region directory; a region's bricks are not touched until
+ * it is loaded.
+ *
+ * The file holds a header (magic number, format version, arena size, region
+ * size, regions across and down, largest brick size, brick count, palette
+ * size), the palette as ARGB ints, a directory giving each region's file
+ * offset and brick count, row major, and then each region's bricks. A brick
+ * takes 17 bytes: x, y, width and height, points, and a palette index.
+ *
+ * Every brick has a fixed id, its position in the file, so ids don't depend
+ * on the order regions are loaded in. Levels are written by LevelConverter.
+ * Opening checks the header and directory; a region's bricks are checked as
+ * it is loaded.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class LevelFile implements Closeable {
+
+	// identifies the file format
+	static final int MAGIC = 0x42424c76;
+	static final int VERSION = 1;
+
+	// bytes of the header before the palette, of a directory entry,
+	// and of a brick
+	static final int HEADER = 40;
+	static final int ENTRY = 12;
+	static final int BRICK = 17;
+
+	// the file, the open channel and its mapping
+	private final File file;
+	private FileChannel channel;
+	private MappedByteBuffer map;
+
+	// arena size, and the regions it is split into
+	private final int width, height;
+	private final int regionSize;
+	private final int regionsX, regionsY;
+
+	// largest brick width or height in the level
+	private final int maxBrickSize;
+
+	// total bricks, and the first id of each region
+	private final int brickCount;
+	private final int[] firstIds;
+
+	// colors the palette indexes refer to
+	private final Color[] palette;
+
+	// where the directory starts in the file
+	private final int directory;
+
+	/**
+	 * Opens a level file
+	 *
+	 * @param file
+	 *            the level file
+	 * @throws IOException
+	 *             if the file can't be read or is not a level file
+	 */
+	public LevelFile(File file) throws IOException {
+		this.file = file;
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is too large to map");
+			}
+			map = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+					channel.size());
+			if (map.limit() < HEADER || map.getInt(0) != MAGIC) {
+				throw new IOException(file + " is not a level file");
+			}
+			if (map.getInt(4) != VERSION) {
+				throw new IOException(file + " has unknown level version "
+						+ map.getInt(4));
+			}
+			width = map.getInt(8);
+			height = map.getInt(12);
+			regionSize = map.getInt(16);
+			regionsX = map.getInt(20);
+			regionsY = map.getInt(24);
+			maxBrickSize = map.getInt(28);
+			brickCount = map.getInt(32);
+			int colors = map.getInt(36);
+			if (width < 1 || height < 1 || regionSize < 1 || regionsX < 1
+					|| regionsY < 1 || brickCount < 0 || colors < 0
+					|| colors > 256 || HEADER + 4L * colors + (long) ENTRY
+							* regionsX * regionsY > map.limit()) {
+				throw new IOException(file + " is damaged");
+			}
+
+			palette = new Color[colors];
+			for (int i = 0; i < colors; i++) {
+				palette[i] = new Color(map.getInt(HEADER + 4 * i), true);
+			}
+			directory = HEADER + 4 * colors;
+
+			// number the bricks region by region, checking each region
+			// lies inside the file
+			firstIds = new int[regionsX * regionsY];
+			long next = 0;
+			for (int r = 0; r < firstIds.length; r++) {
+				long offset = getOffset(r);
+				int count = getRegionBrickCount(r);
+				if (count < 0 || offset < directory
+						|| offset + (long) count * BRICK > map.limit()
+						|| next + count > Integer.MAX_VALUE) {
+					throw new IOException(file + " is damaged");
+				}
+				firstIds[r] = (int) next;
+				next += count;
+			}
+			if (next != brickCount) {
+				throw new IOException(file + " is damaged");
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Retrieves the width of the arena
+	 *
+	 * @return width in pixels
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Retrieves the height of the arena
+	 *
+	 * @return height in pixels
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Retrieves the width and height of a region
+	 *
+	 * @return region size in pixels
+	 */
+	public int getRegionSize() {
+		return regionSize;
+	}
+
+	/**
+	 * Retrieves the number of regions across the arena
+	 *
+	 * @return region columns
+	 */
+	public int getRegionsX() {
+		return regionsX;
+	}
+
+	/**
+	 * Retrieves the number of regions down the arena
+	 *
+	 * @return region rows
+	 */
+	public int getRegionsY() {
+		return regionsY;
+	}
+
+	/**
+	 * Retrieves the largest brick width or height in the level. A brick is
+	 * filed under the region holding its upper left corner, so it can reach
+	 * this far into the regions right of and below it
+	 *
+	 * @return largest brick size in pixels
+	 */
+	public int getMaxBrickSize() {
+		return maxBrickSize;
+	}
+
+	/**
+	 * Retrieves the number of bricks in the level
+	 *
+	 * @return brick count, which is also one more than the highest id
+	 */
+	public int getBrickCount() {
+		return brickCount;
+	}
+
+	/**
+	 * Retrieves the number of bricks in a region
+	 *
+	 * @param region
+	 *            the region, row major
+	 * @return brick count
+	 */
+	public int getRegionBrickCount(int region) {
+		return map.getInt(directory + ENTRY * region + 8);
+	}
+
+	/**
+	 * Retrieves the id of a region's first brick. The region's bricks have
+	 * the ids following it
+	 *
+	 * @param region
+	 *            the region, row major
+	 * @return id of the first brick
+	 */
+	public int getRegionFirstId(int region) {
+		return firstIds[region];
+	}
+
+	/**
+	 * Lays out the bricks of a region
+	 *
+	 * @param region
+	 *            the region, row major
+	 * @param store
+	 *            the store to put the bricks in, with at least
+	 *            getBrickCount() ids reserved
+	 * @param grid
+	 *            the grid to file the bricks in
+	 * @return number of bricks laid out
+	 * @throws IOException
+	 *             if a brick of the region lies outside it, is larger than
+	 *             getMaxBrickSize(), or has a color not in the palette, in
+	 *             which case none of its bricks are laid out
+	 */
+	public int loadRegion(int region, BrickStore store, BrickGrid grid)
+			throws IOException {
+		checkOpen();
+		int count = getRegionBrickCount(region);
+		int at = (int) getOffset(region);
+		checkRegion(region, at, count);
+		int id = firstIds[region];
+		for (int i = 0; i < count; i++, at += BRICK, id++) {
+			store.set(id, map.getInt(at), map.getInt(at + 4),
+					map.getShort(at + 8) & 0xffff,
+					map.getShort(at + 10) & 0xffff, map.getInt(at + 12),
+					palette[map.get(at + 16) & 0xff]);
+			grid.add(store, id);
+		}
+		return count;
+	}
+
+	/**
+	 * Closes the file. Regions can't be loaded afterwards
+	 *
+	 * @throws IOException
+	 *             if the file can't be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+
+	// file offset of a region's bricks
+	private long getOffset(int region) {
+		return map.getLong(directory + ENTRY * region);
+	}
+
+	// fails unless every brick of a region lies in the region, is no
+	// larger than the level says, and has a color in the palette
+	private void checkRegion(int region, int at, int count)
+			throws IOException {
+		long left = (long) (region % regionsX) * regionSize;
+		long top = (long) (region / regionsX) * regionSize;
+		for (int i = 0; i < count; i++, at += BRICK) {
+			int x = map.getInt(at);
+			int y = map.getInt(at + 4);
+			int sizeX = map.getShort(at + 8) & 0xffff;
+			int sizeY = map.getShort(at + 10) & 0xffff;
+			if (x < left || x >= left + regionSize || x >= width || y < top
+					|| y >= top + regionSize || y >= height || sizeX < 1
+					|| sizeY < 1 || sizeX > maxBrickSize
+					|| sizeY > maxBrickSize
+					|| (map.get(at + 16) & 0xff) >= palette.length) {
+				throw new IOException(file + " is damaged in region "
+						+ region);
+			}
+		}
+	}
+
+	// fails if the file has been closed
+	private void checkOpen() {
+		if (channel == null) {
+			throw new IllegalStateException("level file is closed");
+		}
+	}
+}
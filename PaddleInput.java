@@ -0,0 +1,27 @@
+/**
+ * Source of paddle input for a HeadlessEngine. Called once per tick, before
+ * the model moves, in place of the keyboard.
+ * 
+ * @author Brian Lorton
+ *
+ */
+public interface PaddleInput {
+
+	// input flags, combined with bitwise or
+	public static final int LEFT = 1;
+	public static final int RIGHT = 2;
+	public static final int LAUNCH = 4;
+
+	/**
+	 * Decides the input for the coming tick
+	 * 
+	 * @param tick
+	 *            number of ticks the engine has run so far
+	 * @param model
+	 *            the model about to be moved, for inputs that react to the
+	 *            game state
+	 * @return LEFT and RIGHT for the arrows held this tick, plus LAUNCH to
+	 *         press space
+	 */
+	public int nextInput(long tick, BrickYardModel model);
+}
@@ -5,6 +5,9 @@ public abstract class PlaceableObject {
 	// location of upper left corner
 	private int x, y;
 
+	// location at the start of the current tick, for interpolating
+	private int prevX, prevY;
+
 	// size
 	private int sizeX, sizeY;
 
@@ -29,6 +32,60 @@ public abstract class PlaceableObject {
 		return this.y;
 	}
 
+	/**
+	 * Retrieves the X component of the location at the start of the
+	 * current tick
+	 * 
+	 * @return the previous X value
+	 */
+	public int getPrevX() {
+		return this.prevX;
+	}
+
+	/**
+	 * Retrieves the Y component of the location at the start of the
+	 * current tick
+	 * 
+	 * @return the previous Y value
+	 */
+	public int getPrevY() {
+		return this.prevY;
+	}
+
+	/**
+	 * Remembers the current location as the previous one. Called at the
+	 * start of each tick, and after jumping the object somewhere it should
+	 * not be drawn sliding to
+	 */
+	public void savePosition() {
+		this.prevX = this.x;
+		this.prevY = this.y;
+	}
+
+	/**
+	 * Retrieves the X component of the location, interpolated between the
+	 * previous and current location
+	 * 
+	 * @param alpha
+	 *            0 for the previous location, 1 for the current one
+	 * @return the interpolated X value, rounded to the nearest pixel
+	 */
+	public int getX(double alpha) {
+		return (int) Math.round(this.prevX + (this.x - this.prevX) * alpha);
+	}
+
+	/**
+	 * Retrieves the Y component of the location, interpolated between the
+	 * previous and current location
+	 * 
+	 * @param alpha
+	 *            0 for the previous location, 1 for the current one
+	 * @return the interpolated Y value, rounded to the nearest pixel
+	 */
+	public int getY(double alpha) {
+		return (int) Math.round(this.prevY + (this.y - this.prevY) * alpha);
+	}
+
 	/**
 	 * Sets the X component of the location
 	 * 
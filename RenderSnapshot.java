@@ -0,0 +1,458 @@
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Everything needed to draw one frame, held in preallocated primitive arrays
+ * that a BrickYardModel fills in place. Snapshots are reused frame after
+ * frame, so taking and drawing one allocates nothing once the arrays have
+ * grown to fit.
+ *
+ * Bricks are not copied every frame. A snapshot carries the model's layout
+ * version, the brick store and grid of that layout, the areas bricks were
+ * laid out in since the layout version the view last drew, and a stretch of
+ * the model's removed brick log, which is all a cached brick layer needs to
+ * stay current. The model never changes a layout's bricks once laid out other
+ * than knocking them out, so they can be read from the drawing thread.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class RenderSnapshot {
+
+	// balls: position at the start and end of the last tick, and size
+	private int ballCount;
+	private int[] ballX, ballY, ballPrevX, ballPrevY, ballSizeX, ballSizeY;
+	private Color ballColor;
+
+	// shield: position at the start and end of the last tick, and size
+	private int shieldX, shieldY, shieldPrevX, shieldPrevY;
+	private int shieldSizeX, shieldSizeY;
+	private Color shieldColor;
+
+	// HUD values
+	private int score, ballsRemaining;
+
+	// size of the arena
+	private int arenaX, arenaY;
+
+	// brick layout version and its bricks
+	private int layoutVersion;
+	private BrickStore bricks;
+	private BrickGrid grid;
+
+	// areas bricks were laid out in, one per layout version up to
+	// layoutVersion, as x, y, width and height four ints at a time
+	private int laidOutCount;
+	private int[] laidOut;
+
+	// ids of bricks knocked out, copied from the model's removed brick
+	// log starting at position removedStart
+	private int removedStart;
+	private int removedCount;
+	private int[] removed;
+
+	// where between the last two ticks the frame is drawn
+	private double alpha = 1;
+
+	/**
+	 * Constructs an empty RenderSnapshot
+	 */
+	public RenderSnapshot() {
+		ballX = new int[1];
+		ballY = new int[1];
+		ballPrevX = new int[1];
+		ballPrevY = new int[1];
+		ballSizeX = new int[1];
+		ballSizeY = new int[1];
+		laidOut = new int[16];
+		removed = new int[16];
+	}
+
+	/**
+	 * Sets the number of balls, growing the ball arrays if needed
+	 *
+	 * @param count
+	 *            number of balls in play
+	 */
+	public void setBallCount(int count) {
+		if (count > ballX.length) {
+			int size = Math.max(count, ballX.length * 2);
+			ballX = Arrays.copyOf(ballX, size);
+			ballY = Arrays.copyOf(ballY, size);
+			ballPrevX = Arrays.copyOf(ballPrevX, size);
+			ballPrevY = Arrays.copyOf(ballPrevY, size);
+			ballSizeX = Arrays.copyOf(ballSizeX, size);
+			ballSizeY = Arrays.copyOf(ballSizeY, size);
+		}
+		ballCount = count;
+	}
+
+	/**
+	 * Records a ball
+	 *
+	 * @param index
+	 *            which ball, below the ball count
+	 * @param ball
+	 *            the ball to copy
+	 */
+	public void setBall(int index, Ball ball) {
+		ballX[index] = ball.getX();
+		ballY[index] = ball.getY();
+		ballPrevX[index] = ball.getPrevX();
+		ballPrevY[index] = ball.getPrevY();
+		ballSizeX[index] = ball.getSizeX();
+		ballSizeY[index] = ball.getSizeY();
+		ballColor = ball.getColor();
+	}
+
+	/**
+	 * Records the shield
+	 *
+	 * @param shield
+	 *            the shield to copy
+	 */
+	public void setShield(Shield shield) {
+		shieldX = shield.getX();
+		shieldY = shield.getY();
+		shieldPrevX = shield.getPrevX();
+		shieldPrevY = shield.getPrevY();
+		shieldSizeX = shield.getSizeX();
+		shieldSizeY = shield.getSizeY();
+		shieldColor = shield.getColor();
+	}
+
+	/**
+	 * Records the HUD values
+	 *
+	 * @param score
+	 *            current score
+	 * @param ballsRemaining
+	 *            balls in reserve
+	 */
+	public void setHud(int score, int ballsRemaining) {
+		this.score = score;
+		this.ballsRemaining = ballsRemaining;
+	}
+
+	/**
+	 * Records the size of the arena
+	 *
+	 * @param width
+	 *            arena width
+	 * @param height
+	 *            arena height
+	 */
+	public void setArena(int width, int height) {
+		this.arenaX = width;
+		this.arenaY = height;
+	}
+
+	/**
+	 * Records the brick layout and clears the laid out areas and the
+	 * removed brick list
+	 *
+	 * @param layoutVersion
+	 *            the model's layout version
+	 * @param bricks
+	 *            the bricks of the layout
+	 * @param grid
+	 *            spatial index over the bricks
+	 * @param removedStart
+	 *            position in the model's removed brick log the removed
+	 *            bricks added next start from
+	 */
+	public void setBricks(int layoutVersion, BrickStore bricks,
+			BrickGrid grid, int removedStart) {
+		this.layoutVersion = layoutVersion;
+		this.bricks = bricks;
+		this.grid = grid;
+		this.removedStart = removedStart;
+		laidOutCount = 0;
+		removedCount = 0;
+	}
+
+	/**
+	 * Adds the area of the arena the bricks of the next layout version were
+	 * laid out in. Areas are added oldest first, the last one being that of
+	 * the snapshot's layout version
+	 *
+	 * @param x
+	 *            x of the upper left corner
+	 * @param y
+	 *            y of the upper left corner
+	 * @param width
+	 *            width in pixels
+	 * @param height
+	 *            height in pixels
+	 */
+	public void addLaidOut(int x, int y, int width, int height) {
+		if (4 * laidOutCount + 4 > laidOut.length) {
+			laidOut = Arrays.copyOf(laidOut, laidOut.length * 2);
+		}
+		laidOut[4 * laidOutCount] = x;
+		laidOut[4 * laidOutCount + 1] = y;
+		laidOut[4 * laidOutCount + 2] = width;
+		laidOut[4 * laidOutCount + 3] = height;
+		laidOutCount++;
+	}
+
+	/**
+	 * Adds the next entry of the model's removed brick log
+	 *
+	 * @param id
+	 *            the brick knocked out
+	 */
+	public void addRemoved(int id) {
+		if (removedCount == removed.length) {
+			removed = Arrays.copyOf(removed, removedCount * 2);
+		}
+		removed[removedCount++] = id;
+	}
+
+	/**
+	 * Sets where between the last two ticks the frame is drawn
+	 *
+	 * @param alpha
+	 *            0 for the start of the last tick, 1 for its end
+	 */
+	public void setAlpha(double alpha) {
+		this.alpha = alpha;
+	}
+
+	/**
+	 * Retrieves the number of balls
+	 *
+	 * @return ball count
+	 */
+	public int getBallCount() {
+		return ballCount;
+	}
+
+	/**
+	 * Retrieves a ball's X, interpolated by alpha
+	 *
+	 * @param index
+	 *            which ball
+	 * @return x of the ball's upper left corner to draw at
+	 */
+	public int getBallX(int index) {
+		return lerp(ballPrevX[index], ballX[index]);
+	}
+
+	/**
+	 * Retrieves a ball's Y, interpolated by alpha
+	 *
+	 * @param index
+	 *            which ball
+	 * @return y of the ball's upper left corner to draw at
+	 */
+	public int getBallY(int index) {
+		return lerp(ballPrevY[index], ballY[index]);
+	}
+
+	/**
+	 * Retrieves a ball's width
+	 *
+	 * @param index
+	 *            which ball
+	 * @return width in pixels
+	 */
+	public int getBallSizeX(int index) {
+		return ballSizeX[index];
+	}
+
+	/**
+	 * Retrieves a ball's height
+	 *
+	 * @param index
+	 *            which ball
+	 * @return height in pixels
+	 */
+	public int getBallSizeY(int index) {
+		return ballSizeY[index];
+	}
+
+	/**
+	 * Retrieves the color balls are drawn in
+	 *
+	 * @return ball color
+	 */
+	public Color getBallColor() {
+		return ballColor;
+	}
+
+	/**
+	 * Retrieves the shield's X, interpolated by alpha
+	 *
+	 * @return x of the shield's upper left corner to draw at
+	 */
+	public int getShieldX() {
+		return lerp(shieldPrevX, shieldX);
+	}
+
+	/**
+	 * Retrieves the shield's Y, interpolated by alpha
+	 *
+	 * @return y of the shield's upper left corner to draw at
+	 */
+	public int getShieldY() {
+		return lerp(shieldPrevY, shieldY);
+	}
+
+	/**
+	 * Retrieves the shield's width
+	 *
+	 * @return width in pixels
+	 */
+	public int getShieldSizeX() {
+		return shieldSizeX;
+	}
+
+	/**
+	 * Retrieves the shield's height
+	 *
+	 * @return height in pixels
+	 */
+	public int getShieldSizeY() {
+		return shieldSizeY;
+	}
+
+	/**
+	 * Retrieves the color the shield is drawn in
+	 *
+	 * @return shield color
+	 */
+	public Color getShieldColor() {
+		return shieldColor;
+	}
+
+	/**
+	 * Retrieves the score
+	 *
+	 * @return the score
+	 */
+	public int getScore() {
+		return score;
+	}
+
+	/**
+	 * Retrieves the balls remaining
+	 *
+	 * @return balls in reserve
+	 */
+	public int getBallsRemaining() {
+		return ballsRemaining;
+	}
+
+	/**
+	 * Retrieves the width of the arena
+	 *
+	 * @return arena width in pixels
+	 */
+	public int getArenaWidth() {
+		return arenaX;
+	}
+
+	/**
+	 * Retrieves the height of the arena
+	 *
+	 * @return arena height in pixels
+	 */
+	public int getArenaHeight() {
+		return arenaY;
+	}
+
+	/**
+	 * Retrieves the brick layout version
+	 *
+	 * @return the model's layout version when the snapshot was taken
+	 */
+	public int getLayoutVersion() {
+		return layoutVersion;
+	}
+
+	/**
+	 * Retrieves the bricks of the layout
+	 *
+	 * @return the brick store, for reading only
+	 */
+	public BrickStore getBrickStore() {
+		return bricks;
+	}
+
+	/**
+	 * Collects the ids of the standing bricks touching a rectangle
+	 *
+	 * @param x1
+	 *            left edge of the rectangle
+	 * @param y1
+	 *            top edge of the rectangle
+	 * @param x2
+	 *            right edge of the rectangle
+	 * @param y2
+	 *            bottom edge of the rectangle
+	 * @param found
+	 *            list the ids are added to; it is cleared first
+	 */
+	public void findBricks(int x1, int y1, int x2, int y2, IntList found) {
+		grid.query(bricks, x1, y1, x2, y2, found);
+	}
+
+	/**
+	 * Retrieves the number of laid out areas carried. They are those of the
+	 * layout versions just after getLayoutVersion() - getLaidOutCount(), so
+	 * a view that drew that version or a later one can patch the rest in
+	 *
+	 * @return laid out area count
+	 */
+	public int getLaidOutCount() {
+		return laidOutCount;
+	}
+
+	/**
+	 * Retrieves part of a laid out area
+	 *
+	 * @param index
+	 *            position in the x, y, width and height of each area, four
+	 *            ints at a time, below 4 * getLaidOutCount()
+	 * @return the x, y, width or height, in arena pixels
+	 */
+	public int getLaidOut(int index) {
+		return laidOut[index];
+	}
+
+	/**
+	 * Retrieves the position in the model's removed brick log of the first
+	 * removed brick carried
+	 *
+	 * @return log position of getRemoved(0)
+	 */
+	public int getRemovedStart() {
+		return removedStart;
+	}
+
+	/**
+	 * Retrieves the number of removed bricks carried
+	 *
+	 * @return removed brick count
+	 */
+	public int getRemovedCount() {
+		return removedCount;
+	}
+
+	/**
+	 * Retrieves a removed brick
+	 *
+	 * @param index
+	 *            position in the list, below getRemovedCount()
+	 * @return id of the brick
+	 */
+	public int getRemoved(int index) {
+		return removed[index];
+	}
+
+	// interpolates between the start and end of the last tick
+	private int lerp(int from, int to) {
+		return (int) Math.round(from + (to - from) * alpha);
+	}
+}
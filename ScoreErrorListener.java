@@ -0,0 +1,19 @@
+/**
+ * Receives notice from a ScoreWriter that scores could not be saved
+ * 
+ * @author Brian Lorton
+ *
+ */
+public interface ScoreErrorListener {
+
+	/**
+	 * Called on the writer's thread when scores could not be written, or
+	 * could not be forced out to the storage device
+	 * 
+	 * @param scores
+	 *            number of scores that may not have been saved
+	 * @param cause
+	 *            what went wrong
+	 */
+	public void scoreWriteFailed(int scores, Exception cause);
+}
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Saves scores to a HighScoreStore on a background thread, so the thread
+ * running the game never waits on the disk. Scores submitted are queued;
+ * the writer thread takes everything queued at once, records the batch, and
+ * forces it out to the storage device as often as the sync policy asks.
+ * Opening the store, which may migrate a large legacy file, happens on the
+ * writer thread too.
+ *
+ * Everything queued is written when the writer is closed, and the writer
+ * closes itself when the JVM shuts down, including through System.exit.
+ * Failures are passed to a ScoreErrorListener rather than thrown at the
+ * game.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class ScoreWriter implements Closeable {
+
+	/**
+	 * How often recorded scores are forced out to the storage device
+	 */
+	public enum SyncPolicy {
+
+		/** after every batch of scores is recorded */
+		EVERY_BATCH,
+
+		/** only when the writer is closed */
+		ON_CLOSE,
+
+		/** never; the operating system writes them back in its own time */
+		NEVER
+	}
+
+	private static final Logger LOG = Logger.getLogger(ScoreWriter.class
+			.getName());
+
+	// where the scores go, and the old text file to migrate
+	private final File file, legacy;
+	private final int capacity;
+
+	// how often to force scores out
+	private final SyncPolicy policy;
+
+	// told about failures
+	private final ScoreErrorListener errors;
+
+	// guards everything below
+	private final Object lock = new Object();
+
+	// scores waiting for the writer thread, and the batch it is writing
+	private IntList queued, batch;
+
+	// scores submitted, and scores the writer thread is done with
+	private long submitted, written;
+
+	// whether the writer thread has tried to open the store yet
+	private boolean opened;
+
+	// set once close has been asked for
+	private boolean closing;
+
+	// the store, once open; null if it could not be opened
+	private HighScoreStore store;
+
+	// the writer thread, and the hook that closes the writer at shutdown
+	private Thread thread;
+	private Thread shutdownHook;
+
+	/**
+	 * Constructs a ScoreWriter and starts its thread
+	 *
+	 * @param file
+	 *            the binary high score file
+	 * @param legacy
+	 *            the old text file of one score per line, or null
+	 * @param capacity
+	 *            number of top scores to keep
+	 * @param policy
+	 *            how often to force scores out to the storage device
+	 * @param errors
+	 *            told about failures, or null to log them
+	 */
+	public ScoreWriter(File file, File legacy, int capacity,
+			SyncPolicy policy, ScoreErrorListener errors) {
+		this.file = file;
+		this.legacy = legacy;
+		this.capacity = capacity;
+		this.policy = policy;
+		this.errors = errors != null ? errors : new ScoreErrorListener() {
+			@Override
+			public void scoreWriteFailed(int scores, Exception cause) {
+				String problem = scores > 0 ? "Could not save " + scores
+						+ " score(s) to " : "Could not use high score file ";
+				LOG.log(Level.WARNING, problem + ScoreWriter.this.file, cause);
+			}
+		};
+		queued = new IntList();
+		batch = new IntList();
+
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "score-writer");
+		thread.setDaemon(true);
+		thread.start();
+
+		shutdownHook = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				close();
+			}
+		}, "score-writer-shutdown");
+		Runtime.getRuntime().addShutdownHook(shutdownHook);
+	}
+
+	/**
+	 * Queues a score to be recorded. Never waits on the disk
+	 *
+	 * @param score
+	 *            the score to record
+	 * @throws IllegalStateException
+	 *             if the writer has been closed
+	 */
+	public void submit(int score) {
+		synchronized (lock) {
+			if (closing) {
+				throw new IllegalStateException("score writer is closed");
+			}
+			queued.add(score);
+			submitted++;
+			lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Copies the best scores, highest first, into an array, once every
+	 * score submitted so far has been recorded
+	 *
+	 * @param into
+	 *            array to fill; as many scores as fit are copied
+	 * @return number of scores copied; 0 if the store could not be opened
+	 */
+	public int getTopScores(int[] into) {
+		HighScoreStore current;
+		synchronized (lock) {
+			long target = submitted;
+			boolean interrupted = false;
+			while ((!opened || written < target) && thread.isAlive()) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			current = store;
+		}
+		return current == null ? 0 : current.getTopScores(into);
+	}
+
+	/**
+	 * Writes everything queued, forces it out unless the policy is NEVER,
+	 * and stops the writer thread. Safe to call more than once
+	 */
+	@Override
+	public void close() {
+		synchronized (lock) {
+			closing = true;
+			lock.notifyAll();
+		}
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		// the hook can't be removed once shutdown has begun
+		if (Thread.currentThread() != shutdownHook) {
+			try {
+				Runtime.getRuntime().removeShutdownHook(shutdownHook);
+			} catch (IllegalStateException e) {
+				// already shutting down
+			}
+		}
+	}
+
+	// takes batches of scores off the queue until closed
+	private void writeLoop() {
+		open();
+		while (true) {
+			boolean last;
+			synchronized (lock) {
+				while (queued.size() == 0 && !closing) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						closing = true;
+					}
+				}
+				IntList taken = queued;
+				queued = batch;
+				batch = taken;
+				last = closing;
+			}
+
+			write(batch, last);
+
+			synchronized (lock) {
+				written += batch.size();
+				batch.clear();
+				lock.notifyAll();
+			}
+			if (last) {
+				break;
+			}
+		}
+		try {
+			if (store != null) {
+				store.close();
+			}
+		} catch (IOException e) {
+			errors.scoreWriteFailed(0, e);
+		}
+	}
+
+	// opens the store, migrating the legacy file if needed
+	private void open() {
+		HighScoreStore opening = null;
+		try {
+			opening = new HighScoreStore(file, legacy, capacity);
+		} catch (IOException e) {
+			errors.scoreWriteFailed(0, e);
+		}
+		synchronized (lock) {
+			store = opening;
+			opened = true;
+			lock.notifyAll();
+		}
+	}
+
+	// records a batch of scores and forces them out as the policy asks
+	private void write(IntList scores, boolean last) {
+		if (store == null) {
+			if (scores.size() > 0) {
+				errors.scoreWriteFailed(scores.size(), new IOException(
+						"high score file " + file + " is not open"));
+			}
+			return;
+		}
+		for (int i = 0; i < scores.size(); i++) {
+			store.add(scores.get(i));
+		}
+		boolean sync = policy == SyncPolicy.EVERY_BATCH && scores.size() > 0
+				|| policy != SyncPolicy.NEVER && last;
+		if (sync) {
+			try {
+				store.flush();
+			} catch (RuntimeException e) {
+				// force reports I/O errors unchecked
+				errors.scoreWriteFailed(scores.size(), e);
+			}
+		}
+	}
+}
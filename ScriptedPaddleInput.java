@@ -0,0 +1,92 @@
+import java.util.Arrays;
+
+/**
+ * PaddleInput that plays back a fixed script. Each entry sets which arrows
+ * are held from its tick onward; LAUNCH in an entry presses space on that
+ * tick only.
+ * 
+ * @author Brian Lorton
+ *
+ */
+public class ScriptedPaddleInput implements PaddleInput {
+
+	// ticks at which the input changes, in increasing order
+	private long[] ticks;
+
+	// input flags taking effect at the matching tick
+	private int[] flags;
+
+	// number of entries in the script
+	private int size;
+
+	// index of the next entry to take effect, and the arrows held now
+	private int cursor;
+	private int held;
+
+	/**
+	 * Constructs an empty script, which holds no keys
+	 */
+	public ScriptedPaddleInput() {
+		ticks = new long[16];
+		flags = new int[16];
+	}
+
+	/**
+	 * Adds an entry to the end of the script
+	 * 
+	 * @param tick
+	 *            tick the input takes effect; must not be before the last
+	 *            entry added
+	 * @param input
+	 *            combination of LEFT, RIGHT and LAUNCH
+	 */
+	public void add(long tick, int input) {
+		if (size > 0 && tick < ticks[size - 1]) {
+			throw new IllegalArgumentException("script entry for tick " + tick
+					+ " comes after tick " + ticks[size - 1]);
+		}
+		if (size == ticks.length) {
+			ticks = Arrays.copyOf(ticks, size * 2);
+			flags = Arrays.copyOf(flags, size * 2);
+		}
+		ticks[size] = tick;
+		flags[size] = input;
+		size++;
+	}
+
+	/**
+	 * Retrieves the tick of the next script entry at or after the given
+	 * tick, so callers can tell how long the current input will be held
+	 * 
+	 * @param tick
+	 *            the tick to search from
+	 * @return tick of the next change, or Long.MAX_VALUE if the script has no
+	 *         more entries
+	 */
+	public long nextChange(long tick) {
+		for (int i = cursor; i < size; i++) {
+			if (ticks[i] >= tick) {
+				return ticks[i];
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int nextInput(long tick, BrickYardModel model) {
+		if (cursor > 0 && tick < ticks[cursor - 1]) {
+			// replaying from an earlier tick, start the script over
+			cursor = 0;
+			held = 0;
+		}
+		int launch = 0;
+		while (cursor < size && ticks[cursor] <= tick) {
+			held = flags[cursor] & (LEFT | RIGHT);
+			if (ticks[cursor] == tick) {
+				launch |= flags[cursor] & LAUNCH;
+			}
+			cursor++;
+		}
+		return held | launch;
+	}
+}
@@ -0,0 +1,70 @@
+import java.util.Random;
+
+/**
+ * PaddleInput that plays the game itself, for running games without a
+ * player. It follows the first ball, aiming to meet it at a spot along the
+ * shield picked at random each time the ball heads down, and serves as soon
+ * as the ball is waiting. Some spots are just off the shield's ends, so it
+ * loses balls now and then.
+ *
+ * The spots come from a Random with the given seed, so the same seed always
+ * plays the same game.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class SeededPaddleInput implements PaddleInput {
+
+	// how close the shield must be to its target to stop
+	private static final int DEAD_ZONE = 2;
+
+	// seed the spots are drawn from
+	private final long seed;
+	private final Random random;
+
+	// where along the shield the ball is aimed for, from its left edge
+	private int aim;
+
+	// whether the ball was heading down last tick
+	private boolean falling;
+
+	/**
+	 * Constructs a SeededPaddleInput
+	 *
+	 * @param seed
+	 *            seed for the spots along the shield aimed for
+	 */
+	public SeededPaddleInput(long seed) {
+		this.seed = seed;
+		random = new Random(seed);
+	}
+
+	@Override
+	public int nextInput(long tick, BrickYardModel model) {
+		if (tick == 0) {
+			// a new game, play it the same way again
+			random.setSeed(seed);
+			falling = false;
+		}
+		Ball ball = model.getBall();
+		Shield shield = model.getShield();
+		if (ball.getVX() == 0 && ball.getVY() == 0) {
+			return LAUNCH;
+		}
+
+		if (ball.getVY() > 0 && !falling) {
+			aim = random.nextInt(shield.getSizeX() + ball.getSizeX())
+					- ball.getSizeX() / 2;
+		}
+		falling = ball.getVY() > 0;
+
+		int target = ball.getX() + ball.getSizeX() / 2 - aim;
+		if (target < shield.getX() - DEAD_ZONE) {
+			return LEFT;
+		}
+		if (target > shield.getX() + DEAD_ZONE) {
+			return RIGHT;
+		}
+		return 0;
+	}
+}
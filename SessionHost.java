@@ -0,0 +1,629 @@
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs many headless games at once in real time, e.g. for kiosks, bots and
+ * spectators, without a thread or timer per game. Each session is a
+ * BrickYardModel driven by a PaddleInput at its own tick rate.
+ *
+ * One thread turns a hashed timing wheel of one millisecond slots. A
+ * session waits in the slot its next tick falls in, and when the wheel
+ * reaches it, it is handed to a small pool of workers, which run the tick
+ * and put the session back in the wheel for the one after. A session is in
+ * the wheel or with the workers, never both, so its model is only ever
+ * touched by one thread at a time. The wheel allocates nothing: sessions
+ * link themselves into its slots, and come back to it through a lock-free
+ * stack.
+ *
+ * Every tick's scheduling lag, how long after it was due it started, is
+ * measured, per session and across the host. The host sheds load in two
+ * ways. A session that falls more than the allowed lag behind skips the
+ * ticks it is late for, so its game slows rather than every game falling
+ * further behind. And while the mean lag is over half the allowed lag, or
+ * the host is full, new sessions are turned away.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class SessionHost implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(SessionHost.class
+			.getName());
+
+	// length of a wheel slot, and number of slots, a power of two
+	private static final long SLOT_NANOS = 1000000L;
+	private static final int SLOTS = 512;
+
+	// how often the mean lag is checked for overload
+	private static final long WINDOW_NANOS = 100000000L;
+
+	// defaults: tick length, as the game's own loop, and allowed lag
+	private static final long DEFAULT_STEP_NANOS = 13000000L;
+	private static final long DEFAULT_MAX_LAG_NANOS = 100000000L;
+
+	// defaults for running from the command line
+	private static final int DEFAULT_SESSIONS = 2000;
+	private static final int DEFAULT_SECONDS = 10;
+
+	// most sessions at once, and the most lag before ticks are shed
+	private final int maxSessions;
+	private final long maxLagNanos;
+
+	// the wheel: the first session waiting in each slot, the slot being
+	// turned to, and when the wheel started
+	private final Session[] slots;
+	private long turn;
+	private long origin;
+
+	// sessions to put back in the wheel, linked through nextPending
+	private final AtomicReference<Session> pending;
+
+	// sessions due, waiting for a worker
+	private final ArrayBlockingQueue<Session> due;
+
+	// the wheel's thread and the workers
+	private final Thread wheel;
+	private final Thread[] workers;
+	private volatile boolean running;
+
+	// sessions ever opened, for spreading their ticks over the slots
+	private final AtomicLong opened;
+
+	// sessions open, ticks shed, and sessions turned away
+	private final AtomicInteger active;
+	private final LongAdder shed;
+	private final LongAdder rejected;
+
+	// lag of every tick, and of the ticks in the current window
+	private final LatencyHistogram lag;
+	private final LongAdder windowLag;
+	private final LongAdder windowTicks;
+	private volatile boolean overloaded;
+
+	/**
+	 * Constructs a SessionHost allowing 100 ms of lag before shedding
+	 *
+	 * @param workers
+	 *            number of threads to run ticks on
+	 * @param maxSessions
+	 *            most sessions open at once
+	 */
+	public SessionHost(int workers, int maxSessions) {
+		this(workers, maxSessions, DEFAULT_MAX_LAG_NANOS);
+	}
+
+	/**
+	 * Constructs a SessionHost and starts its threads
+	 *
+	 * @param workers
+	 *            number of threads to run ticks on
+	 * @param maxSessions
+	 *            most sessions open at once
+	 * @param maxLagNanos
+	 *            how late a tick may start before a session skips ticks
+	 */
+	public SessionHost(int workers, int maxSessions, long maxLagNanos) {
+		if (workers < 1 || maxSessions < 1 || maxLagNanos < 1) {
+			throw new IllegalArgumentException("workers, maxSessions and "
+					+ "maxLagNanos must be positive");
+		}
+		this.maxSessions = maxSessions;
+		this.maxLagNanos = maxLagNanos;
+		slots = new Session[SLOTS];
+		pending = new AtomicReference<Session>();
+		due = new ArrayBlockingQueue<Session>(maxSessions);
+		opened = new AtomicLong();
+		active = new AtomicInteger();
+		shed = new LongAdder();
+		rejected = new LongAdder();
+		lag = new LatencyHistogram();
+		windowLag = new LongAdder();
+		windowTicks = new LongAdder();
+
+		running = true;
+		wheel = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				turnWheel();
+			}
+		}, "session-wheel");
+		wheel.setDaemon(true);
+		this.workers = new Thread[workers];
+		for (int i = 0; i < workers; i++) {
+			this.workers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, "session-worker-" + i);
+			this.workers[i].setDaemon(true);
+		}
+		origin = System.nanoTime();
+		wheel.start();
+		for (Thread worker : this.workers) {
+			worker.start();
+		}
+	}
+
+	/**
+	 * Opens a session ticking at the game's usual rate, starting within a
+	 * tick
+	 *
+	 * @param model
+	 *            the game; only touched by the host from now on
+	 * @param input
+	 *            source of the game's paddle input, called on the workers
+	 * @return the session
+	 * @throws RejectedExecutionException
+	 *             if the host is full or overloaded
+	 */
+	public Session open(BrickYardModel model, PaddleInput input) {
+		return open(model, input, DEFAULT_STEP_NANOS);
+	}
+
+	/**
+	 * Opens a session, starting within a tick. Sessions opened together
+	 * start a slot apart, so their ticks are spread over the wheel
+	 *
+	 * @param model
+	 *            the game; only touched by the host from now on
+	 * @param input
+	 *            source of the game's paddle input, called on the workers
+	 * @param stepNanos
+	 *            length of the session's ticks
+	 * @return the session
+	 * @throws RejectedExecutionException
+	 *             if the host is full or overloaded
+	 */
+	public Session open(BrickYardModel model, PaddleInput input,
+			long stepNanos) {
+		if (stepNanos < 1) {
+			throw new IllegalArgumentException("stepNanos must be positive: "
+					+ stepNanos);
+		}
+		if (!running) {
+			throw new IllegalStateException("session host is closed");
+		}
+		if (overloaded) {
+			rejected.increment();
+			throw new RejectedExecutionException("session host is overloaded");
+		}
+		int count;
+		do {
+			count = active.get();
+			if (count >= maxSessions) {
+				rejected.increment();
+				throw new RejectedExecutionException("session host is full");
+			}
+		} while (!active.compareAndSet(count, count + 1));
+
+		long phase = opened.getAndIncrement() * SLOT_NANOS % stepNanos;
+		Session session = new Session(model, input, stepNanos,
+				System.nanoTime() + phase);
+		schedule(session);
+		return session;
+	}
+
+	/**
+	 * Retrieves the number of sessions open
+	 *
+	 * @return sessions still running
+	 */
+	public int getSessionCount() {
+		return active.get();
+	}
+
+	/**
+	 * Checks whether ticks are starting too late on average, in which case
+	 * new sessions are turned away
+	 *
+	 * @return true if the mean lag over the last tenth of a second was over
+	 *         half the allowed lag
+	 */
+	public boolean isOverloaded() {
+		return overloaded;
+	}
+
+	/**
+	 * Retrieves the scheduling lag of every tick run
+	 *
+	 * @return lag percentiles across all sessions
+	 */
+	public LatencySummary getLag() {
+		return LatencySummary.of(lag);
+	}
+
+	/**
+	 * Retrieves the number of ticks skipped by sessions that fell too far
+	 * behind
+	 *
+	 * @return ticks shed across all sessions
+	 */
+	public long getShedTicks() {
+		return shed.sum();
+	}
+
+	/**
+	 * Retrieves the number of sessions turned away
+	 *
+	 * @return sessions refused because the host was full or overloaded
+	 */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Stops the wheel and the workers. Sessions stop where they are
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(wheel);
+		for (Thread worker : workers) {
+			worker.interrupt();
+		}
+		try {
+			wheel.join();
+			for (Thread worker : workers) {
+				worker.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// puts a session back in the wheel, from any thread
+	private void schedule(Session session) {
+		Session head;
+		do {
+			head = pending.get();
+			session.nextPending = head;
+		} while (!pending.compareAndSet(head, session));
+	}
+
+	// turns the wheel a slot a millisecond, handing out the sessions due
+	private void turnWheel() {
+		long nextWindow = origin + WINDOW_NANOS;
+		while (running) {
+			long end = origin + (turn + 1) * SLOT_NANOS;
+			long wait;
+			while (running && (wait = end - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(this, wait);
+			}
+
+			// file the sessions put back since the last turn
+			Session next;
+			for (Session s = pending.getAndSet(null); s != null; s = next) {
+				next = s.nextPending;
+				s.nextPending = null;
+				place(s);
+			}
+
+			// hand out the sessions due by the end of this slot
+			int slot = (int) (turn & (SLOTS - 1));
+			Session previous = null;
+			for (Session s = slots[slot]; s != null; s = next) {
+				next = s.nextInSlot;
+				if (s.rounds > 0 && !s.closed) {
+					s.rounds--;
+					previous = s;
+					continue;
+				}
+				if (previous == null) {
+					slots[slot] = next;
+				} else {
+					previous.nextInSlot = next;
+				}
+				s.nextInSlot = null;
+				if (s.closed) {
+					s.finish();
+				} else {
+					due.add(s);
+				}
+			}
+			turn++;
+
+			// check the mean lag every window
+			if (end - nextWindow >= 0) {
+				long ticks = windowTicks.sumThenReset();
+				long total = windowLag.sumThenReset();
+				overloaded = ticks > 0 && total / ticks > maxLagNanos / 2;
+				nextWindow += WINDOW_NANOS;
+			}
+		}
+	}
+
+	// files a session in the slot its next tick falls in, or the
+	// current one if it is already due
+	private void place(Session session) {
+		long slot = Math.floorDiv(session.deadline - origin + SLOT_NANOS - 1,
+				SLOT_NANOS) - 1;
+		slot = Math.max(turn, slot);
+		session.rounds = (slot - turn) / SLOTS;
+		int at = (int) (slot & (SLOTS - 1));
+		session.nextInSlot = slots[at];
+		slots[at] = session;
+	}
+
+	// runs the ticks of due sessions until the host closes
+	private void work() {
+		while (running) {
+			try {
+				due.take().tick();
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A game run by the host. Its figures can be read from any thread; its
+	 * model should only be read once the session has ended or been closed
+	 */
+	public class Session {
+
+		// the game and what drives it
+		private final BrickYardModel model;
+		private final HeadlessEngine engine;
+
+		// length of a tick, and when the next one is due
+		private final long stepNanos;
+		private long deadline;
+
+		// links in the wheel's slot, and the pending stack, and whole
+		// turns of the wheel still to wait
+		private Session nextInSlot;
+		private Session nextPending;
+		private long rounds;
+
+		// whether a new game is started when one ends
+		private volatile boolean restarting;
+
+		// set on close, and once the host has let the session go
+		private volatile boolean closed;
+		private final AtomicBoolean finished = new AtomicBoolean();
+
+		// figures, each written by one worker at a time
+		private volatile long ticks;
+		private volatile int score;
+		private volatile boolean gameOver;
+		private volatile long lagCount, lagTotal, lagMax, lastLag;
+		private volatile long shedTicks;
+
+		// constructs a session whose first tick is due at the given time
+		private Session(BrickYardModel model, PaddleInput input,
+				long stepNanos, long deadline) {
+			this.model = model;
+			this.engine = new HeadlessEngine(model, input);
+			this.stepNanos = stepNanos;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Sets whether a new game starts when the last ball is lost, as
+		 * for a kiosk; otherwise the session ends with its game
+		 *
+		 * @param restarting
+		 *            true to play on
+		 */
+		public void setRestarting(boolean restarting) {
+			this.restarting = restarting;
+		}
+
+		/**
+		 * Stops the session. It leaves the host within a tick
+		 */
+		public void close() {
+			closed = true;
+		}
+
+		/**
+		 * Checks whether the session has ended, by closing or its game
+		 * ending
+		 *
+		 * @return true once the host has let the session go
+		 */
+		public boolean isFinished() {
+			return finished.get();
+		}
+
+		/**
+		 * Checks whether the session's last game ended
+		 *
+		 * @return true if the session ended with its game
+		 */
+		public boolean isGameOver() {
+			return gameOver;
+		}
+
+		/**
+		 * Retrieves the game. Only read it once the session is finished
+		 *
+		 * @return the model
+		 */
+		public BrickYardModel getModel() {
+			return model;
+		}
+
+		/**
+		 * Retrieves the number of ticks run
+		 *
+		 * @return ticks run since the session opened
+		 */
+		public long getTicks() {
+			return ticks;
+		}
+
+		/**
+		 * Retrieves the score after the last tick run
+		 *
+		 * @return the game's score
+		 */
+		public int getScore() {
+			return score;
+		}
+
+		/**
+		 * Retrieves the mean scheduling lag of the session's ticks
+		 *
+		 * @return mean lag in microseconds, 0 before the first tick
+		 */
+		public double getMeanLagMicros() {
+			long count = lagCount;
+			return count == 0 ? 0 : lagTotal / 1e3 / count;
+		}
+
+		/**
+		 * Retrieves the longest scheduling lag of the session's ticks
+		 *
+		 * @return longest lag in microseconds
+		 */
+		public double getMaxLagMicros() {
+			return lagMax / 1e3;
+		}
+
+		/**
+		 * Retrieves the scheduling lag of the last tick run
+		 *
+		 * @return lag in microseconds
+		 */
+		public double getLastLagMicros() {
+			return lastLag / 1e3;
+		}
+
+		/**
+		 * Retrieves the number of ticks skipped because the session fell
+		 * too far behind
+		 *
+		 * @return ticks shed
+		 */
+		public long getShedTicks() {
+			return shedTicks;
+		}
+
+		// runs a tick on a worker, then puts the session back in the
+		// wheel for the next
+		private void tick() {
+			if (closed) {
+				finish();
+				return;
+			}
+			long late = Math.max(0, System.nanoTime() - deadline);
+			lastLag = late;
+			lagCount++;
+			lagTotal += late;
+			lagMax = Math.max(lagMax, late);
+			lag.record(late);
+			windowLag.add(late);
+			windowTicks.increment();
+
+			// too far behind: skip the ticks missed, and carry on from
+			// the one due now
+			if (late > maxLagNanos) {
+				long skip = late / stepNanos;
+				deadline += skip * stepNanos;
+				shedTicks += skip;
+				shed.add(skip);
+			}
+
+			try {
+				engine.step(1);
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "Closing a session whose tick failed", e);
+				closed = true;
+				finish();
+				return;
+			}
+			ticks++;
+			score = model.getScore();
+			if (engine.isGameOver()) {
+				if (!restarting) {
+					gameOver = true;
+					finish();
+					return;
+				}
+				engine.reset();
+			}
+			deadline += stepNanos;
+			schedule(this);
+		}
+
+		// lets the session go, once
+		private void finish() {
+			if (finished.compareAndSet(false, true)) {
+				active.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Hosts bot sessions for a while and prints how well they kept time
+	 *
+	 * @param args
+	 *            number of sessions, seconds to run, and worker threads
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int sessions = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_SESSIONS;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1])
+				: DEFAULT_SECONDS;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime
+				.getRuntime().availableProcessors();
+
+		// build the games first, so building them doesn't hold up
+		// the ones already running
+		BrickYardModel[] models = new BrickYardModel[sessions];
+		for (int i = 0; i < sessions; i++) {
+			models[i] = new BrickYardModel();
+		}
+
+		SessionHost host = new SessionHost(threads, sessions);
+		Session[] opened = new Session[sessions];
+		int count = 0;
+		long start = System.nanoTime();
+		long elapsed;
+		try {
+			for (int i = 0; i < sessions; i++) {
+				try {
+					opened[count] = host.open(models[i],
+							new SeededPaddleInput(i));
+					opened[count].setRestarting(true);
+					count++;
+				} catch (RejectedExecutionException e) {
+					// counted by the host
+				}
+			}
+			Thread.sleep(seconds * 1000L);
+		} finally {
+			host.close();
+			elapsed = System.nanoTime() - start;
+		}
+
+		long ticks = 0;
+		long shedTicks = 0;
+		double worstMean = 0;
+		for (int i = 0; i < count; i++) {
+			ticks += opened[i].getTicks();
+			shedTicks += opened[i].getShedTicks();
+			worstMean = Math.max(worstMean, opened[i].getMeanLagMicros());
+		}
+		System.out.printf("sessions       %d opened, %d turned away%n",
+				count, host.getRejectedCount());
+		System.out.printf("ticks          %d, %.0f/s of %.0f/s due%n", ticks,
+				ticks * 1e9 / elapsed, count * 1e9 / DEFAULT_STEP_NANOS);
+		System.out.printf("shed           %d ticks%n", shedTicks);
+		System.out.printf("lag            %s%n", host.getLag());
+		System.out.printf("worst session  %.1f us mean lag%n", worstMean);
+	}
+}
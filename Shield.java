@@ -12,8 +12,9 @@ public class Shield extends PlaceableObject {
 	// velocity in X direction
 	private int vx;
 
-	// width of viewable area
+	// width of viewable area, the arena's width unless told otherwise
 	private final int SCREEN_X = 786;
+	private int arenaX = SCREEN_X;
 
 	// Y value of shield
 	private final int SHIELD_Y = 500;
@@ -21,6 +22,9 @@ public class Shield extends PlaceableObject {
 	// width of shield. the height of shield is 1/6 of this
 	private final int SHIELD_SIZE = 80;
 
+	// distance moved per tick while an arrow is held
+	private final int SPEED = 5;
+
 	/**
 	 * Constructs a shield object
 	 */
@@ -32,11 +36,21 @@ public class Shield extends PlaceableObject {
 		moveToCenter();
 	}
 
+	/**
+	 * Sets the width of the arena the shield is centered in
+	 * 
+	 * @param width
+	 *            arena width
+	 */
+	public void setArenaWidth(int width) {
+		arenaX = width;
+	}
+
 	/**
 	 * Centers the shield left-right on the game screen
 	 */
 	public void moveToCenter() {
-		this.setX(SCREEN_X / 2 - (this.getSizeX() / 2));
+		this.setX(arenaX / 2 - (this.getSizeX() / 2));
 	}
 
 	/**
@@ -50,14 +64,24 @@ public class Shield extends PlaceableObject {
 	 * Sets the velocity of the shield so it will move to the right
 	 */
 	public void setMovingRight() {
-		vx = 5;
+		vx = SPEED;
+	}
+
+	/**
+	 * Retrieves the distance the shield moves each tick while an arrow is
+	 * held
+	 * 
+	 * @return speed in pixels per tick
+	 */
+	public int getSpeed() {
+		return SPEED;
 	}
 
 	/**
 	 * Sets the velocity of the shield so it will move to the left
 	 */
 	public void setMovingLeft() {
-		vx = -5;
+		vx = -SPEED;
 	}
 
 	/**
@@ -73,8 +97,20 @@ public class Shield extends PlaceableObject {
 	 * @return ShieldGraphic object
 	 */
 	public ShieldGraphic getShieldGraphic() {
-		return new ShieldGraphic(this.getX(), this.getY(), this.getSizeX(),
-				this.getSizeY(), this.getColor());
+		return getShieldGraphic(1);
+	}
+
+	/**
+	 * Creates a ShieldGraphic positioned between the previous and current
+	 * location, for drawing frames that fall between ticks
+	 * 
+	 * @param alpha
+	 *            0 for the previous location, 1 for the current one
+	 * @return ShieldGraphic representing this Shield
+	 */
+	public ShieldGraphic getShieldGraphic(double alpha) {
+		return new ShieldGraphic(this.getX(alpha), this.getY(alpha),
+				this.getSizeX(), this.getSizeY(), this.getColor());
 	}
 
 	/**
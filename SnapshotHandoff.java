@@ -0,0 +1,83 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Passes render snapshots from the thread running the game to the thread
+ * drawing it, without locks and without allocating. Three snapshots rotate
+ * between the two threads: the producer fills one, the consumer draws
+ * another, and the third holds the newest completed snapshot waiting to be
+ * taken. Publishing swaps the filled snapshot in for the waiting one, and
+ * taking swaps the drawn one out for it, each with a single atomic exchange.
+ *
+ * Neither side ever waits for the other. A producer running ahead replaces
+ * waiting snapshots the consumer never took; a consumer running ahead keeps
+ * drawing the snapshot it has.
+ *
+ * There must be exactly one producer thread and one consumer thread.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class SnapshotHandoff {
+
+	// set on the waiting index when it holds a snapshot not yet taken
+	private static final int FRESH = 4;
+
+	// the three snapshots
+	private final RenderSnapshot[] snapshots;
+
+	// index of the waiting snapshot, plus FRESH
+	private final AtomicInteger waiting;
+
+	// index of the snapshot being filled; producer only
+	private int filling;
+
+	// index of the snapshot being drawn; consumer only
+	private int drawing;
+
+	/**
+	 * Constructs a SnapshotHandoff with three empty snapshots
+	 */
+	public SnapshotHandoff() {
+		snapshots = new RenderSnapshot[] { new RenderSnapshot(),
+				new RenderSnapshot(), new RenderSnapshot() };
+		drawing = 0;
+		waiting = new AtomicInteger(1);
+		filling = 2;
+	}
+
+	/**
+	 * Retrieves the snapshot the producer fills next. It belongs to the
+	 * producer until published
+	 *
+	 * @return the snapshot to fill
+	 */
+	public RenderSnapshot getFilling() {
+		return snapshots[filling];
+	}
+
+	/**
+	 * Publishes the filled snapshot as the newest one, and takes back a
+	 * snapshot to fill next. Producer only
+	 *
+	 * @return true if the snapshot replaced was never taken by the consumer
+	 */
+	public boolean publish() {
+		int replaced = waiting.getAndSet(filling | FRESH);
+		filling = replaced & ~FRESH;
+		return (replaced & FRESH) != 0;
+	}
+
+	/**
+	 * Takes the newest published snapshot if there is one the consumer has
+	 * not taken yet. Consumer only
+	 *
+	 * @return the snapshot to draw, which stays untouched until the next
+	 *         call
+	 */
+	public RenderSnapshot take() {
+		if ((waiting.get() & FRESH) != 0) {
+			drawing = waiting.getAndSet(drawing) & ~FRESH;
+		}
+		return snapshots[drawing];
+	}
+}
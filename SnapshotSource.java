@@ -0,0 +1,19 @@
+/**
+ * Hands out the render snapshots a BrickYardRenderer draws: a
+ * BrickBreakerControl running the game itself, or a StateClient showing a
+ * game run by a StateServer.
+ *
+ * @author Brian Lorton
+ *
+ */
+public interface SnapshotSource {
+
+	/**
+	 * Takes the newest render snapshot for drawing. It stays unchanged until
+	 * the next call, and must be drawn, as the snapshots that follow only
+	 * carry bricks knocked out since. Called from the thread that draws
+	 *
+	 * @return the snapshot to draw
+	 */
+	public RenderSnapshot getSnapshot();
+}
@@ -0,0 +1,736 @@
+import java.awt.Color;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shows a game run by a StateServer. The client keeps a copy of what the
+ * server streams, applying each delta to the tick it was taken against and
+ * acknowledging the newest tick it has, and hands out render snapshots of
+ * the copy, so a BrickYardRenderer draws it just as it draws a local game.
+ * Keys pressed are sent back as paddle input.
+ *
+ * A client either runs on its own thread, started with start, or is served
+ * by a selector shared with other clients, as main does to watch with many
+ * viewers at once.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class StateClient implements SnapshotSource, Closeable {
+
+	private static final Logger LOG = Logger.getLogger(StateClient.class
+			.getName());
+
+	// size of a grid cell, as the model's
+	private static final int GRID_CELL = 64;
+
+	// defaults for running from the command line
+	private static final int DEFAULT_PORT = 4545;
+	private static final int DEFAULT_VIEWERS = 200;
+	private static final int DEFAULT_SECONDS = 10;
+
+	/**
+	 * Told each time the client has taken in new state from the server
+	 */
+	public interface Listener {
+
+		/**
+		 * Called on the client's thread after the state is published for
+		 * drawing
+		 *
+		 * @param client
+		 *            the client
+		 */
+		public void stateReceived(StateClient client);
+	}
+
+	// the connection, what has been read but not applied, and what is
+	// waiting to be written
+	private final SocketChannel channel;
+	private ByteBuffer in;
+	private final ByteBuffer out;
+
+	// the selector serving the client, and its key there
+	private volatile Selector selector;
+	private SelectionKey key;
+
+	// state at each of the last HISTORY ticks received, and the newest
+	private final StateServer.TickState[] history;
+	private StateServer.TickState current;
+
+	// the copy drawn: balls, shield, arena size, and bricks
+	private final ArrayList<Ball> balls;
+	private final Shield shield;
+	private int arenaX, arenaY;
+	private BrickStore bricks;
+	private BrickGrid grid;
+
+	// size and color given to balls
+	private int ballSizeX, ballSizeY;
+	private Color ballColor;
+
+	// ids of the bricks knocked out, and the layout version, bumped
+	// whenever bricks are laid out, as the model's removed brick log
+	private final IntList removed;
+	private int layoutVersion;
+
+	// layout version of the last keyframe, and the area of the arena
+	// each version since laid out bricks in, as x, y, width and height
+	// four ints at a time, as the model's laid out log
+	private int replacedVersion;
+	private final IntList laidOut;
+
+	// colors of the bricks by RGB, so each is made once
+	private final HashMap<Integer, Color> colors;
+
+	// passes render snapshots to the thread drawing, and what of the
+	// layout that thread has drawn, as BrickBreakerControl does
+	private final SnapshotHandoff snapshots;
+	private volatile long drawn = -1L << 32;
+
+	// arrows held and launches asked for, set on the thread with the
+	// keys, and the arrows last sent
+	private volatile int held;
+	private final AtomicBoolean launchRequested;
+	private int sentHeld;
+
+	// told of new state, if set
+	private volatile Listener listener;
+
+	// what has been received
+	private volatile long messages, keyframes, bytes;
+
+	private volatile boolean closed;
+
+	/**
+	 * Connects to a StateServer on the loopback interface
+	 *
+	 * @param port
+	 *            the server's port
+	 * @throws IOException
+	 *             if the server can't be reached
+	 */
+	public StateClient(int port) throws IOException {
+		channel = SocketChannel.open(new InetSocketAddress(InetAddress
+				.getLoopbackAddress(), port));
+		try {
+			channel.configureBlocking(false);
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		in = ByteBuffer.allocate(4096);
+		out = ByteBuffer.allocate(4096);
+		history = new StateServer.TickState[StateServer.HISTORY];
+		for (int i = 0; i < history.length; i++) {
+			history[i] = new StateServer.TickState();
+		}
+		current = history[0];
+		balls = new ArrayList<Ball>();
+		shield = new Shield();
+		bricks = new BrickStore();
+		grid = new BrickGrid(1, 1, GRID_CELL);
+		removed = new IntList();
+		laidOut = new IntList();
+		colors = new HashMap<Integer, Color>();
+		launchRequested = new AtomicBoolean();
+
+		// say hello, and publish an empty snapshot, so there is always
+		// one to draw
+		out.putInt(9);
+		out.put(StateServer.HELLO);
+		out.putInt(StateServer.MAGIC);
+		out.putInt(StateServer.VERSION);
+		snapshots = new SnapshotHandoff();
+		publish();
+	}
+
+	/**
+	 * Registers a callback to be told of new state
+	 *
+	 * @param listener
+	 *            the callback, or null for none
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts a thread reading from the server until the client is closed
+	 * or the connection fails
+	 *
+	 * @throws IOException
+	 *             if the selector can't be opened
+	 */
+	public void start() throws IOException {
+		final Selector own = Selector.open();
+		register(own);
+		selector = own;
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (!closed) {
+						poll(own, 0);
+						// input may have been set while waiting
+						if (key.isValid()) {
+							flush();
+						}
+					}
+				} catch (ClosedSelectorException e) {
+					// closed while waiting
+				} catch (IOException e) {
+					LOG.log(Level.WARNING, "State client stopped", e);
+				} finally {
+					try {
+						own.close();
+					} catch (IOException e) {
+						LOG.log(Level.FINE, "Could not close selector", e);
+					}
+				}
+			}
+		}, "state-client");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Registers the client with a selector shared with other clients. The
+	 * selector is then served by calling poll
+	 *
+	 * @param selector
+	 *            the selector
+	 * @throws IOException
+	 *             if the client can't be registered
+	 */
+	public void register(Selector selector) throws IOException {
+		key = channel.register(selector, SelectionKey.OP_READ
+				| SelectionKey.OP_WRITE, this);
+	}
+
+	/**
+	 * Waits for any of the clients registered with a selector to be ready,
+	 * and serves them. A client whose connection fails is closed
+	 *
+	 * @param selector
+	 *            the selector
+	 * @param timeout
+	 *            most milliseconds to wait, or 0 to wait until a client is
+	 *            ready or the selector is woken
+	 * @throws IOException
+	 *             if the selector fails
+	 */
+	public static void poll(Selector selector, long timeout)
+			throws IOException {
+		selector.select(timeout);
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+			StateClient client = (StateClient) key.attachment();
+			try {
+				if (key.isValid() && key.isReadable()) {
+					client.receive();
+				}
+				if (key.isValid()) {
+					client.flush();
+				}
+			} catch (IOException | BufferUnderflowException e) {
+				LOG.log(Level.WARNING, "Lost the state server", e);
+				client.close();
+			}
+		}
+	}
+
+	/**
+	 * Sets the arrows held down, sent to the server as paddle input
+	 *
+	 * @param flags
+	 *            PaddleInput.LEFT and PaddleInput.RIGHT for the arrows held
+	 */
+	public void setHeld(int flags) {
+		held = flags & (PaddleInput.LEFT | PaddleInput.RIGHT);
+		wakeUp();
+	}
+
+	/**
+	 * Asks the server to launch the ball
+	 */
+	public void launch() {
+		launchRequested.set(true);
+		wakeUp();
+	}
+
+	/**
+	 * Retrieves the server's tick last received. Only read it on the
+	 * client's thread
+	 *
+	 * @return the tick, or -1 before the first
+	 */
+	public long getTick() {
+		return current.tick;
+	}
+
+	/**
+	 * Retrieves the score last received. Only read it on the client's
+	 * thread
+	 *
+	 * @return the score
+	 */
+	public int getScore() {
+		return current.score;
+	}
+
+	/**
+	 * Retrieves the number of messages received
+	 *
+	 * @return message count, keyframes included
+	 */
+	public long getMessagesReceived() {
+		return messages;
+	}
+
+	/**
+	 * Retrieves the number of keyframes received
+	 *
+	 * @return keyframe count
+	 */
+	public long getKeyframesReceived() {
+		return keyframes;
+	}
+
+	/**
+	 * Retrieves the number of bytes received
+	 *
+	 * @return byte count
+	 */
+	public long getBytesReceived() {
+		return bytes;
+	}
+
+	/**
+	 * Checks whether the client has been closed, or lost the server
+	 *
+	 * @return true once closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Disconnects from the server
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Could not close connection", e);
+		}
+		wakeUp();
+	}
+
+	@Override
+	public RenderSnapshot getSnapshot() {
+		RenderSnapshot snapshot = snapshots.take();
+		int removedEnd = snapshot.getRemovedStart()
+				+ snapshot.getRemovedCount();
+		drawn = (long) snapshot.getLayoutVersion() << 32
+				| (removedEnd & 0xffffffffL);
+		return snapshot;
+	}
+
+	// wakes the client's own thread, so input goes out at once
+	private void wakeUp() {
+		Selector own = selector;
+		if (own != null) {
+			own.wakeup();
+		}
+	}
+
+	// reads what the server has sent, applying each whole message,
+	// then acknowledges the newest tick and publishes it for drawing
+	private void receive() throws IOException {
+		int read = channel.read(in);
+		if (read < 0) {
+			throw new EOFException("the state server closed the connection");
+		}
+		bytes += read;
+		in.flip();
+		boolean changed = false;
+		while (in.remaining() >= 4) {
+			int length = in.getInt(in.position());
+			if (length < 1 || length > StateServer.MAX_MESSAGE) {
+				throw new IOException("bad message length " + length);
+			}
+			if (in.remaining() < 4 + length) {
+				break;
+			}
+			int end = in.position() + 4 + length;
+			in.position(in.position() + 4);
+			apply(in);
+			if (in.position() != end) {
+				throw new IOException("message of the wrong length");
+			}
+			changed = true;
+		}
+		in.compact();
+		if (in.position() >= 4 && 4 + in.getInt(0) > in.capacity()) {
+			// a keyframe larger than the buffer
+			ByteBuffer grown = ByteBuffer.allocate(4 + in.getInt(0));
+			in.flip();
+			grown.put(in);
+			in = grown;
+		}
+
+		if (changed) {
+			if (out.remaining() >= 13) {
+				out.putInt(9);
+				out.put(StateServer.ACK);
+				out.putLong(current.tick);
+			}
+			publish();
+			Listener told = listener;
+			if (told != null) {
+				told.stateReceived(this);
+			}
+		}
+	}
+
+	// writes input that changed, and whatever is waiting to go out
+	private void flush() throws IOException {
+		int flags = held;
+		boolean launch = launchRequested.get()
+				&& launchRequested.getAndSet(false);
+		if ((flags != sentHeld || launch) && out.remaining() >= 6) {
+			out.putInt(2);
+			out.put(StateServer.INPUT);
+			out.put((byte) (flags | (launch ? PaddleInput.LAUNCH : 0)));
+			sentHeld = flags;
+		}
+		out.flip();
+		channel.write(out);
+		key.interestOps(out.hasRemaining() ? SelectionKey.OP_READ
+				| SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		out.compact();
+	}
+
+	// applies one message from the server
+	private void apply(ByteBuffer message) throws IOException {
+		byte type = message.get();
+		if (type == StateServer.KEYFRAME) {
+			applyKeyframe(message);
+			keyframes++;
+		} else if (type == StateServer.DELTA) {
+			applyDelta(message);
+		} else {
+			throw new IOException("unknown message type " + type);
+		}
+		messages++;
+	}
+
+	// starts the copy over from a keyframe
+	private void applyKeyframe(ByteBuffer message) throws IOException {
+		long tick = StateServer.getVarLong(message);
+		StateServer.TickState state = history[(int) tick
+				& (StateServer.HISTORY - 1)];
+		state.tick = tick;
+		arenaX = getInt(message);
+		arenaY = getInt(message);
+		state.score = getInt(message);
+		state.ballsRemaining = getInt(message);
+		ballSizeX = getInt(message);
+		ballSizeY = getInt(message);
+		ballColor = color(getInt(message));
+		shield.setSizeX(getInt(message));
+		shield.setSizeY(getInt(message));
+		shield.setColor(color(getInt(message)));
+		state.setBallCount(getInt(message));
+		for (int i = 0; i < state.ballCount; i++) {
+			state.ballX[i] = (int) StateServer.getSigned(message);
+			state.ballY[i] = (int) StateServer.getSigned(message);
+		}
+		state.shieldX = (int) StateServer.getSigned(message);
+		state.shieldY = (int) StateServer.getSigned(message);
+
+		// a new store and grid, as snapshots of the old may still be
+		// being drawn
+		bricks = new BrickStore();
+		bricks.reserve(getInt(message));
+		grid = new BrickGrid(arenaX, arenaY, GRID_CELL);
+		removed.clear();
+		laidOut.clear();
+		int count = getInt(message);
+		int id = -1;
+		for (int i = 0; i < count; i++) {
+			id += getInt(message) + 1;
+			readBrick(message, id);
+		}
+		layoutVersion++;
+		replacedVersion = layoutVersion;
+
+		current = state;
+		balls.clear();
+		show(state);
+	}
+
+	// brings the copy up to date with a delta
+	private void applyDelta(ByteBuffer message) throws IOException {
+		long tick = StateServer.getVarLong(message);
+		long behind = StateServer.getVarLong(message);
+		if (behind < 1 || behind >= StateServer.HISTORY) {
+			throw new IOException("delta " + behind + " ticks behind");
+		}
+		StateServer.TickState base = history[(int) (tick - behind)
+				& (StateServer.HISTORY - 1)];
+		if (base.tick != tick - behind) {
+			throw new IOException("delta against tick " + (tick - behind)
+					+ ", which is not kept");
+		}
+		StateServer.TickState state = history[(int) tick
+				& (StateServer.HISTORY - 1)];
+		state.copy(base);
+		state.tick = tick;
+
+		int flags = message.get();
+		if ((flags & StateServer.SCORE) != 0) {
+			state.score += (int) StateServer.getSigned(message);
+		}
+		if ((flags & StateServer.BALLS_REMAINING) != 0) {
+			state.ballsRemaining = getInt(message);
+		}
+		if ((flags & StateServer.BALL_COUNT) != 0) {
+			int count = getInt(message);
+			int had = state.ballCount;
+			state.setBallCount(count);
+			for (int i = had; i < count; i++) {
+				state.ballX[i] = 0;
+				state.ballY[i] = 0;
+			}
+		}
+		if ((flags & StateServer.SHIELD) != 0) {
+			state.shieldX += (int) StateServer.getSigned(message);
+			state.shieldY += (int) StateServer.getSigned(message);
+		}
+		int moved = getInt(message);
+		for (int i = 0; i < moved; i++) {
+			int ball = getInt(message);
+			if (ball >= state.ballCount) {
+				throw new IOException("ball " + ball + " is not in play");
+			}
+			state.ballX[ball] += (int) StateServer.getSigned(message);
+			state.ballY[ball] += (int) StateServer.getSigned(message);
+		}
+
+		// bricks laid out and knocked out since the base; the copy may
+		// already have some of them.  They are laid out in copies of
+		// the store and grid, as snapshots of these may still be
+		// being drawn
+		if ((flags & StateServer.ADDED) != 0) {
+			bricks = bricks.copy();
+			grid = grid.copy();
+			bricks.reserve(getInt(message));
+			int count = getInt(message);
+			int x1 = Integer.MAX_VALUE, y1 = Integer.MAX_VALUE;
+			int x2 = Integer.MIN_VALUE, y2 = Integer.MIN_VALUE;
+			for (int i = 0; i < count; i++) {
+				int id = getInt(message);
+				readBrick(message, id);
+				x1 = Math.min(x1, bricks.getX(id));
+				y1 = Math.min(y1, bricks.getY(id));
+				x2 = Math.max(x2, bricks.getX(id) + bricks.getSizeX(id));
+				y2 = Math.max(y2, bricks.getY(id) + bricks.getSizeY(id));
+			}
+			if (count > 0) {
+				laidOut.add(x1);
+				laidOut.add(y1);
+				laidOut.add(x2 - x1);
+				laidOut.add(y2 - y1);
+				layoutVersion++;
+			}
+		}
+		if ((flags & StateServer.REMOVED) != 0) {
+			int count = getInt(message);
+			for (int i = 0; i < count; i++) {
+				int id = getInt(message);
+				if (id < bricks.size() && bricks.isLive(id)) {
+					bricks.kill(id);
+					removed.add(id);
+				}
+			}
+		}
+
+		current = state;
+		show(state);
+	}
+
+	// lays out a brick from a message, unless it already is
+	private void readBrick(ByteBuffer message, int id) throws IOException {
+		int x = (int) StateServer.getSigned(message);
+		int y = (int) StateServer.getSigned(message);
+		int sizeX = getInt(message);
+		int sizeY = getInt(message);
+		Color color = color(getInt(message));
+		if (id < 0 || id >= bricks.size()) {
+			throw new IOException("brick " + id + " is out of range");
+		}
+		if (!bricks.isFilled(id)) {
+			bricks.set(id, x, y, sizeX, sizeY, 0, color);
+			grid.add(bricks, id);
+		}
+	}
+
+	// moves the balls and shield drawn to a tick's state
+	private void show(StateServer.TickState state) {
+		while (balls.size() > state.ballCount) {
+			balls.remove(balls.size() - 1);
+		}
+		while (balls.size() < state.ballCount) {
+			Ball ball = new Ball();
+			ball.setSizeX(ballSizeX);
+			ball.setSizeY(ballSizeY);
+			ball.setColor(ballColor);
+			ball.setX(state.ballX[balls.size()]);
+			ball.setY(state.ballY[balls.size()]);
+			balls.add(ball);
+		}
+		for (int i = 0; i < state.ballCount; i++) {
+			Ball ball = balls.get(i);
+			ball.savePosition();
+			ball.setX(state.ballX[i]);
+			ball.setY(state.ballY[i]);
+		}
+		shield.savePosition();
+		shield.setX(state.shieldX);
+		shield.setY(state.shieldY);
+	}
+
+	// fills a render snapshot from the copy and publishes it, carrying
+	// the areas laid out and removed bricks from where the drawing
+	// thread has caught up to
+	private void publish() {
+		long seen = drawn;
+		RenderSnapshot snapshot = snapshots.getFilling();
+		snapshot.setBallCount(balls.size());
+		for (int i = 0; i < balls.size(); i++) {
+			snapshot.setBall(i, balls.get(i));
+		}
+		snapshot.setShield(shield);
+		snapshot.setHud(current.score, current.ballsRemaining);
+		snapshot.setArena(arenaX, arenaY);
+		int seenVersion = (int) (seen >>> 32);
+		int areas = laidOut.size();
+		int from = 0;
+		if (seenVersion >= replacedVersion && seenVersion <= layoutVersion) {
+			areas = 4 * (seenVersion - replacedVersion);
+			from = Math.min((int) seen, removed.size());
+		}
+		snapshot.setBricks(layoutVersion, bricks, grid, from);
+		for (int i = areas; i < laidOut.size(); i += 4) {
+			snapshot.addLaidOut(laidOut.get(i), laidOut.get(i + 1),
+					laidOut.get(i + 2), laidOut.get(i + 3));
+		}
+		for (int i = from; i < removed.size(); i++) {
+			snapshot.addRemoved(removed.get(i));
+		}
+		snapshot.setAlpha(1);
+		snapshots.publish();
+	}
+
+	// looks up the color for an RGB value
+	private Color color(int rgb) {
+		Color color = colors.get(rgb);
+		if (color == null) {
+			color = new Color(rgb);
+			colors.put(rgb, color);
+		}
+		return color;
+	}
+
+	// reads a varint that must fit in an int
+	private static int getInt(ByteBuffer message) throws IOException {
+		long value = StateServer.getVarLong(message);
+		if (value > Integer.MAX_VALUE) {
+			throw new IOException("value " + value + " out of range");
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Watches a StateServer with many viewers served by one selector,
+	 * printing what they receive each second
+	 *
+	 * @param args
+	 *            the server's port, the number of viewers, and the seconds
+	 *            to watch for
+	 * @throws IOException
+	 *             if the server can't be reached
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int count = args.length > 1 ? Integer.parseInt(args[1])
+				: DEFAULT_VIEWERS;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2])
+				: DEFAULT_SECONDS;
+
+		Selector selector = Selector.open();
+		StateClient[] viewers = new StateClient[count];
+		for (int i = 0; i < count; i++) {
+			viewers[i] = new StateClient(port);
+			viewers[i].register(selector);
+		}
+
+		long start = System.nanoTime();
+		long report = start;
+		long lastMessages = 0, lastBytes = 0;
+		while (System.nanoTime() - start < seconds * 1000000000L) {
+			poll(selector, 100);
+			long now = System.nanoTime();
+			if (now - report >= 1000000000L) {
+				long received = 0, read = 0, keyed = 0;
+				int open = 0;
+				long lowest = Long.MAX_VALUE, highest = -1;
+				for (StateClient viewer : viewers) {
+					received += viewer.getMessagesReceived();
+					read += viewer.getBytesReceived();
+					keyed += viewer.getKeyframesReceived();
+					if (!viewer.isClosed()) {
+						open++;
+						lowest = Math.min(lowest, viewer.getTick());
+						highest = Math.max(highest, viewer.getTick());
+					}
+				}
+				long got = received - lastMessages;
+				System.out.printf("viewers %5d  messages %7d/s  %6.1f bytes "
+						+ "each  keyframes %d  ticks %d to %d%n", open, got,
+						got > 0 ? (double) (read - lastBytes) / got : 0.0,
+						keyed, lowest, highest);
+				lastMessages = received;
+				lastBytes = read;
+				report = now;
+			}
+		}
+		for (StateClient viewer : viewers) {
+			viewer.close();
+		}
+		selector.close();
+	}
+}
@@ -0,0 +1,837 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs a BrickYardModel as the authority for a game watched over the
+ * network. Viewers connect with a StateClient on the loopback interface. One
+ * thread steps the model at the game's tick rate and serves every
+ * connection through a single NIO selector, so hundreds of viewers cost no
+ * threads.
+ *
+ * Each tick, a viewer is sent the state as a delta against the last tick it
+ * acknowledged: the balls and shield that moved since, as varint offsets,
+ * the score and balls remaining if they changed, and the ids of bricks laid
+ * out or knocked out since. Viewers acknowledging the same tick share one
+ * encoded message. Only a viewer new to the brick layout, or further behind
+ * than the states kept, is sent a keyframe listing every standing brick;
+ * until it acknowledges one, deltas are taken against the keyframe, which
+ * TCP delivers first. Since a delta only depends on its base, a viewer whose
+ * socket is still busy with an earlier message just misses ticks, and the
+ * next message it gets catches it up.
+ *
+ * The paddle is played by the first viewer to send input, until it
+ * disconnects, and otherwise by the PaddleInput given. When a game ends
+ * another starts.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class StateServer implements Closeable {
+
+	private static final Logger LOG = Logger.getLogger(StateServer.class
+			.getName());
+
+	// identifies the protocol, sent by clients when they connect
+	static final int MAGIC = 0x42427376;
+	static final int VERSION = 1;
+
+	// message types. Each message is an int length, then the type, then
+	// the body; the server's bodies are varints
+	static final byte HELLO = 1;
+	static final byte ACK = 2;
+	static final byte INPUT = 3;
+	static final byte KEYFRAME = 4;
+	static final byte DELTA = 5;
+
+	// what a delta carries, besides the balls that moved
+	static final int SCORE = 1;
+	static final int BALLS_REMAINING = 2;
+	static final int BALL_COUNT = 4;
+	static final int SHIELD = 8;
+	static final int ADDED = 16;
+	static final int REMOVED = 32;
+
+	// ticks of state kept to take deltas against, a power of two
+	static final int HISTORY = 64;
+
+	// largest message length accepted
+	static final int MAX_MESSAGE = 1 << 28;
+
+	// tick length, as the game's own loop, and the most ticks to
+	// catch up on after a stall
+	private static final long STEP_NANOS = 13000000L;
+	private static final int MAX_BEHIND = 5;
+
+	// port used from the command line unless given one
+	private static final int DEFAULT_PORT = 4545;
+
+	// the game, and what steps it
+	private final BrickYardModel model;
+	private final HeadlessEngine engine;
+
+	// plays the paddle while no viewer does
+	private final PaddleInput fallback;
+
+	// the listening socket, and the selector serving every connection
+	private final ServerSocketChannel server;
+	private final Selector selector;
+
+	// the connections open, in the order they were accepted, and the
+	// one playing the paddle
+	private final ArrayList<Connection> connections;
+	private Connection player;
+
+	// the player's arrows held, and whether it asked for a launch
+	private int held;
+	private boolean launch;
+
+	// ticks run since the server started; viewers see this rather
+	// than the model's tick, which starts over every game
+	private long sequence = -1;
+
+	// state at each of the last HISTORY ticks
+	private final TickState[] history;
+
+	// the brick store of the layout being streamed, the model's layout
+	// version the bricks were last replaced at, and a count bumped
+	// whenever the model replaces them
+	private BrickStore bricks;
+	private int replacedVersion = -1;
+	private int epoch;
+
+	// ids of the bricks laid out since, in the order they were laid
+	// out, and the model's layout version last checked
+	private IntList added;
+	private int seenVersion;
+
+	// messages encoded this tick: a delta per tick behind, and a keyframe
+	private final ByteBuffer[] deltas;
+	private ByteBuffer keyframe;
+
+	// where messages are encoded before being copied out
+	private ByteBuffer scratch;
+
+	// the serving thread, whether it is to keep serving, and whether
+	// close has been called; serving also stops on a socket error
+	private final Thread thread;
+	private volatile boolean running;
+	private boolean closed;
+
+	// viewers connected, and what they have been sent
+	private volatile int viewers;
+	private final LongAdder messages;
+	private final LongAdder keyframes;
+	private final LongAdder bytes;
+	private final LongAdder skipped;
+
+	/**
+	 * Constructs a StateServer listening on the loopback interface, and
+	 * starts serving the game
+	 *
+	 * @param model
+	 *            the game; only touched by the server from now on
+	 * @param fallback
+	 *            plays the paddle while no viewer does, or null to leave it
+	 *            still
+	 * @param port
+	 *            the port to listen on, or 0 for any free one
+	 * @throws IOException
+	 *             if the port can't be listened on
+	 */
+	public StateServer(BrickYardModel model, PaddleInput fallback, int port)
+			throws IOException {
+		this.model = model;
+		this.fallback = fallback;
+		engine = new HeadlessEngine(model, new RemoteInput());
+		connections = new ArrayList<Connection>();
+		history = new TickState[HISTORY];
+		for (int i = 0; i < HISTORY; i++) {
+			history[i] = new TickState();
+		}
+		added = new IntList();
+		deltas = new ByteBuffer[HISTORY];
+		scratch = ByteBuffer.allocate(4096);
+		messages = new LongAdder();
+		keyframes = new LongAdder();
+		bytes = new LongAdder();
+		skipped = new LongAdder();
+
+		selector = Selector.open();
+		server = ServerSocketChannel.open();
+		try {
+			server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					port));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			server.close();
+			selector.close();
+			throw e;
+		}
+
+		running = true;
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				serve();
+			}
+		}, "state-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Retrieves the port the server is listening on
+	 *
+	 * @return the port, on the loopback interface
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	/**
+	 * Retrieves the number of viewers connected
+	 *
+	 * @return viewer count
+	 */
+	public int getViewerCount() {
+		return viewers;
+	}
+
+	/**
+	 * Retrieves the number of messages sent to viewers
+	 *
+	 * @return message count, keyframes included
+	 */
+	public long getMessagesSent() {
+		return messages.sum();
+	}
+
+	/**
+	 * Retrieves the number of keyframes sent to viewers
+	 *
+	 * @return keyframe count
+	 */
+	public long getKeyframesSent() {
+		return keyframes.sum();
+	}
+
+	/**
+	 * Retrieves the number of bytes sent to viewers
+	 *
+	 * @return byte count
+	 */
+	public long getBytesSent() {
+		return bytes.sum();
+	}
+
+	/**
+	 * Retrieves the number of times a viewer missed a tick because its
+	 * socket was still busy with an earlier message
+	 *
+	 * @return ticks missed, across every viewer
+	 */
+	public long getSkippedTicks() {
+		return skipped.sum();
+	}
+
+	/**
+	 * Stops serving, and disconnects every viewer
+	 *
+	 * @throws IOException
+	 *             if the listening socket can't be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			for (Connection connection : connections) {
+				connection.channel.close();
+			}
+			connections.clear();
+			viewers = 0;
+			selector.close();
+		} finally {
+			server.close();
+		}
+	}
+
+	// steps the game at its tick rate, serving connections in between
+	private void serve() {
+		long next = System.nanoTime();
+		try {
+			while (running) {
+				long now = System.nanoTime();
+				if (now - next >= 0) {
+					tick();
+					next += STEP_NANOS;
+					if (now - next > MAX_BEHIND * STEP_NANOS) {
+						// stalled; drop the ticks missed
+						next = now + STEP_NANOS;
+					}
+				}
+				long wait = next - System.nanoTime();
+				if (wait > 0) {
+					selector.select((wait + 999999) / 1000000);
+				} else {
+					selector.selectNow();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys()
+						.iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Connection connection = (Connection) key.attachment();
+					if (key.isReadable()) {
+						read(connection);
+					}
+					if (key.isValid() && key.isWritable()) {
+						write(connection);
+					}
+				}
+			}
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "State server stopped", e);
+			running = false;
+		}
+	}
+
+	// runs a tick of the game and sends it to every viewer
+	private void tick() {
+		engine.step(1);
+		if (engine.isGameOver()) {
+			engine.reset();
+		}
+		sequence++;
+		record();
+		Arrays.fill(deltas, null);
+		keyframe = null;
+		// backwards, as a viewer whose socket fails is dropped
+		for (int i = connections.size() - 1; i >= 0; i--) {
+			send(connections.get(i));
+		}
+	}
+
+	// notes down the state of the tick just run
+	private void record() {
+		// the store is replaced when bricks are laid out in a copy of
+		// it, but only replacing the bricks means a new layout
+		bricks = model.getBrickStore();
+		if (model.getReplacedVersion() != replacedVersion) {
+			// a new layout; every viewer needs a keyframe of it
+			replacedVersion = model.getReplacedVersion();
+			epoch++;
+			added.clear();
+			seenVersion = replacedVersion;
+		}
+		// bricks laid out since, e.g. a region of a level as play
+		// reached it
+		for (int version = seenVersion + 1;
+				version <= model.getLayoutVersion(); version++) {
+			int first = model.getLaidOutFirstId(version);
+			int end = first + model.getLaidOutCount(version);
+			for (int id = first; id < end; id++) {
+				added.add(id);
+			}
+		}
+		seenVersion = model.getLayoutVersion();
+
+		TickState state = history[(int) sequence & (HISTORY - 1)];
+		state.tick = sequence;
+		state.epoch = epoch;
+		state.score = model.getScore();
+		state.ballsRemaining = model.getBallsRemaining();
+		state.setBallCount(model.getBalls().size());
+		for (int i = 0; i < state.ballCount; i++) {
+			Ball ball = model.getBalls().get(i);
+			state.ballX[i] = ball.getX();
+			state.ballY[i] = ball.getY();
+		}
+		state.shieldX = model.getShield().getX();
+		state.shieldY = model.getShield().getY();
+		state.added = added.size();
+		state.removed = model.getRemovedCount();
+	}
+
+	// sends a viewer this tick, unless it is still busy with the last
+	private void send(Connection connection) {
+		if (!connection.greeted) {
+			return;
+		}
+		if (connection.out != null && connection.out.hasRemaining()) {
+			skipped.increment();
+			return;
+		}
+		TickState now = history[(int) sequence & (HISTORY - 1)];
+		long base = Math.max(connection.acked, connection.keyed);
+		long behind = sequence - base;
+		TickState from = base >= 0 && behind < HISTORY ? history[(int) base
+				& (HISTORY - 1)] : null;
+		ByteBuffer message;
+		if (from == null || from.tick != base || from.epoch != epoch) {
+			if (keyframe == null) {
+				keyframe = encodeKeyframe(now);
+			}
+			message = keyframe;
+			connection.keyed = sequence;
+			keyframes.increment();
+		} else {
+			if (deltas[(int) behind] == null) {
+				deltas[(int) behind] = encodeDelta(from, now);
+			}
+			message = deltas[(int) behind];
+		}
+		connection.out = message.duplicate();
+		messages.increment();
+		write(connection);
+	}
+
+	// encodes a keyframe: the whole state, with every standing brick
+	private ByteBuffer encodeKeyframe(TickState now) {
+		Ball ball = model.getBall();
+		Shield shield = model.getShield();
+		begin(KEYFRAME, 96 + 20 * now.ballCount + 40 * bricks.getLiveCount());
+		putVarLong(scratch, now.tick);
+		putVarLong(scratch, model.getArenaWidth());
+		putVarLong(scratch, model.getArenaHeight());
+		putVarLong(scratch, now.score);
+		putVarLong(scratch, now.ballsRemaining);
+		putVarLong(scratch, ball.getSizeX());
+		putVarLong(scratch, ball.getSizeY());
+		putVarLong(scratch, ball.getColor().getRGB() & 0xffffff);
+		putVarLong(scratch, shield.getSizeX());
+		putVarLong(scratch, shield.getSizeY());
+		putVarLong(scratch, shield.getColor().getRGB() & 0xffffff);
+		putVarLong(scratch, now.ballCount);
+		for (int i = 0; i < now.ballCount; i++) {
+			putSigned(scratch, now.ballX[i]);
+			putSigned(scratch, now.ballY[i]);
+		}
+		putSigned(scratch, now.shieldX);
+		putSigned(scratch, now.shieldY);
+
+		// standing bricks in id order, each id as the gap from the last
+		putVarLong(scratch, bricks.size());
+		putVarLong(scratch, bricks.getLiveCount());
+		int last = -1;
+		for (int id = bricks.nextLive(0); id >= 0; id = bricks
+				.nextLive(id + 1)) {
+			putVarLong(scratch, id - last - 1);
+			putBrick(id);
+			last = id;
+		}
+		return finish();
+	}
+
+	// encodes a delta taking a viewer from one tick's state to another
+	private ByteBuffer encodeDelta(TickState from, TickState now) {
+		int flags = 0;
+		if (now.score != from.score) {
+			flags |= SCORE;
+		}
+		if (now.ballsRemaining != from.ballsRemaining) {
+			flags |= BALLS_REMAINING;
+		}
+		if (now.ballCount != from.ballCount) {
+			flags |= BALL_COUNT;
+		}
+		if (now.shieldX != from.shieldX || now.shieldY != from.shieldY) {
+			flags |= SHIELD;
+		}
+		if (now.added > from.added) {
+			flags |= ADDED;
+		}
+		if (now.removed > from.removed) {
+			flags |= REMOVED;
+		}
+		int moved = 0;
+		for (int i = 0; i < now.ballCount; i++) {
+			if (i >= from.ballCount || now.ballX[i] != from.ballX[i]
+					|| now.ballY[i] != from.ballY[i]) {
+				moved++;
+			}
+		}
+
+		begin(DELTA, 64 + 15 * moved + 40 * (now.added - from.added) + 5
+				* (now.removed - from.removed));
+		putVarLong(scratch, now.tick);
+		putVarLong(scratch, now.tick - from.tick);
+		scratch.put((byte) flags);
+		if ((flags & SCORE) != 0) {
+			putSigned(scratch, now.score - from.score);
+		}
+		if ((flags & BALLS_REMAINING) != 0) {
+			putVarLong(scratch, now.ballsRemaining);
+		}
+		if ((flags & BALL_COUNT) != 0) {
+			putVarLong(scratch, now.ballCount);
+		}
+		if ((flags & SHIELD) != 0) {
+			putSigned(scratch, now.shieldX - from.shieldX);
+			putSigned(scratch, now.shieldY - from.shieldY);
+		}
+
+		// balls that moved, each as an offset from where it was
+		putVarLong(scratch, moved);
+		for (int i = 0; i < now.ballCount; i++) {
+			int x = i < from.ballCount ? from.ballX[i] : 0;
+			int y = i < from.ballCount ? from.ballY[i] : 0;
+			if (i >= from.ballCount || now.ballX[i] != x
+					|| now.ballY[i] != y) {
+				putVarLong(scratch, i);
+				putSigned(scratch, now.ballX[i] - x);
+				putSigned(scratch, now.ballY[i] - y);
+			}
+		}
+
+		if ((flags & ADDED) != 0) {
+			putVarLong(scratch, bricks.size());
+			putVarLong(scratch, now.added - from.added);
+			for (int i = from.added; i < now.added; i++) {
+				putVarLong(scratch, added.get(i));
+				putBrick(added.get(i));
+			}
+		}
+		if ((flags & REMOVED) != 0) {
+			putVarLong(scratch, now.removed - from.removed);
+			for (int i = from.removed; i < now.removed; i++) {
+				putVarLong(scratch, model.getRemovedBrick(i));
+			}
+		}
+		return finish();
+	}
+
+	// writes what a viewer needs to draw a brick
+	private void putBrick(int id) {
+		putSigned(scratch, bricks.getX(id));
+		putSigned(scratch, bricks.getY(id));
+		putVarLong(scratch, bricks.getSizeX(id));
+		putVarLong(scratch, bricks.getSizeY(id));
+		putVarLong(scratch, bricks.getPaletteColor(bricks.getPalette(id))
+				.getRGB() & 0xffffff);
+	}
+
+	// starts encoding a message of at most the given size
+	private void begin(byte type, int most) {
+		if (scratch.capacity() < most) {
+			scratch = ByteBuffer.allocate(Math.max(most,
+					scratch.capacity() * 2));
+		}
+		scratch.clear();
+		scratch.putInt(0);
+		scratch.put(type);
+	}
+
+	// fills in the message's length and copies it out to share
+	private ByteBuffer finish() {
+		scratch.putInt(0, scratch.position() - 4);
+		return ByteBuffer.wrap(Arrays.copyOf(scratch.array(),
+				scratch.position()));
+	}
+
+	// takes a new connection
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		Connection connection = new Connection(channel);
+		connection.key = channel.register(selector, SelectionKey.OP_READ,
+				connection);
+		connections.add(connection);
+		viewers = connections.size();
+	}
+
+	// reads what a viewer has sent: acknowledgements and input
+	private void read(Connection connection) {
+		ByteBuffer in = connection.in;
+		try {
+			if (connection.channel.read(in) < 0) {
+				drop(connection);
+				return;
+			}
+			in.flip();
+			while (in.remaining() >= 4) {
+				int length = in.getInt(in.position());
+				if (length < 1 || length > in.capacity() - 4) {
+					throw new IOException("bad message length " + length);
+				}
+				if (in.remaining() < 4 + length) {
+					break;
+				}
+				int end = in.position() + 4 + length;
+				in.position(in.position() + 4);
+				receive(connection, in);
+				in.position(end);
+			}
+			in.compact();
+		} catch (IOException | BufferUnderflowException e) {
+			LOG.log(Level.FINE, "Dropping viewer", e);
+			drop(connection);
+		}
+	}
+
+	// acts on a message from a viewer
+	private void receive(Connection connection, ByteBuffer in)
+			throws IOException {
+		byte type = in.get();
+		if (type == HELLO) {
+			if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+				throw new IOException("not a viewer of this version");
+			}
+			connection.greeted = true;
+		} else if (!connection.greeted) {
+			throw new IOException("viewer didn't say hello");
+		} else if (type == ACK) {
+			long tick = in.getLong();
+			if (tick <= sequence && tick > connection.acked) {
+				connection.acked = tick;
+			}
+		} else if (type == INPUT) {
+			int flags = in.get();
+			if (player == null) {
+				player = connection;
+			}
+			if (player == connection) {
+				held = flags & (PaddleInput.LEFT | PaddleInput.RIGHT);
+				launch |= (flags & PaddleInput.LAUNCH) != 0;
+			}
+		} else {
+			throw new IOException("unknown message type " + type);
+		}
+	}
+
+	// writes as much of a viewer's message as its socket takes
+	private void write(Connection connection) {
+		try {
+			bytes.add(connection.channel.write(connection.out));
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Dropping viewer", e);
+			drop(connection);
+			return;
+		}
+		if (connection.out.hasRemaining()) {
+			connection.key.interestOps(SelectionKey.OP_READ
+					| SelectionKey.OP_WRITE);
+		} else {
+			connection.key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	// closes a connection, handing the paddle back if it was playing
+	private void drop(Connection connection) {
+		connection.key.cancel();
+		try {
+			connection.channel.close();
+		} catch (IOException e) {
+			LOG.log(Level.FINE, "Could not close viewer", e);
+		}
+		connections.remove(connection);
+		viewers = connections.size();
+		if (player == connection) {
+			player = null;
+			held = 0;
+			launch = false;
+		}
+	}
+
+	// writes a varint
+	static void putVarLong(ByteBuffer out, long value) {
+		while ((value & ~0x7fL) != 0) {
+			out.put((byte) (value & 0x7f | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	// writes a signed value as a zigzag varint, so small negatives
+	// are short too
+	static void putSigned(ByteBuffer out, long value) {
+		putVarLong(out, value << 1 ^ value >> 63);
+	}
+
+	// reads a varint
+	static long getVarLong(ByteBuffer in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.get() & 0xff;
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("bad varint");
+	}
+
+	// reads a zigzag varint
+	static long getSigned(ByteBuffer in) throws IOException {
+		long value = getVarLong(in);
+		return value >>> 1 ^ -(value & 1);
+	}
+
+	/**
+	 * What a viewer sees of one tick, apart from the bricks: kept by the
+	 * server to take deltas against, and by clients to apply them to
+	 */
+	static final class TickState {
+
+		// the tick, or -1 for none yet
+		long tick = -1;
+
+		// HUD values
+		int score, ballsRemaining;
+
+		// ball positions
+		int ballCount;
+		int[] ballX = new int[1], ballY = new int[1];
+
+		// shield position
+		int shieldX, shieldY;
+
+		// server only: the layout, and how far along its added and
+		// removed brick logs the tick was
+		int epoch;
+		int added, removed;
+
+		// sets the number of balls, growing the arrays if needed
+		void setBallCount(int count) {
+			if (count > ballX.length) {
+				int size = Math.max(count, ballX.length * 2);
+				ballX = Arrays.copyOf(ballX, size);
+				ballY = Arrays.copyOf(ballY, size);
+			}
+			ballCount = count;
+		}
+
+		// copies another tick's state
+		void copy(TickState from) {
+			tick = from.tick;
+			score = from.score;
+			ballsRemaining = from.ballsRemaining;
+			setBallCount(from.ballCount);
+			System.arraycopy(from.ballX, 0, ballX, 0, ballCount);
+			System.arraycopy(from.ballY, 0, ballY, 0, ballCount);
+			shieldX = from.shieldX;
+			shieldY = from.shieldY;
+			epoch = from.epoch;
+			added = from.added;
+			removed = from.removed;
+		}
+	}
+
+	// a viewer's connection
+	private static class Connection {
+
+		final SocketChannel channel;
+		SelectionKey key;
+
+		// what has been read but not acted on, and the message being
+		// written, shared with other viewers
+		final ByteBuffer in;
+		ByteBuffer out;
+
+		// whether the viewer has said hello, the last tick it
+		// acknowledged, and the last keyframe sent it
+		boolean greeted;
+		long acked = -1;
+		long keyed = -1;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+			in = ByteBuffer.allocate(64);
+		}
+	}
+
+	// plays the paddle from the player's input, or the fallback
+	private class RemoteInput implements PaddleInput {
+
+		@Override
+		public int nextInput(long tick, BrickYardModel model) {
+			if (player == null) {
+				return fallback != null ? fallback.nextInput(tick, model) : 0;
+			}
+			int flags = held | (launch ? PaddleInput.LAUNCH : 0);
+			launch = false;
+			return flags;
+		}
+	}
+
+	/**
+	 * Serves a game played by the computer until the process is killed,
+	 * printing how much is sent each second
+	 *
+	 * @param args
+	 *            the port, then the level file to play, if any
+	 * @throws IOException
+	 *             if the port can't be listened on or the level read
+	 * @throws InterruptedException
+	 *             if interrupted while waiting
+	 */
+	public static void main(String[] args) throws IOException,
+			InterruptedException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		BrickYardModel model = new BrickYardModel();
+		if (args.length > 1) {
+			model.setLevel(new LevelFile(new File(args[1])));
+		}
+		StateServer server = new StateServer(model, new SeededPaddleInput(1),
+				port);
+		System.out.printf("serving on %s:%d%n", InetAddress
+				.getLoopbackAddress().getHostAddress(), server.getPort());
+
+		long lastMessages = 0, lastKeyframes = 0, lastBytes = 0;
+		long lastSkipped = 0;
+		while (true) {
+			Thread.sleep(1000);
+			long sent = server.getMessagesSent();
+			long keyed = server.getKeyframesSent();
+			long sentBytes = server.getBytesSent();
+			long missed = server.getSkippedTicks();
+			long count = sent - lastMessages;
+			System.out.printf("viewers %5d  messages %7d/s  %6.1f bytes each"
+					+ "  keyframes %4d  missed %5d%n", server
+					.getViewerCount(), count, count > 0 ? (double) (sentBytes
+					- lastBytes) / count : 0.0, keyed - lastKeyframes, missed
+					- lastSkipped);
+			lastMessages = sent;
+			lastKeyframes = keyed;
+			lastBytes = sentBytes;
+			lastSkipped = missed;
+		}
+	}
+}
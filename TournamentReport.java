@@ -0,0 +1,251 @@
+/**
+ * Results of a tournament run by a TournamentRunner: the score, length, and
+ * balls lost of every game, in seed order, and totals over all of them.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class TournamentReport {
+
+	// seed of the first game; game i was played with seed firstSeed + i
+	private final long firstSeed;
+
+	// per game results, indexed by game
+	private final int[] scores;
+	private final int[] ballsLost;
+	private final long[] ticks;
+	private final long[] ticksToClear;
+
+	// wall clock time the whole tournament took
+	private long elapsedNanos;
+
+	/**
+	 * Constructs an empty TournamentReport
+	 *
+	 * @param firstSeed
+	 *            seed of the first game
+	 * @param games
+	 *            number of games
+	 */
+	TournamentReport(long firstSeed, int games) {
+		this.firstSeed = firstSeed;
+		scores = new int[games];
+		ballsLost = new int[games];
+		ticks = new long[games];
+		ticksToClear = new long[games];
+	}
+
+	// records the result of one game
+	void record(int game, int score, int lost, long played, long cleared) {
+		scores[game] = score;
+		ballsLost[game] = lost;
+		ticks[game] = played;
+		ticksToClear[game] = cleared;
+	}
+
+	// records how long the tournament took
+	void setElapsedNanos(long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Retrieves the number of games played
+	 *
+	 * @return game count
+	 */
+	public int getGames() {
+		return scores.length;
+	}
+
+	/**
+	 * Retrieves the seed a game was played with
+	 *
+	 * @param game
+	 *            which game, below getGames()
+	 * @return the seed
+	 */
+	public long getSeed(int game) {
+		return firstSeed + game;
+	}
+
+	/**
+	 * Retrieves the final score of a game
+	 *
+	 * @param game
+	 *            which game, below getGames()
+	 * @return the score
+	 */
+	public int getScore(int game) {
+		return scores[game];
+	}
+
+	/**
+	 * Retrieves the balls lost in a game
+	 *
+	 * @param game
+	 *            which game, below getGames()
+	 * @return balls lost
+	 */
+	public int getBallsLost(int game) {
+		return ballsLost[game];
+	}
+
+	/**
+	 * Retrieves the number of ticks a game ran for
+	 *
+	 * @param game
+	 *            which game, below getGames()
+	 * @return tick count
+	 */
+	public long getTicks(int game) {
+		return ticks[game];
+	}
+
+	/**
+	 * Retrieves the number of ticks a game took to knock out every brick
+	 *
+	 * @param game
+	 *            which game, below getGames()
+	 * @return tick count, or -1 if the bricks were never cleared
+	 */
+	public long getTicksToClear(int game) {
+		return ticksToClear[game];
+	}
+
+	/**
+	 * Retrieves the number of games that knocked out every brick
+	 *
+	 * @return cleared game count
+	 */
+	public int getClearedCount() {
+		int cleared = 0;
+		for (long t : ticksToClear) {
+			if (t >= 0) {
+				cleared++;
+			}
+		}
+		return cleared;
+	}
+
+	/**
+	 * Retrieves the mean final score
+	 *
+	 * @return mean score, 0 if no games were played
+	 */
+	public double getMeanScore() {
+		long total = 0;
+		for (int score : scores) {
+			total += score;
+		}
+		return scores.length == 0 ? 0 : (double) total / scores.length;
+	}
+
+	/**
+	 * Retrieves the lowest final score
+	 *
+	 * @return lowest score, 0 if no games were played
+	 */
+	public int getMinScore() {
+		int min = scores.length == 0 ? 0 : Integer.MAX_VALUE;
+		for (int score : scores) {
+			min = Math.min(min, score);
+		}
+		return min;
+	}
+
+	/**
+	 * Retrieves the highest final score
+	 *
+	 * @return highest score, 0 if no games were played
+	 */
+	public int getMaxScore() {
+		int max = scores.length == 0 ? 0 : Integer.MIN_VALUE;
+		for (int score : scores) {
+			max = Math.max(max, score);
+		}
+		return max;
+	}
+
+	/**
+	 * Retrieves the mean number of ticks taken to knock out every brick,
+	 * over the games that did
+	 *
+	 * @return mean ticks to clear, or -1 if no game cleared the bricks
+	 */
+	public double getMeanTicksToClear() {
+		long total = 0;
+		int cleared = 0;
+		for (long t : ticksToClear) {
+			if (t >= 0) {
+				total += t;
+				cleared++;
+			}
+		}
+		return cleared == 0 ? -1 : (double) total / cleared;
+	}
+
+	/**
+	 * Retrieves the mean number of balls lost per game
+	 *
+	 * @return mean balls lost, 0 if no games were played
+	 */
+	public double getMeanBallsLost() {
+		long total = 0;
+		for (int lost : ballsLost) {
+			total += lost;
+		}
+		return ballsLost.length == 0 ? 0 : (double) total / ballsLost.length;
+	}
+
+	/**
+	 * Retrieves the ticks run over every game
+	 *
+	 * @return total tick count
+	 */
+	public long getTotalTicks() {
+		long total = 0;
+		for (long t : ticks) {
+			total += t;
+		}
+		return total;
+	}
+
+	/**
+	 * Retrieves the wall clock time the tournament took
+	 *
+	 * @return elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * Retrieves the number of games played per second of wall clock time
+	 *
+	 * @return games per second
+	 */
+	public double getGamesPerSecond() {
+		return elapsedNanos == 0 ? 0 : scores.length * 1e9 / elapsedNanos;
+	}
+
+	/**
+	 * Summarizes the tournament, one figure per line
+	 */
+	@Override
+	public String toString() {
+		StringBuilder text = new StringBuilder();
+		text.append(String.format("games          %d (seeds %d to %d)%n",
+				getGames(), firstSeed, firstSeed + getGames() - 1));
+		text.append(String.format("score          mean %.1f, min %d, max %d%n",
+				getMeanScore(), getMinScore(), getMaxScore()));
+		text.append(String.format("cleared        %d, mean ticks %.0f%n",
+				getClearedCount(), getMeanTicksToClear()));
+		text.append(String.format("balls lost     mean %.2f%n",
+				getMeanBallsLost()));
+		text.append(String.format("ticks          %d%n", getTotalTicks()));
+		text.append(String.format("elapsed        %.1f ms, %.1f games/s, "
+				+ "%.2f Mticks/s%n", elapsedNanos / 1e6, getGamesPerSecond(),
+				elapsedNanos == 0 ? 0 : getTotalTicks() * 1e3 / elapsedNanos));
+		return text.toString();
+	}
+}
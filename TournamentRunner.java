@@ -0,0 +1,196 @@
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Plays many independent games at once, e.g. to evaluate a paddle AI. Each
+ * game is a headless BrickYardModel driven by a PaddleInput made from the
+ * game's seed; games are split into small blocks and spread over every core
+ * by a work-stealing ForkJoinPool, so a core that finishes its short games
+ * takes over the blocks of one still busy with long ones.
+ *
+ * A game ends when its last ball is lost, when every brick is knocked out,
+ * or after a set number of ticks, whichever comes first. Games share
+ * nothing, and each block reuses one model for all its games, so results
+ * are the same however many threads run them.
+ *
+ * @author Brian Lorton
+ *
+ */
+public class TournamentRunner implements Closeable {
+
+	/**
+	 * Makes the paddle input that plays a game
+	 */
+	public interface Players {
+
+		/**
+		 * Makes the paddle input for one game. Called on the thread that
+		 * plays it
+		 *
+		 * @param seed
+		 *            the game's seed
+		 * @return input for the game; the same seed should give the same
+		 *         play
+		 */
+		public PaddleInput create(long seed);
+	}
+
+	// most games played by one task before it is split
+	private static final int GAMES_PER_TASK = 4;
+
+	// defaults for running from the command line
+	private static final int DEFAULT_GAMES = 1000;
+	private static final long DEFAULT_MAX_TICKS = 1000000;
+
+	// makes each game's paddle input
+	private final Players players;
+
+	// longest a game may run
+	private final long maxTicks;
+
+	// threads the games run on
+	private final ForkJoinPool pool;
+
+	/**
+	 * Constructs a TournamentRunner using every core
+	 *
+	 * @param players
+	 *            makes each game's paddle input
+	 * @param maxTicks
+	 *            longest a game may run, in ticks
+	 */
+	public TournamentRunner(Players players, long maxTicks) {
+		this(players, maxTicks, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Constructs a TournamentRunner
+	 *
+	 * @param players
+	 *            makes each game's paddle input
+	 * @param maxTicks
+	 *            longest a game may run, in ticks
+	 * @param parallelism
+	 *            number of threads to play games on
+	 */
+	public TournamentRunner(Players players, long maxTicks, int parallelism) {
+		if (maxTicks < 1) {
+			throw new IllegalArgumentException("maxTicks must be positive: "
+					+ maxTicks);
+		}
+		this.players = players;
+		this.maxTicks = maxTicks;
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Plays a tournament, waiting until every game is over
+	 *
+	 * @param firstSeed
+	 *            seed of the first game; the rest count up from it
+	 * @param games
+	 *            number of games to play
+	 * @return the results of every game
+	 */
+	public TournamentReport run(long firstSeed, int games) {
+		TournamentReport report = new TournamentReport(firstSeed, games);
+		long start = System.nanoTime();
+		pool.invoke(new Block(report, firstSeed, 0, games));
+		report.setElapsedNanos(System.nanoTime() - start);
+		return report;
+	}
+
+	/**
+	 * Stops the threads games are played on
+	 */
+	@Override
+	public void close() {
+		pool.shutdown();
+	}
+
+	// plays one game to its end in the given model and records it
+	private void play(BrickYardModel model, long seed, int game,
+			TournamentReport report) {
+		HeadlessEngine engine = new HeadlessEngine(model, players.create(seed));
+		engine.reset();
+		long cleared = -1;
+		while (!engine.isGameOver() && engine.getTick() < maxTicks) {
+			engine.step(1);
+			if (model.getBrickStore().getLiveCount() == 0) {
+				cleared = engine.getTick();
+				break;
+			}
+		}
+		report.record(game, model.getScore(), model.getBallsLost(),
+				engine.getTick(), cleared);
+	}
+
+	/**
+	 * A run of consecutive games, split in half until small enough to play
+	 */
+	@SuppressWarnings("serial")
+	private class Block extends RecursiveAction {
+
+		// where the results go
+		private final TournamentReport report;
+
+		// seed of game 0
+		private final long firstSeed;
+
+		// games from and up to but not including to
+		private final int from, to;
+
+		Block(TournamentReport report, long firstSeed, int from, int to) {
+			this.report = report;
+			this.firstSeed = firstSeed;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > GAMES_PER_TASK) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new Block(report, firstSeed, from, mid), new Block(
+						report, firstSeed, mid, to));
+				return;
+			}
+			BrickYardModel model = new BrickYardModel();
+			for (int game = from; game < to; game++) {
+				play(model, firstSeed + game, game, report);
+			}
+		}
+	}
+
+	/**
+	 * Plays a tournament with SeededPaddleInput and prints the report
+	 *
+	 * @param args
+	 *            number of games, then optionally the first seed, the most
+	 *            ticks per game, and the number of threads
+	 */
+	public static void main(String[] args) {
+		int games = args.length > 0 ? Integer.parseInt(args[0])
+				: DEFAULT_GAMES;
+		long firstSeed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+		long maxTicks = args.length > 2 ? Long.parseLong(args[2])
+				: DEFAULT_MAX_TICKS;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime
+				.getRuntime().availableProcessors();
+
+		Players players = new Players() {
+			@Override
+			public PaddleInput create(long seed) {
+				return new SeededPaddleInput(seed);
+			}
+		};
+		TournamentRunner runner = new TournamentRunner(players, maxTicks,
+				threads);
+		try {
+			System.out.print(runner.run(firstSeed, games));
+		} finally {
+			runner.close();
+		}
+	}
+}